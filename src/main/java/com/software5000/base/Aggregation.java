@@ -0,0 +1,97 @@
+package com.software5000.base;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * 聚合函数，同时定义多个部分结果（如各分片的结果）的合并方式
+ * <p>
+ * AVG 无法由各部分的平均值合并得到，需要分别取 SUM 和 COUNT 后计算。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public enum Aggregation {
+
+    /**
+     * 行数，不指定属性时为 <code>COUNT(*)</code>，合并时相加
+     */
+    COUNT,
+
+    /**
+     * 求和，合并时相加，忽略空值
+     */
+    SUM,
+
+    /**
+     * 最小值，合并时取最小，忽略空值
+     */
+    MIN,
+
+    /**
+     * 最大值，合并时取最大，忽略空值
+     */
+    MAX;
+
+    /**
+     * 合并多个部分结果
+     *
+     * @param partials 各部分的聚合结果
+     * @return 合并后的结果，COUNT 为 Long，其他全部为空时为空
+     */
+    @SuppressWarnings("unchecked")
+    public Object merge(List<?> partials) {
+        if (this == COUNT) {
+            long count = 0;
+            for (Object partial : partials) {
+                count += partial == null ? 0 : ((Number) partial).longValue();
+            }
+            return count;
+        }
+
+        Object merged = null;
+        for (Object partial : partials) {
+            if (partial == null) {
+                continue;
+            }
+            if (merged == null) {
+                merged = partial;
+            } else if (this == SUM) {
+                merged = add((Number) merged, (Number) partial);
+            } else {
+                int compared = ((Comparable<Object>) partial).compareTo(merged);
+                if (this == MIN ? compared < 0 : compared > 0) {
+                    merged = partial;
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 整数保持整数，有浮点数时按浮点数相加，其余按 BigDecimal 相加
+     */
+    private static Number add(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return a.longValue() + b.longValue();
+        }
+        if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+            return a.doubleValue() + b.doubleValue();
+        }
+        return toBigDecimal(a).add(toBigDecimal(b));
+    }
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    private static BigDecimal toBigDecimal(Number n) {
+        if (n instanceof BigDecimal) {
+            return (BigDecimal) n;
+        }
+        if (n instanceof BigInteger) {
+            return new BigDecimal((BigInteger) n);
+        }
+        return new BigDecimal(n.toString());
+    }
+}
@@ -2,12 +2,35 @@ package com.software5000.base;
 
 import com.github.pagehelper.Page;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.software5000.base.jsql.AndExpressionList;
 import com.software5000.base.jsql.ConditionWrapper;
+import com.software5000.base.jsql.UpdateValues;
+import com.software5000.base.jfr.DaoOperation;
+import com.software5000.base.jfr.DaoOperations;
+import com.software5000.base.dialect.BulkLoadCsvWriter;
+import com.software5000.base.dialect.Dialect;
+import com.software5000.base.dialect.Dialects;
+import com.software5000.base.dialect.MySqlDialect;
+import com.software5000.base.id.IdGenerator;
+import com.software5000.base.plugins.CommonInterceptor;
 import com.software5000.util.BpMybatisException;
 import com.software5000.util.ClassUtil;
 import com.software5000.util.JsqlUtils;
+import com.software5000.util.OptimisticLockException;
+import net.sf.jsqlparser.expression.CaseExpression;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.RowConstructor;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.WhenClause;
+import net.sf.jsqlparser.expression.operators.arithmetic.Addition;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
 import net.sf.jsqlparser.expression.operators.relational.ItemsList;
 import net.sf.jsqlparser.expression.operators.relational.MultiExpressionList;
 import net.sf.jsqlparser.schema.Column;
@@ -21,7 +44,17 @@ import org.apache.ibatis.session.SqlSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 
 /**
@@ -51,11 +84,26 @@ public abstract class BaseDao {
      */
     public static String IGNORE_FILEDNAMES = "";
 
+    /**
+     * 数据库方言，生成语句中与数据库相关的部分由方言决定
+     */
+    public static Dialect DIALECT = new MySqlDialect();
+
+    /**
+     * 批量导入时每次生成主键的实体数量
+     */
+    private static final int BULK_LOAD_CHUNK_SIZE = 1000;
+
     /**
      * 全局分隔符
      */
     private static final String splitPrefix = ",";
 
+    /**
+     * 已注册的主键生成器
+     */
+    private final Map<Class<? extends IdGenerator>, IdGenerator> idGenerators = new ConcurrentHashMap<>();
+
     /**
      * 允许用户在继承时可以重新覆盖默认配置
      *
@@ -69,6 +117,19 @@ public abstract class BaseDao {
         com.software5000.base.BaseDao.IGNORE_FILEDNAMES = ignoreFiledNames;
     }
 
+    /**
+     * 允许用户在继承时可以重新覆盖默认配置
+     *
+     * @param dbSchemesSnakeType    默认数据库的结构类型
+     * @param dbSchemesAllLowerCase 数据库结构大小写情况
+     * @param ignoreFiledNames      需要固定忽略的字段名称
+     * @param dialect               数据库方言，可以通过 {@link Dialects#forName(String)} 获取
+     */
+    public void initConfig(boolean dbSchemesSnakeType, boolean dbSchemesAllLowerCase, String ignoreFiledNames, Dialect dialect) {
+        initConfig(dbSchemesSnakeType, dbSchemesAllLowerCase, ignoreFiledNames);
+        com.software5000.base.BaseDao.DIALECT = dialect;
+    }
+
 
     /**
      * 获取mybatis中的SqlSession，用于基础增删改查操作
@@ -77,6 +138,40 @@ public abstract class BaseDao {
      */
     public abstract SqlSession getSqlSession();
 
+    /**
+     * 注册已配置好的主键生成器，实体上 {@link GeneratedId#generator()} 指定同一个类时会使用该实例
+     * 未注册的生成器会在第一次使用时通过无参构造函数创建
+     *
+     * @param idGenerator 主键生成器
+     */
+    public void registerIdGenerator(IdGenerator idGenerator) {
+        idGenerators.put(idGenerator.getClass(), idGenerator);
+    }
+
+    /**
+     * 实例化未注册的主键生成器，没有无参构造的生成器必须先注册
+     */
+    private IdGenerator newIdGenerator(Class<? extends IdGenerator> generatorClass) {
+        try {
+            generatorClass.getConstructor();
+        } catch (NoSuchMethodException e) {
+            throw new BpMybatisException("id generator [" + generatorClass.getName() + "] has no default constructor, register a configured instance by registerIdGenerator first.");
+        }
+        return ClassUtil.newInstance(generatorClass);
+    }
+
+    /**
+     * 实体类对应的表名，默认为类名按数据库结构规则转换后的名称
+     * 子类可以覆盖以指定实际的表，如分表时按分片键选择物理表；
+     * 自行拼接语句的组件（如 {@link UnitOfWork}、写缓冲）也通过该方法取表名
+     *
+     * @param entityClass 实体类
+     * @return 表名
+     */
+    public String getTableName(Class<?> entityClass) {
+        return JsqlUtils.transDbSchemesType(entityClass.getSimpleName());
+    }
+
     // region insert 方法块
 
     /**
@@ -97,22 +192,29 @@ public abstract class BaseDao {
      * @return 带id的插入对象
      */
     public <T> T insertEntity(T entity) {
-        Insert insert = new Insert();
-        insert.setTable(new Table(JsqlUtils.transDbSchemesType(entity.getClass().getSimpleName())));
-        insert.setColumns(JsqlUtils.getAllColumnNamesFromEntity(entity.getClass()));
-        insert.setItemsList(JsqlUtils.getAllColumnValueFromEntity(entity, insert.getColumns()));
-
-        Map<String, Object> param = new HashMap<>(2);
-        param.put("baseSql", insert.toString());
-        param.put("entity", entity);
-        this.insert("com.software5000.base.BaseDao.insertEntity", param);
-
-        return entity;
+        try (DaoOperation operation = DaoOperations.begin("insertEntity", entity.getClass())) {
+            boolean idAssigned = assignIds(Collections.singletonList(entity));
+            initVersions(Collections.singletonList(entity));
+            Insert insert = new Insert();
+            insert.setTable(new Table(getTableName(entity.getClass())));
+            insert.setColumns(JsqlUtils.getAllColumnNamesFromEntity(entity.getClass()));
+            insert.setItemsList(JsqlUtils.getAllColumnValueFromEntity(entity, insert.getColumns()));
+
+            Map<String, Object> param = new HashMap<>(2);
+            param.put("baseSql", insert.toString());
+            param.put("entity", entity);
+            operation.sqlBuilt(insert.getTable().getName());
+            operation.executed(this.insert(idAssigned ? "com.software5000.base.BaseDao.insertEntityWithAssignedId"
+                    : "com.software5000.base.BaseDao.insertEntity", param));
+
+            return entity;
+        }
     }
 
 
     /**
      * 简单批量插入实体对象
+     * 超过方言的单条语句最大行数时拆分为多条语句插入
      *
      * @param entities 待插入的实体列表
      * @return 带id的插入对象列表
@@ -122,18 +224,223 @@ public abstract class BaseDao {
             return null;
         }
 
-        Insert insert = new Insert();
-        insert.setTable(new Table(JsqlUtils.transDbSchemesType(entities.get(0).getClass().getSimpleName())));
-        insert.setColumns(JsqlUtils.getAllColumnNamesFromEntity(entities.get(0).getClass()));
-        MultiExpressionList multiExpressionList = new MultiExpressionList();
-        entities.stream().map(e -> JsqlUtils.getAllColumnValueFromEntity(e, insert.getColumns())).forEach(multiExpressionList::addExpressionList);
-        insert.setItemsList(multiExpressionList);
-
-        Map<String, Object> param = new MapperMethod.ParamMap<>();
-        param.put("baseSql", insert.toString());
-        param.put("list", entities);
-        this.insert("com.software5000.base.BaseDao.insertEntityList", param);
-        return entities;
+        try (DaoOperation operation = DaoOperations.begin("insertEntities", entities.get(0).getClass())) {
+            boolean idAssigned = assignIds(entities);
+            initVersions(entities);
+            Table table = new Table(getTableName(entities.get(0).getClass()));
+            List<Column> columns = JsqlUtils.getAllColumnNamesFromEntity(entities.get(0).getClass());
+
+            List<Map<String, Object>> params = new ArrayList<>();
+            for (List<T> chunk : Lists.partition(entities, DIALECT.getMaxRowsPerInsert())) {
+                Insert insert = new Insert();
+                insert.setTable(table);
+                insert.setColumns(columns);
+                MultiExpressionList multiExpressionList = new MultiExpressionList();
+                chunk.stream().map(e -> JsqlUtils.getAllColumnValueFromEntity(e, columns)).forEach(multiExpressionList::addExpressionList);
+                insert.setItemsList(multiExpressionList);
+
+                Map<String, Object> param = new MapperMethod.ParamMap<>();
+                param.put("baseSql", insert.toString());
+                param.put("list", chunk);
+                params.add(param);
+            }
+            operation.sqlBuilt(table.getName());
+
+            int rows = 0;
+            for (Map<String, Object> param : params) {
+                rows += this.insert(idAssigned ? "com.software5000.base.BaseDao.insertEntityListWithAssignedId"
+                        : "com.software5000.base.BaseDao.insertEntityList", param);
+            }
+            operation.executed(rows);
+            return entities;
+        }
+    }
+
+    /**
+     * 使用数据库原生的批量导入命令插入大量数据
+     * 实体按 {@link #insertEntities(List)} 相同的列逐个写入临时CSV文件，再交给方言的导入命令
+     * （LOAD DATA LOCAL INFILE / COPY FROM STDIN / CSVREAD）一次导入，不经过mybatis的语句处理。
+     * 实体类没有 {@link GeneratedId} 注解并且第一个实体没有主键时，主键交给数据库生成，不会回填；
+     * 此时所有实体都不能有主键，反之亦然，混合的数据会抛出异常。
+     * <p>
+     * 连接取自当前的 SqlSession，使用 Spring 管理的 SqlSession 时需要在事务中调用。
+     * 导入直接在连接上执行，SqlSession 不会标记为有未提交的修改，
+     * 非自动提交的 SqlSession 需要调用 <code>commit(true)</code> 提交，<code>commit()</code> 会跳过提交。
+     *
+     * @param entityClass 实体类
+     * @param entities    待插入的实体，逐个读取，不需要全部加载到内存
+     * @return 插入行数
+     */
+    public <T> long bulkLoad(Class<T> entityClass, Iterator<T> entities) {
+        if (!entities.hasNext()) {
+            return 0;
+        }
+
+        try (DaoOperation operation = DaoOperations.begin("bulkLoad", entityClass)) {
+            String table = getTableName(entityClass);
+            List<T> chunk = new ArrayList<>(BULK_LOAD_CHUNK_SIZE);
+            chunk.add(entities.next());
+
+            String idFieldName = entityClass.isAnnotationPresent(GeneratedId.class) ? null : "id";
+            boolean withoutId = idFieldName != null && ClassUtil.getValueByField(chunk.get(0), idFieldName) == null;
+            List<Column> columns = JsqlUtils.getAllColumnNamesFromEntity(entityClass).stream()
+                    .filter(c -> !(withoutId && idFieldName.equals(JsqlUtils.transColumnToFieldName(c.getColumnName()))))
+                    .filter(c -> IGNORE_FILEDNAMES.indexOf(JsqlUtils.transColumnToFieldName(c.getColumnName())) == -1)
+                    .collect(Collectors.toList());
+
+            try (BulkLoadCsvWriter writer = new BulkLoadCsvWriter(columns)) {
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                writer.fixValue(JsqlUtils.transDbSchemesType("createTime"), now);
+                writer.fixValue(JsqlUtils.transDbSchemesType("updateTime"), now);
+                while (entities.hasNext()) {
+                    if (chunk.size() == BULK_LOAD_CHUNK_SIZE) {
+                        writeBulkLoadChunk(writer, chunk, idFieldName, withoutId);
+                    }
+                    chunk.add(entities.next());
+                }
+                writeBulkLoadChunk(writer, chunk, idFieldName, withoutId);
+                File csvFile = writer.finish();
+                operation.sqlBuilt(table);
+
+                long rows = DIALECT.bulkLoad(getSqlSession().getConnection(), table, columns, csvFile);
+                operation.executed(rows);
+                return rows;
+            } catch (IOException | SQLException e) {
+                throw new BpMybatisException("bulk load into [" + table + "] error", e);
+            }
+        }
+    }
+
+    /**
+     * 为一批实体生成主键后写入导入文件，并清空这一批
+     *
+     * @param writer      导入文件
+     * @param chunk       一批实体
+     * @param idFieldName 需要检查是否一致的主键字段，由生成器分配主键时为空
+     * @param withoutId   主键是否交给数据库生成
+     * @throws IOException 写入失败
+     */
+    private void writeBulkLoadChunk(BulkLoadCsvWriter writer, List<?> chunk, String idFieldName, boolean withoutId) throws IOException {
+        if (idFieldName != null) {
+            for (Object entity : chunk) {
+                if ((ClassUtil.getValueByField(entity, idFieldName) == null) != withoutId) {
+                    throw new BpMybatisException("bulk load entities must all have " + idFieldName + " or all not, entity : [" + entity + "]");
+                }
+            }
+        }
+        assignIds(chunk);
+        initVersions(chunk);
+        for (Object entity : chunk) {
+            writer.write(entity);
+        }
+        chunk.clear();
+    }
+
+    /**
+     * 实体类有 {@link Version} 字段时，插入前将为空的版本号设置为0
+     *
+     * @param entities 待插入的实体列表，需要是同一个类
+     */
+    void initVersions(List<?> entities) {
+        String versionField = JsqlUtils.getVersionFieldName(entities.get(0).getClass());
+        if (versionField == null) {
+            return;
+        }
+        for (Object entity : entities) {
+            if (ClassUtil.getValueByField(entity, versionField) == null) {
+                JsqlUtils.setVersion(entity, versionField, JsqlUtils.nextVersion(null));
+            }
+        }
+    }
+
+    /**
+     * 实体类上有 {@link GeneratedId} 注解时，在插入前为主键为空的实体生成主键
+     *
+     * @param entities 待插入的实体列表，需要是同一个类
+     * @return 是否由客户端生成主键，是则插入时不再使用 useGeneratedKeys 回填
+     */
+    boolean assignIds(List<?> entities) {
+        Class<?> entityClass = entities.get(0).getClass();
+        GeneratedId generatedId = entityClass.getAnnotation(GeneratedId.class);
+        if (generatedId == null) {
+            return false;
+        }
+
+        List<Object> withoutId = new ArrayList<>();
+        for (Object entity : entities) {
+            if (ClassUtil.getValueByField(entity, generatedId.field()) == null) {
+                withoutId.add(entity);
+            }
+        }
+        if (withoutId.isEmpty()) {
+            return true;
+        }
+
+        IdGenerator idGenerator = idGenerators.computeIfAbsent(generatedId.generator(), this::newIdGenerator);
+        Object[] ids = withoutId.size() == 1
+                ? new Object[]{idGenerator.nextId(this, entityClass)}
+                : idGenerator.nextIds(this, entityClass, withoutId.size());
+        Class<?> idType = getFieldType(entityClass, generatedId.field());
+        for (int i = 0; i < withoutId.size(); i++) {
+            try {
+                ClassUtil.setValueByField(withoutId.get(i), generatedId.field(), convertIdValue(ids[i], idType));
+            } catch (BpMybatisException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new BpMybatisException("set generated id error, entity : [" + entityClass.getName() + "] field : [" + generatedId.field() + "]", e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 获取字段类型，与字段取值一样只查找当前类和直接父类
+     *
+     * @param entityClass 实体类
+     * @param fieldName   字段名称
+     * @return 字段类型
+     */
+    private static Class<?> getFieldType(Class<?> entityClass, String fieldName) {
+        try {
+            Field field;
+            try {
+                field = entityClass.getDeclaredField(fieldName);
+            } catch (NoSuchFieldException e) {
+                field = entityClass.getSuperclass().getDeclaredField(fieldName);
+            }
+            return field.getType();
+        } catch (NoSuchFieldException e) {
+            throw new BpMybatisException("the fieldname : [" + fieldName + "] not exist in class [" + entityClass.getName() + "]");
+        }
+    }
+
+    /**
+     * 将生成器返回的主键转换为字段的实际类型
+     *
+     * @param id     生成的主键
+     * @param idType 字段类型
+     * @return 转换后的主键
+     */
+    private static Object convertIdValue(Object id, Class<?> idType) {
+        if (id == null || idType.isInstance(id)) {
+            return id;
+        }
+        if (idType == String.class) {
+            return String.valueOf(id);
+        }
+        if (!(id instanceof Number)) {
+            throw new BpMybatisException("can't convert generated id [" + id + "] to type [" + idType.getName() + "]");
+        }
+        if (idType == Long.class || idType == long.class) {
+            return ((Number) id).longValue();
+        }
+        if (idType == Integer.class || idType == int.class) {
+            return Math.toIntExact(((Number) id).longValue());
+        }
+        if (idType == BigInteger.class) {
+            return BigInteger.valueOf(((Number) id).longValue());
+        }
+        throw new BpMybatisException("can't convert generated id [" + id + "] to type [" + idType.getName() + "]");
     }
     // endregion
 
@@ -159,26 +466,245 @@ public abstract class BaseDao {
      * @return 影响行数
      */
     public int deleteEntity(Object entity, String queryFields) {
-        List<Column> conditionCols = JsqlUtils.getAllColumnNamesFromEntityWithNames(entity.getClass(), Arrays.asList(queryFields.split(",")));
+        try (DaoOperation operation = DaoOperations.begin("deleteEntity", entity.getClass())) {
+            List<Column> conditionCols = JsqlUtils.getAllColumnNamesFromEntityWithNames(entity.getClass(), Arrays.asList(queryFields.split(",")));
 
-        if (Iterables.isEmpty(conditionCols)) {
-            throw new BpMybatisException("can't update data without value of condition columns.");
+            if (Iterables.isEmpty(conditionCols)) {
+                throw new BpMybatisException("can't update data without value of condition columns.");
+            }
+
+            Delete delete = new Delete();
+            delete.setTable(new Table(getTableName(entity.getClass())));
+
+            AndExpressionList andExpressionList = new AndExpressionList();
+            conditionCols
+                    .forEach(e -> andExpressionList.append(JsqlUtils.equalTo(e, JsqlUtils.getColumnValueFromEntity(entity, e.getColumnName()))));
+
+            delete.setWhere(andExpressionList.get());
+            operation.sqlBuilt(delete.getTable().getName());
+
+            int rows = this.delete("com.software5000.base.BaseDao.deleteEntity", new HashMap<String, String>() {{
+                put("baseSql", delete.toString());
+            }});
+            operation.executed(rows);
+            return rows;
         }
+    }
 
-        Delete delete = new Delete();
-        delete.setTables(Arrays.asList(new Table(JsqlUtils.transDbSchemesType(entity.getClass().getSimpleName()))));
+    /**
+     * 批量删除实体对象
+     * 只有一个条件字段时按方言的 IN 列表上限分段生成 <code>DELETE ... WHERE col IN (...)</code>；
+     * 多个条件字段时生成 <code>(a, b) IN ((..), (..))</code>，方言不支持行值 IN 时使用 OR 连接的等式
+     *
+     * @param entities    实体对象列表，需要是同一个类
+     * @param queryFields 作为删除条件的类属性名称，如<code>ID,codeDesc</code>
+     * @return 影响行数
+     */
+    public int deleteEntities(List<?> entities, String queryFields) {
+        if (entities == null || entities.size() == 0) {
+            return 0;
+        }
 
-        AndExpressionList andExpressionList = new AndExpressionList();
-        conditionCols
-                .forEach(e -> andExpressionList.append(JsqlUtils.equalTo(e, JsqlUtils.getColumnValueFromEntity(entity, e.getColumnName()))));
+        Class<?> entityClass = entities.get(0).getClass();
+        try (DaoOperation operation = DaoOperations.begin("deleteEntities", entityClass)) {
+            List<Column> conditionCols = JsqlUtils.getAllColumnNamesFromEntityWithNames(entityClass, Arrays.asList(queryFields.split(splitPrefix)));
+            if (Iterables.isEmpty(conditionCols)) {
+                throw new BpMybatisException("can't delete data without value of condition columns.");
+            }
+            Table table = new Table(getTableName(entityClass));
+
+            // 相同的条件值只保留一个
+            Map<String, ExpressionList> keys = new LinkedHashMap<>();
+            for (Object entity : entities) {
+                ExpressionList key = JsqlUtils.getAllColumnValueFromEntity(entity, conditionCols);
+                keys.putIfAbsent(key.toString(), key);
+            }
+
+            List<String> sqls = new ArrayList<>();
+            for (List<ExpressionList> chunk : Lists.partition(new ArrayList<>(keys.values()), DIALECT.getMaxInListSize())) {
+                Delete delete = new Delete();
+                delete.setTable(table);
+                delete.setWhere(getKeysCondition(conditionCols, chunk));
+                sqls.add(delete.toString());
+            }
+            operation.sqlBuilt(table.getName());
+
+            int rows = 0;
+            for (String sql : sqls) {
+                rows += this.delete("com.software5000.base.BaseDao.deleteEntities", new HashMap<String, String>() {{
+                    put("baseSql", sql);
+                }});
+            }
+            operation.executed(rows);
+            return rows;
+        }
+    }
+
+    /**
+     * 多组条件值的过滤条件
+     *
+     * @param conditionCols 条件列
+     * @param keys          每组条件值，与条件列顺序对应
+     * @return 过滤条件
+     */
+    private static Expression getKeysCondition(List<Column> conditionCols, List<ExpressionList> keys) {
+        if (conditionCols.size() == 1) {
+            return JsqlUtils.in(conditionCols.get(0), new ExpressionList(keys.stream()
+                    .map(k -> k.getExpressions().get(0)).collect(Collectors.toList())));
+        }
+
+        if (DIALECT.supportsRowValueIn()) {
+            RowConstructor columns = new RowConstructor();
+            columns.setExprList(new ExpressionList(new ArrayList<>(conditionCols)));
+            InExpression in = new InExpression();
+            in.setLeftExpression(columns);
+            in.setRightItemsList(new ExpressionList(keys.stream().map(k -> {
+                RowConstructor row = new RowConstructor();
+                row.setExprList(k);
+                return (Expression) row;
+            }).collect(Collectors.toList())));
+            return in;
+        }
+
+        Expression condition = null;
+        for (ExpressionList key : keys) {
+            AndExpressionList andExpressionList = new AndExpressionList();
+            for (int i = 0; i < conditionCols.size(); i++) {
+                andExpressionList.append(JsqlUtils.equalTo(conditionCols.get(i), key.getExpressions().get(i)));
+            }
+            Expression keyCondition = new Parenthesis(andExpressionList.get());
+            condition = condition == null ? keyCondition : new OrExpression(condition, keyCondition);
+        }
+        return condition;
+    }
+
+    /**
+     * 按id顺序分段删除满足条件的数据
+     *
+     * @param entityClass      实体类
+     * @param conditionWrapper 删除条件
+     * @param chunkSize        每段删除的行数
+     * @param pauseMillis      每段之间的停顿，给其他事务和主从复制留出时间
+     * @return 删除的行数
+     */
+    public long deleteWhere(Class<?> entityClass, ConditionWrapper conditionWrapper, int chunkSize, long pauseMillis) {
+        return deleteWhere(entityClass, conditionWrapper, chunkSize, pauseMillis, null, null, null);
+    }
+
+    /**
+     * 按id顺序分段删除满足条件的数据，可以先把每段数据复制到归档表
+     * <p>
+     * 每段的范围由 <code>id &gt; 上一段的上界 AND id &lt;= 本段第 chunkSize 行的id</code> 确定，每段删除后提交，
+     * 避免一条不限范围的 DELETE 长时间持有大量行锁并造成主从延迟。
+     * 归档时同一段的复制和删除在同一次提交中，复制前会先清除归档表中与本段id相同的数据，中断后重复执行不会产生重复数据。
+     * 通过 Spring 管理的 SqlSession 在事务外调用时每条语句会自动提交，在事务中调用时无法分段提交。
+     *
+     * @param entityClass      实体类
+     * @param conditionWrapper 删除条件，为空时删除全部数据
+     * @param chunkSize        每段删除的行数
+     * @param pauseMillis      每段之间的停顿，给其他事务和主从复制留出时间
+     * @param archiveClass     归档表实体类，为空时不归档
+     * @param startAfterId     从该id之后开始，用于中断后继续，为空时从头开始
+     * @param progressListener 每段完成后的进度回调，可以为空
+     * @return 删除的行数
+     */
+    public long deleteWhere(Class<?> entityClass, ConditionWrapper conditionWrapper, int chunkSize, long pauseMillis,
+                            Class<?> archiveClass, Long startAfterId, Consumer<ChunkProgress> progressListener) {
+        if (chunkSize <= 0) {
+            throw new BpMybatisException("chunkSize must be greater than 0.");
+        }
 
-        delete.setWhere(andExpressionList.get());
+        try (DaoOperation operation = DaoOperations.begin("deleteWhere", entityClass)) {
+            Table table = new Table(getTableName(entityClass));
+            Table archiveTable = archiveClass == null ? null : new Table(getTableName(archiveClass));
+            Map<Column, Column> archiveColumns = archiveClass == null ? null : getCopyColumns(entityClass, archiveClass, null);
+            Column idColumn = new Column(JsqlUtils.transDbSchemesType(CommonInterceptor.ID_FIELD_NAME));
+            Expression where = conditionWrapper != null ? conditionWrapper.get() : null;
+            operation.sqlBuilt(table.getName());
+
+            long rows = 0;
+            long chunks = 0;
+            Long lowerId = startAfterId;
+            for (; ; ) {
+                Long upperId = selectChunkUpperId(table, idColumn, where, lowerId, chunkSize);
+                Expression chunkWhere = getIdRangeCondition(where, idColumn, lowerId, upperId);
+                if (archiveTable != null) {
+                    PlainSelect chunkIds = new PlainSelect();
+                    chunkIds.addSelectItems(new SelectExpressionItem(idColumn));
+                    chunkIds.setFromItem(table);
+                    chunkIds.setWhere(chunkWhere);
+                    SubSelect subSelect = new SubSelect();
+                    subSelect.setSelectBody(chunkIds);
+                    deleteByCondition(archiveTable, JsqlUtils.in(idColumn, subSelect));
+                    copyEntities(table, archiveTable, archiveColumns, chunkWhere);
+                }
+                rows += deleteByCondition(table, chunkWhere);
+                commitChunk();
+                chunks++;
+
+                ChunkProgress progress = new ChunkProgress(table.getName(), chunks, rows, upperId, upperId == null);
+                logger.debug("delete chunk finished : " + progress);
+                if (progressListener != null) {
+                    progressListener.accept(progress);
+                }
+                if (upperId == null) {
+                    break;
+                }
+                lowerId = upperId;
+                pause(pauseMillis, table.getName(), lowerId);
+            }
+            operation.executed(rows);
+            return rows;
+        }
+    }
 
-        return this.delete("com.software5000.base.BaseDao.deleteEntity", new HashMap<String, String>() {{
+    /**
+     * 按条件删除
+     *
+     * @param table 表
+     * @param where 条件
+     * @return 影响行数
+     */
+    private int deleteByCondition(Table table, Expression where) {
+        Delete delete = new Delete();
+        delete.setTable(table);
+        delete.setWhere(where);
+        return this.delete("com.software5000.base.BaseDao.deleteEntities", new HashMap<String, String>() {{
             put("baseSql", delete.toString());
         }});
     }
 
+    /**
+     * 提交一段操作，Spring 管理的 SqlSession 不允许手动提交，由其自行提交
+     */
+    private void commitChunk() {
+        try {
+            getSqlSession().commit();
+        } catch (UnsupportedOperationException e) {
+            logger.trace("sql session not support manual commit, skip.");
+        }
+    }
+
+    /**
+     * 分段操作之间的停顿
+     *
+     * @param pauseMillis 停顿时间
+     * @param table       操作的表名
+     * @param lastId      已处理完的最大id
+     */
+    private static void pause(long pauseMillis, String table, Long lastId) {
+        if (pauseMillis <= 0) {
+            Thread.yield();
+            return;
+        }
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BpMybatisException("chunked operation on [" + table + "] interrupted, resume after id : [" + lastId + "]", e);
+        }
+    }
+
     // endregion
 
     // region update 方法块
@@ -243,6 +769,56 @@ public abstract class BaseDao {
         entities.forEach(entity -> updateEntity(entity, queryFields, valueUpdatePolicy));
     }
 
+    /**
+     * 按条件批量更新，一条语句更新所有满足条件的数据
+     * 值可以是普通的值，也可以是 {@link UpdateValues} 生成的表达式，如 <code>UpdateValues.increment("stock", -1)</code>
+     * 生成 <code>SET STOCK = STOCK + -1</code>，在数据库中原子地完成计算，不需要先查询再更新
+     * 实体类有 {@link Version} 字段时版本号加1但不检查，需要检查时在条件中加上版本号
+     *
+     * @param entityClass      实体类
+     * @param values           类属性名称到更新值的映射
+     * @param conditionWrapper 更新条件
+     * @return 影响行数
+     */
+    public int updateWhere(Class<?> entityClass, Map<String, ?> values, ConditionWrapper conditionWrapper) {
+        if (conditionWrapper == null) {
+            throw new BpMybatisException("can't update data without condition.");
+        }
+        if (values == null || values.isEmpty()) {
+            throw new BpMybatisException("can't update data without values.");
+        }
+
+        try (DaoOperation operation = DaoOperations.begin("updateWhere", entityClass)) {
+            // 校验属性名称，防止拼写错误
+            JsqlUtils.getAllColumnNamesFromEntityWithNames(entityClass, new ArrayList<>(values.keySet()));
+
+            Update update = new Update();
+            update.setTables(Arrays.asList(new Table(getTableName(entityClass))));
+            List<Column> columns = new ArrayList<>();
+            List<Expression> expressions = new ArrayList<>();
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                columns.add(new Column(JsqlUtils.transDbSchemesType(entry.getKey())));
+                expressions.add(entry.getValue() instanceof Expression
+                        ? (Expression) entry.getValue() : JsqlUtils.convertValueType(entry.getValue()));
+            }
+            update.setColumns(columns);
+            update.setExpressions(expressions);
+            String versionField = JsqlUtils.getVersionFieldName(entityClass);
+            if (versionField != null && !values.containsKey(versionField)) {
+                // 按条件更新不做版本检查，但需要让持有旧版本号的更新失败
+                JsqlUtils.setVersionIncrement(update, versionField);
+            }
+            update.setWhere(conditionWrapper.get());
+            operation.sqlBuilt(update.getTables().get(0).getName());
+
+            int rows = this.update("com.software5000.base.BaseDao.updateEntities", new HashMap<String, String>() {{
+                put("baseSql", update.toString());
+            }});
+            operation.executed(rows);
+            return rows;
+        }
+    }
+
     /**
      * 根据指定字段设置过滤条件，指定字段更新值
      *
@@ -257,22 +833,446 @@ public abstract class BaseDao {
             throw new BpMybatisException("can't update data without value of condition columns.");
         }
 
-        Update update = new Update();
-        update.setTables(Arrays.asList(new Table(JsqlUtils.transDbSchemesType(entity.getClass().getSimpleName()))));
-        Object[] colsAndValuesForValues = JsqlUtils.getNamedColumnAndValueFromEntity(entity, valueCols, valueUpdatePolicy);
-        update.setColumns((List<Column>) colsAndValuesForValues[0]);
-        update.setExpressions((List<Expression>) colsAndValuesForValues[1]);
+        try (DaoOperation operation = DaoOperations.begin("updateEntity", entity.getClass())) {
+            Update update = new Update();
+            update.setTables(Arrays.asList(new Table(getTableName(entity.getClass()))));
+            Object[] colsAndValuesForValues = JsqlUtils.getNamedColumnAndValueFromEntity(entity, valueCols, valueUpdatePolicy);
+            update.setColumns((List<Column>) colsAndValuesForValues[0]);
+            update.setExpressions((List<Expression>) colsAndValuesForValues[1]);
+
+            AndExpressionList andExpressionList = new AndExpressionList();
+            conditionCols
+                    .forEach(e -> andExpressionList.append(JsqlUtils.equalTo(e, JsqlUtils.getColumnValueFromEntity(entity, e.getColumnName()))));
+
+            // 乐观锁：条件中加上当前版本号，版本号在数据库中加1
+            String versionField = JsqlUtils.getVersionFieldName(entity.getClass());
+            Object version = null;
+            if (versionField != null) {
+                version = ClassUtil.getValueByField(entity, versionField);
+                if (version == null) {
+                    throw new BpMybatisException("version field : [" + versionField + "] of entity : [" + entity.getClass().getName() + "] is null, can't update with optimistic lock.");
+                }
+                JsqlUtils.setVersionIncrement(update, versionField);
+                andExpressionList.append(JsqlUtils.equalTo(new Column(JsqlUtils.transDbSchemesType(versionField)), JsqlUtils.convertValueType(version)));
+            }
 
-        AndExpressionList andExpressionList = new AndExpressionList();
-        conditionCols
-                .forEach(e -> andExpressionList.append(JsqlUtils.equalTo(e, JsqlUtils.getColumnValueFromEntity(entity, e.getColumnName()))));
+            update.setWhere(andExpressionList.get());
+            operation.sqlBuilt(update.getTables().get(0).getName());
+
+            int rows = this.update("com.software5000.base.BaseDao.updateEntities", new HashMap<String, String>() {{
+                put("baseSql", update.toString());
+            }});
+            operation.executed(rows);
+            if (versionField != null) {
+                if (rows == 0) {
+                    throw new OptimisticLockException(entity.getClass(), update.getWhere().toString(), version);
+                }
+                JsqlUtils.setVersion(entity, versionField, JsqlUtils.nextVersion(version));
+            }
+            return rows;
+        }
+    }
+    // endregion
 
-        update.setWhere(andExpressionList.get());
+    // region upsert 方法块
 
-        return this.update("com.software5000.base.BaseDao.updateEntities", new HashMap<String, String>() {{
-            put("baseSql", update.toString());
+    /**
+     * 插入或更新实体对象
+     * 按冲突字段（主键或唯一索引）判断数据是否已存在，一条语句完成，替代先查询再插入/更新的做法
+     * 数据已存在时 {@link Version} 字段只加1，不检查实体中的版本号
+     *
+     * @param entity         实体对象
+     * @param conflictFields 构成主键或唯一索引的类属性名称，如<code>code,shopId</code>
+     * @return 影响行数
+     */
+    public int upsertEntity(Object entity, String conflictFields) {
+        return upsertEntity(entity, conflictFields, ValueUpdatePolicy.NOT_EMPTY_NOT_NULL);
+    }
+
+    /**
+     * 插入或更新实体对象
+     *
+     * @param entity            实体对象
+     * @param conflictFields    构成主键或唯一索引的类属性名称，如<code>code,shopId</code>
+     * @param valueUpdatePolicy 数据已存在时的更新策略
+     * @return 影响行数
+     */
+    public int upsertEntity(Object entity, String conflictFields, ValueUpdatePolicy valueUpdatePolicy) {
+        return upsertEntities("upsertEntity", Collections.singletonList(entity), conflictFields, valueUpdatePolicy);
+    }
+
+    /**
+     * 批量插入或更新实体对象
+     *
+     * @param entities       实体对象列表，需要是同一个类
+     * @param conflictFields 构成主键或唯一索引的类属性名称，如<code>code,shopId</code>
+     * @return 影响行数
+     */
+    public int upsertEntities(List<?> entities, String conflictFields) {
+        return upsertEntities(entities, conflictFields, ValueUpdatePolicy.NOT_EMPTY_NOT_NULL);
+    }
+
+    /**
+     * 批量插入或更新实体对象
+     *
+     * @param entities          实体对象列表，需要是同一个类
+     * @param conflictFields    构成主键或唯一索引的类属性名称，如<code>code,shopId</code>
+     * @param valueUpdatePolicy 数据已存在时的更新策略
+     * @return 影响行数
+     */
+    public int upsertEntities(List<?> entities, String conflictFields, ValueUpdatePolicy valueUpdatePolicy) {
+        return upsertEntities("upsertEntities", entities, conflictFields, valueUpdatePolicy);
+    }
+
+    /**
+     * 按方言生成 upsert 语句
+     * 插入部分与 {@link #insertEntities(List)} 使用相同的列；更新部分排除冲突字段、id和创建时间，
+     * 每一列按更新策略决定是否用新值覆盖旧值，这样批量时每个实体可以各自跳过空值。
+     * 各方言的 upsert 语法无法再被通用拦截器解析，新增和修改时间在这里直接写入
+     *
+     * @param operationName     操作名称
+     * @param entities          实体对象列表
+     * @param conflictFields    冲突字段
+     * @param valueUpdatePolicy 更新策略
+     * @return 影响行数
+     */
+    private int upsertEntities(String operationName, List<?> entities, String conflictFields, ValueUpdatePolicy valueUpdatePolicy) {
+        if (entities == null || entities.size() == 0) {
+            return 0;
+        }
+
+        Class<?> entityClass = entities.get(0).getClass();
+        try (DaoOperation operation = DaoOperations.begin(operationName, entityClass)) {
+            List<String> conflictFieldNames = Arrays.asList(conflictFields.split(splitPrefix));
+            List<Column> conflictColumns = JsqlUtils.getAllColumnNamesFromEntityWithNames(entityClass, conflictFieldNames);
+            if (Iterables.isEmpty(conflictColumns)) {
+                throw new BpMybatisException("can't upsert data without conflict columns.");
+            }
+            List<Column> updateColumns = JsqlUtils.getAllColumnNamesFromEntityExceptSome(entityClass, conflictFieldNames);
+
+            assignIds(entities);
+            initVersions(entities);
+            Table table = new Table(getTableName(entityClass));
+            List<Column> columns = JsqlUtils.getAllColumnNamesFromEntity(entityClass);
+            String versionField = JsqlUtils.getVersionFieldName(entityClass);
+
+            List<Column> duplicateUpdateColumns = new ArrayList<>();
+            List<Expression> duplicateUpdateExpressions = new ArrayList<>();
+            for (Column column : updateColumns) {
+                String fieldName = JsqlUtils.transColumnToFieldName(column.getColumnName());
+                if ("id".equals(fieldName) || "createTime".equals(fieldName) || IGNORE_FILEDNAMES.indexOf(fieldName) > -1) {
+                    continue;
+                }
+                duplicateUpdateColumns.add(column);
+                if (fieldName.equals(versionField)) {
+                    // 已存在的数据版本号加1，不使用插入值覆盖
+                    Addition addition = new Addition();
+                    addition.setLeftExpression(new Column(table, column.getColumnName()));
+                    addition.setRightExpression(new LongValue(1));
+                    duplicateUpdateExpressions.add(addition);
+                    continue;
+                }
+                duplicateUpdateExpressions.add(getUpsertValue(DIALECT.insertedValue(column), new Column(table, column.getColumnName()),
+                        getFieldType(entityClass, fieldName) == String.class, valueUpdatePolicy));
+            }
+
+            List<Map<String, Object>> params = new ArrayList<>();
+            for (List<?> chunk : Lists.partition(entities, DIALECT.getMaxRowsPerInsert())) {
+                Insert insert = new Insert();
+                insert.setTable(table);
+                insert.setColumns(columns);
+                if (chunk.size() == 1) {
+                    insert.setItemsList(JsqlUtils.getAllColumnValueFromEntity(chunk.get(0), columns));
+                } else {
+                    MultiExpressionList multiExpressionList = new MultiExpressionList();
+                    chunk.stream().map(e -> JsqlUtils.getAllColumnValueFromEntity(e, columns)).forEach(multiExpressionList::addExpressionList);
+                    insert.setItemsList(multiExpressionList);
+                }
+                CommonInterceptor.setTimeForInsert(insert);
+
+                Map<String, Object> param = new MapperMethod.ParamMap<>();
+                param.put("baseSql", DIALECT.upsert(insert, conflictColumns, duplicateUpdateColumns, duplicateUpdateExpressions));
+                param.put("list", chunk);
+                params.add(param);
+            }
+            operation.sqlBuilt(table.getName());
+
+            int rows = 0;
+            for (Map<String, Object> param : params) {
+                rows += this.insert("com.software5000.base.BaseDao.upsertEntities", param);
+            }
+            operation.executed(rows);
+            return rows;
+        }
+    }
+
+    /**
+     * 数据已存在时单个列的更新值，按更新策略在新值为NULL或空字符串时保留原值
+     *
+     * @param insertedValue     方言中引用待插入值的表达式
+     * @param column            引用原值的列
+     * @param stringType        是否为字符串类型，只有字符串需要判断空值
+     * @param valueUpdatePolicy 更新策略
+     * @return 更新值表达式
+     */
+    private static Expression getUpsertValue(Expression insertedValue, Column column, boolean stringType, ValueUpdatePolicy valueUpdatePolicy) {
+        boolean skipNullValue = valueUpdatePolicy.equals(ValueUpdatePolicy.NOT_EMPTY_NOT_NULL)
+                || valueUpdatePolicy.equals(ValueUpdatePolicy.WITH_EMPTY_NOT_NULL);
+        boolean skipEmptyValue = stringType && (valueUpdatePolicy.equals(ValueUpdatePolicy.NOT_EMPTY_NOT_NULL)
+                || valueUpdatePolicy.equals(ValueUpdatePolicy.NOT_EMPTY_WITH_NULL));
+
+        if (skipEmptyValue && skipNullValue) {
+            return JsqlUtils.function("COALESCE", JsqlUtils.function("NULLIF", insertedValue, new StringValue("")), column);
+        } else if (skipEmptyValue) {
+            WhenClause whenClause = new WhenClause();
+            EqualsTo emptyValue = new EqualsTo();
+            emptyValue.setLeftExpression(insertedValue);
+            emptyValue.setRightExpression(new StringValue(""));
+            whenClause.setWhenExpression(emptyValue);
+            whenClause.setThenExpression(column);
+            CaseExpression caseExpression = new CaseExpression();
+            caseExpression.setWhenClauses(Collections.singletonList(whenClause));
+            caseExpression.setElseExpression(insertedValue);
+            return caseExpression;
+        } else if (skipNullValue) {
+            return JsqlUtils.function("COALESCE", insertedValue, column);
+        }
+        return insertedValue;
+    }
+    // endregion
+
+    // region copy 方法块
+
+    /**
+     * 在数据库内把源表的数据复制到目标表，数据不经过应用
+     *
+     * @param sourceClass      源表实体类
+     * @param targetClass      目标表实体类
+     * @param conditionWrapper 源表的过滤条件，为空时复制全部数据
+     * @param columnMapping    目标类属性名称到源类属性名称的映射，未指定的属性按同名对应
+     * @return 复制的行数
+     */
+    public <S, D> long copyEntities(Class<S> sourceClass, Class<D> targetClass, ConditionWrapper conditionWrapper, Map<String, String> columnMapping) {
+        return copyEntities(sourceClass, targetClass, conditionWrapper, columnMapping, 0);
+    }
+
+    /**
+     * 在数据库内把源表的数据复制到目标表，数据不经过应用
+     * 生成 <code>INSERT INTO target (...) SELECT ... FROM source WHERE ...</code>；
+     * 指定分段大小时按源表id顺序分为多个id范围，每段一条语句，避免一次复制过多数据长时间占用锁
+     *
+     * @param sourceClass      源表实体类
+     * @param targetClass      目标表实体类
+     * @param conditionWrapper 源表的过滤条件，为空时复制全部数据
+     * @param columnMapping    目标类属性名称到源类属性名称的映射，未指定的属性按同名对应
+     * @param chunkSize        每段的行数，0为不分段
+     * @return 复制的行数
+     */
+    public <S, D> long copyEntities(Class<S> sourceClass, Class<D> targetClass, ConditionWrapper conditionWrapper, Map<String, String> columnMapping, int chunkSize) {
+        try (DaoOperation operation = DaoOperations.begin("copyEntities", targetClass)) {
+            Table sourceTable = new Table(getTableName(sourceClass));
+            Table targetTable = new Table(getTableName(targetClass));
+            Map<Column, Column> copyColumns = getCopyColumns(sourceClass, targetClass, columnMapping);
+            Expression where = conditionWrapper != null ? conditionWrapper.get() : null;
+            operation.sqlBuilt(targetTable.getName());
+
+            long rows = 0;
+            if (chunkSize <= 0) {
+                rows = copyEntities(sourceTable, targetTable, copyColumns, where);
+            } else {
+                Column idColumn = new Column(JsqlUtils.transDbSchemesType(CommonInterceptor.ID_FIELD_NAME));
+                Long lowerId = null;
+                do {
+                    Long upperId = selectChunkUpperId(sourceTable, idColumn, where, lowerId, chunkSize);
+                    rows += copyEntities(sourceTable, targetTable, copyColumns, getIdRangeCondition(where, idColumn, lowerId, upperId));
+                    lowerId = upperId;
+                } while (lowerId != null);
+            }
+            operation.executed(rows);
+            return rows;
+        }
+    }
+
+    /**
+     * 执行一条 <code>INSERT ... SELECT</code>
+     *
+     * @param sourceTable 源表
+     * @param targetTable 目标表
+     * @param copyColumns 目标列到源列的映射
+     * @param where       源表的过滤条件
+     * @return 复制的行数
+     */
+    private int copyEntities(Table sourceTable, Table targetTable, Map<Column, Column> copyColumns, Expression where) {
+        PlainSelect plainSelect = new PlainSelect();
+        copyColumns.values().forEach(c -> plainSelect.addSelectItems(new SelectExpressionItem(c)));
+        plainSelect.setFromItem(sourceTable);
+        plainSelect.setWhere(where);
+        Select select = new Select();
+        select.setSelectBody(plainSelect);
+
+        Insert insert = new Insert();
+        insert.setTable(targetTable);
+        insert.setColumns(new ArrayList<>(copyColumns.keySet()));
+        insert.setUseValues(false);
+        insert.setSelect(select);
+
+        return this.insert("com.software5000.base.BaseDao.copyEntities", new HashMap<String, String>() {{
+            put("baseSql", insert.toString());
+        }});
+    }
+
+    /**
+     * 计算复制的列，目标类中在源类里有同名属性或者指定了映射的属性才会复制
+     *
+     * @param sourceClass   源表实体类
+     * @param targetClass   目标表实体类
+     * @param columnMapping 目标类属性名称到源类属性名称的映射
+     * @return 按目标类属性顺序排列的目标列到源列的映射
+     */
+    private static Map<Column, Column> getCopyColumns(Class<?> sourceClass, Class<?> targetClass, Map<String, String> columnMapping) {
+        Set<String> sourceColumnNames = JsqlUtils.getAllColumnNamesFromEntity(sourceClass).stream()
+                .map(Column::getColumnName).collect(Collectors.toSet());
+        if (columnMapping != null) {
+            // 校验映射中的属性名称，防止拼写错误
+            JsqlUtils.getAllColumnNamesFromEntityWithNames(targetClass, new ArrayList<>(columnMapping.keySet()));
+            JsqlUtils.getAllColumnNamesFromEntityWithNames(sourceClass, new ArrayList<>(columnMapping.values()));
+        }
+
+        Map<Column, Column> copyColumns = new LinkedHashMap<>();
+        for (Column targetColumn : JsqlUtils.getAllColumnNamesFromEntity(targetClass)) {
+            String fieldName = JsqlUtils.transColumnToFieldName(targetColumn.getColumnName());
+            if (IGNORE_FILEDNAMES.indexOf(fieldName) > -1) {
+                continue;
+            }
+            if (columnMapping != null && columnMapping.containsKey(fieldName)) {
+                copyColumns.put(targetColumn, new Column(JsqlUtils.transDbSchemesType(columnMapping.get(fieldName))));
+            } else if (sourceColumnNames.contains(targetColumn.getColumnName())) {
+                copyColumns.put(targetColumn, new Column(targetColumn.getColumnName()));
+            }
+        }
+        if (copyColumns.isEmpty()) {
+            throw new BpMybatisException("no column to copy from [" + sourceClass.getName() + "] to [" + targetClass.getName() + "]");
+        }
+        return copyColumns;
+    }
+
+    /**
+     * 按id顺序查找从下界开始第 chunkSize 行的id，作为这一段的上界
+     *
+     * @param table     表
+     * @param idColumn  id列
+     * @param where     过滤条件
+     * @param lowerId   下界（不包含），为空时从头开始
+     * @param chunkSize 每段的行数
+     * @return 这一段的上界（包含），剩余行数不足一段时为空
+     */
+    private Long selectChunkUpperId(Table table, Column idColumn, Expression where, Long lowerId, int chunkSize) {
+        PlainSelect plainSelect = new PlainSelect();
+        plainSelect.addSelectItems(new SelectExpressionItem(idColumn));
+        plainSelect.setFromItem(table);
+        plainSelect.setWhere(getIdRangeCondition(where, idColumn, lowerId, null));
+        OrderByElement orderByElement = new OrderByElement();
+        orderByElement.setExpression(idColumn);
+        plainSelect.setOrderByElements(Collections.singletonList(orderByElement));
+        DIALECT.applyLimit(plainSelect, chunkSize - 1, 1);
+
+        List<Long> ids = this.selectList("com.software5000.base.BaseDao.selectLongValue", new HashMap<String, String>() {{
+            put("baseSql", plainSelect.toString());
         }});
+        return ids.isEmpty() ? null : ids.get(0);
     }
+
+    /**
+     * 在过滤条件上追加id范围
+     *
+     * @param where    原过滤条件，可以为空
+     * @param idColumn id列
+     * @param lowerId  下界（不包含），为空时不限制
+     * @param upperId  上界（包含），为空时不限制
+     * @return 合并后的过滤条件
+     */
+    private static Expression getIdRangeCondition(Expression where, Column idColumn, Long lowerId, Long upperId) {
+        AndExpressionList andExpressionList = new AndExpressionList();
+        if (where != null) {
+            andExpressionList.append(new Parenthesis(where));
+        }
+        if (lowerId != null) {
+            andExpressionList.append(JsqlUtils.greaterThan(idColumn, new LongValue(lowerId)));
+        }
+        if (upperId != null) {
+            andExpressionList.append(JsqlUtils.lessThanEquals(idColumn, new LongValue(upperId)));
+        }
+        return andExpressionList.get();
+    }
+
+    // endregion
+
+    // region claim 方法块
+
+    /**
+     * 领取工作队列中的数据
+     * 生成 <code>SELECT ... ORDER BY ... LIMIT n FOR UPDATE SKIP LOCKED</code>（由方言决定具体写法），
+     * 已被其他事务锁定的行直接跳过，多个消费者并行领取时互不阻塞。
+     * 行锁在事务结束时释放，需要在事务中调用，并在同一事务中处理或标记领取到的数据
+     *
+     * @param entityClass      实体类
+     * @param conditionWrapper 待领取数据的条件，可以为空
+     * @param orderBy          领取顺序，如 <code>id</code>
+     * @param limit            最多领取的行数
+     * @return 领取到的实体列表
+     */
+    public <T> List<T> claimEntities(Class<T> entityClass, ConditionWrapper conditionWrapper, String orderBy, int limit) {
+        return claimEntities(entityClass, conditionWrapper, orderBy, limit, null);
+    }
+
+    /**
+     * 领取工作队列中的数据，并在同一事务中标记领取到的行，如设置状态为处理中、记录领取人
+     * 标记值的写法与 {@link #updateWhere(Class, Map, ConditionWrapper)} 相同，返回的实体是标记前的值
+     *
+     * @param entityClass      实体类
+     * @param conditionWrapper 待领取数据的条件，可以为空
+     * @param orderBy          领取顺序，如 <code>id</code>
+     * @param limit            最多领取的行数
+     * @param markValues       领取后需要更新的类属性名称到值的映射，为空时不标记
+     * @return 领取到的实体列表
+     */
+    public <T> List<T> claimEntities(Class<T> entityClass, ConditionWrapper conditionWrapper, String orderBy, int limit, Map<String, ?> markValues) {
+        if (limit <= 0) {
+            throw new BpMybatisException("claim limit must be greater than 0.");
+        }
+
+        List<T> claimed;
+        try (DaoOperation operation = DaoOperations.begin("claimEntities", entityClass)) {
+            PlainSelect plainSelect = new PlainSelect();
+            plainSelect.setSelectItems(Arrays.asList(new AllColumns()));
+            plainSelect.setFromItem(new Table(getTableName(entityClass)));
+            plainSelect.setWhere(conditionWrapper != null ? conditionWrapper.get() : null);
+            plainSelect.setOrderByElements(JsqlUtils.getOrderByElementFromString(orderBy));
+            DIALECT.applyLimit(plainSelect, 0, limit);
+            operation.sqlBuilt(((Table) plainSelect.getFromItem()).getName());
+
+            List rows = this.selectList("com.software5000.base.BaseDao.selectEntities", new HashMap<String, String>() {{
+                put("baseSql", DIALECT.lockSkipLocked(plainSelect.toString()));
+            }});
+            operation.executed(rows.size());
+            claimed = fillEntities(ClassUtil.newInstance(entityClass), rows);
+            operation.mapped();
+        }
+
+        if (markValues != null && !markValues.isEmpty() && !claimed.isEmpty()) {
+            List<Object> ids = claimed.stream().map(e -> ClassUtil.getValueByField(e, CommonInterceptor.ID_FIELD_NAME)).collect(Collectors.toList());
+            updateWhere(entityClass, markValues, new ConditionWrapper<>(ClassUtil.newInstance(entityClass))
+                    .in(CommonInterceptor.ID_FIELD_NAME, JsqlUtils.convertValueTypeList(ids)));
+
+            String versionField = JsqlUtils.getVersionFieldName(entityClass);
+            if (versionField != null && !markValues.containsKey(versionField)) {
+                // 标记时版本号已经加1，保持返回的实体可以直接用于乐观锁更新
+                claimed.forEach(e -> JsqlUtils.setVersion(e, versionField, JsqlUtils.nextVersion(ClassUtil.getValueByField(e, versionField))));
+            }
+        }
+        return claimed;
+    }
+
     // endregion
 
     // region select 方法块
@@ -343,13 +1343,138 @@ public abstract class BaseDao {
      * @return 返回实体列表
      */
     public List selectEntities(Object entity, ConditionWrapper conditionWrapper, String queryFields, String orderBy) {
+        return selectEntities(entity, conditionWrapper, queryFields, orderBy, 0);
+    }
+
+    /**
+     * 添加外部条件的简单加载实体对象，最多返回 limit 条
+     *
+     * @param entity           待操作实体
+     * @param conditionWrapper 外部封装条件
+     * @param queryFields      查询时指定列
+     * @param orderBy          排序字段
+     * @param limit            最多返回的行数，0为不限制
+     * @return 返回实体列表
+     */
+    public List selectEntities(Object entity, ConditionWrapper conditionWrapper, String queryFields, String orderBy, int limit) {
+        try (DaoOperation operation = DaoOperations.begin("selectEntities", entity.getClass())) {
+            return selectEntities(entity, conditionWrapper, queryFields, orderBy, limit, operation);
+        }
+    }
+
+    /**
+     * 添加外部条件的简单加载实体对象，并记录各阶段耗时
+     *
+     * @param entity           待操作实体
+     * @param conditionWrapper 外部封装条件
+     * @param queryFields      查询时指定列
+     * @param orderBy          排序字段
+     * @param limit            最多返回的行数，0为不限制
+     * @param operation        操作计时
+     * @return 返回实体列表
+     */
+    private List selectEntities(Object entity, ConditionWrapper conditionWrapper, String queryFields, String orderBy, int limit, DaoOperation operation) {
+        PlainSelect plainSelect = buildSelectEntities(entity, conditionWrapper, queryFields, orderBy, limit);
+        operation.sqlBuilt(((Table) plainSelect.getFromItem()).getName());
+
+        // 构建Sql并执行
+        List lastResult = this.selectList("com.software5000.base.BaseDao.selectEntities", new HashMap<String, String>() {{
+            put("baseSql", plainSelect.toString());
+        }});
+        operation.executed(lastResult.size());
+
+        // 生成对应对象列表，并且赋值
+        List filledResult = fillEntities(entity, lastResult);
+        operation.mapped();
+        return filledResult;
+    }
+
+    /**
+     * 逐行读取查询结果，每行映射为实体后交给 consumer，不在内存中保留整个结果集
+     * consumer 返回 false 时停止读取剩余的行，用于满足条件后提前结束，如合并多个分片的结果时已经取够行数
+     *
+     * @param entity           待操作实体
+     * @param conditionWrapper 外部封装条件
+     * @param queryFields      查询时指定列
+     * @param orderBy          排序字段
+     * @param limit            最多返回的行数，0为不限制
+     * @param consumer         实体的处理，返回 false 时停止读取
+     */
+    public <T> void streamEntities(T entity, ConditionWrapper conditionWrapper, String queryFields, String orderBy, int limit, Predicate<T> consumer) {
+        try (DaoOperation operation = DaoOperations.begin("streamEntities", entity.getClass())) {
+            PlainSelect plainSelect = buildSelectEntities(entity, conditionWrapper, queryFields, orderBy, limit);
+            operation.sqlBuilt(((Table) plainSelect.getFromItem()).getName());
+
+            long[] rows = {0};
+            getSqlSession().select("com.software5000.base.BaseDao.selectEntities", new HashMap<String, String>() {{
+                put("baseSql", plainSelect.toString());
+            }}, resultContext -> {
+                rows[0]++;
+                T filled = (T) fillEntity(entity, (Map<String, Object>) resultContext.getResultObject());
+                if (filled != null && !consumer.test(filled)) {
+                    resultContext.stop();
+                }
+            });
+            // 结果映射与读取交替进行，不单独计时
+            operation.executed(rows[0]);
+            operation.mapped();
+        }
+    }
+
+    /**
+     * 对满足条件的数据做聚合计算，条件的写法与 {@link #selectEntities(Object, ConditionWrapper, String, String)} 相同
+     *
+     * @param entity           待操作实体，非空属性作为等值条件
+     * @param conditionWrapper 外部封装条件
+     * @param aggregation      聚合函数
+     * @param fieldName        聚合的类属性名称，COUNT 时可以为空表示 <code>COUNT(*)</code>
+     * @return 聚合结果，COUNT 为 Long，其他为数据库返回的类型，没有数据时为空
+     */
+    public Object aggregateEntities(Object entity, ConditionWrapper conditionWrapper, Aggregation aggregation, String fieldName) {
+        if (fieldName == null && aggregation != Aggregation.COUNT) {
+            throw new BpMybatisException("field name is required for aggregation [" + aggregation + "].");
+        }
+        try (DaoOperation operation = DaoOperations.begin("aggregateEntities", entity.getClass())) {
+            PlainSelect plainSelect = buildSelectEntities(entity, conditionWrapper, null, null, 0);
+            Function function = new Function();
+            function.setName(aggregation.name());
+            if (fieldName == null) {
+                function.setAllColumns(true);
+            } else {
+                function.setParameters(new ExpressionList(Collections.singletonList(new Column(JsqlUtils.transDbSchemesType(fieldName)))));
+            }
+            plainSelect.setSelectItems(Collections.singletonList(new SelectExpressionItem(function)));
+            operation.sqlBuilt(((Table) plainSelect.getFromItem()).getName());
+
+            List rows = this.selectList("com.software5000.base.BaseDao.selectEntities", new HashMap<String, String>() {{
+                put("baseSql", plainSelect.toString());
+            }});
+            operation.executed(rows.size());
+            // 结果为空值时 mybatis 不生成行对象
+            Object value = rows.isEmpty() || rows.get(0) == null ? null : ((Map<?, ?>) rows.get(0)).values().iterator().next();
+            operation.mapped();
+            return aggregation == Aggregation.COUNT ? Aggregation.COUNT.merge(Collections.singletonList(value)) : value;
+        }
+    }
+
+    /**
+     * 生成加载实体对象的查询语句
+     *
+     * @param entity           待操作实体
+     * @param conditionWrapper 外部封装条件
+     * @param queryFields      查询时指定列
+     * @param orderBy          排序字段
+     * @param limit            最多返回的行数，0为不限制
+     * @return 查询语句
+     */
+    private PlainSelect buildSelectEntities(Object entity, ConditionWrapper conditionWrapper, String queryFields, String orderBy, int limit) {
         PlainSelect plainSelect = new PlainSelect();
         if (queryFields == null) {
             plainSelect.setSelectItems(Arrays.asList(new AllColumns()));
         } else {
             plainSelect.addSelectItems(getColumnsFromQueryFields(queryFields));
         }
-        plainSelect.setFromItem(new Table(JsqlUtils.transDbSchemesType(entity.getClass().getSimpleName())));
+        plainSelect.setFromItem(new Table(getTableName(entity.getClass())));
         AndExpressionList andExpressionList = new AndExpressionList();
 
         // 添加外部条件
@@ -364,14 +1489,10 @@ public abstract class BaseDao {
 
         plainSelect.setWhere(andExpressionList.get());
         plainSelect.setOrderByElements(JsqlUtils.getOrderByElementFromString(orderBy));
-
-        // 构建Sql并执行
-        List lastResult = this.selectList("com.software5000.base.BaseDao.selectEntities", new HashMap<String, String>() {{
-            put("baseSql", plainSelect.toString());
-        }});
-
-        // 生成对应对象列表，并且赋值
-        return fillEntities(entity, lastResult);
+        if (limit > 0) {
+            DIALECT.applyLimit(plainSelect, 0, limit);
+        }
+        return plainSelect;
     }
 
     /**
@@ -404,21 +1525,9 @@ public abstract class BaseDao {
         }
         List<Object> tempList = new ArrayList<>();
         for (Object sr : result) {
-            try {
-                Object singleResult = (Object) Class.forName(entity.getClass().getName()).newInstance();
-
-                for (String key : ((Map<String, Object>) sr).keySet()) {
-
-                    try {
-                        ClassUtil.setValueByField(singleResult, JsqlUtils.transSnakeToCamel(key), ((Map<String, Object>) sr).get(key));
-                    } catch (Exception e) {
-                        logger.error("processing entity setter value error, key : [" + key + "] entity : [" + entity.getClass().getName() + "] ", e);
-                    }
-                }
-
+            Object singleResult = fillEntity(entity, (Map<String, Object>) sr);
+            if (singleResult != null) {
                 tempList.add(singleResult);
-            } catch (Exception e) {
-                logger.error("processing entity setter value error, entity : [" + entity.getClass().getName() + "] ", e);
             }
         }
         if (lastResult instanceof Page) {
@@ -430,5 +1539,32 @@ public abstract class BaseDao {
         return lastResult;
     }
 
+    /**
+     * 利用结果集中的一行填充对应实体
+     *
+     * @param entity 参数实体，用于新建结果实体类
+     * @param row    sql查询结果的一行
+     * @return 填充后的实体，新建实体失败时为空
+     */
+    private Object fillEntity(Object entity, Map<String, Object> row) {
+        try {
+            Object singleResult = (Object) Class.forName(entity.getClass().getName()).newInstance();
+
+            for (String key : row.keySet()) {
+
+                try {
+                    ClassUtil.setValueByField(singleResult, JsqlUtils.transSnakeToCamel(key), row.get(key));
+                } catch (Exception e) {
+                    logger.error("processing entity setter value error, key : [" + key + "] entity : [" + entity.getClass().getName() + "] ", e);
+                }
+            }
+
+            return singleResult;
+        } catch (Exception e) {
+            logger.error("processing entity setter value error, entity : [" + entity.getClass().getName() + "] ", e);
+            return null;
+        }
+    }
+
     // endregion
 }
@@ -0,0 +1,64 @@
+package com.software5000.base;
+
+/**
+ * 分段批量操作的进度
+ * 每完成一段回调一次，<code>lastId</code> 是已经处理完的最大id，中断后从这里继续即可
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class ChunkProgress {
+
+    private final String table;
+    private final long chunks;
+    private final long rows;
+    private final Long lastId;
+    private final boolean finished;
+
+    public ChunkProgress(String table, long chunks, long rows, Long lastId, boolean finished) {
+        this.table = table;
+        this.chunks = chunks;
+        this.rows = rows;
+        this.lastId = lastId;
+        this.finished = finished;
+    }
+
+    /**
+     * @return 操作的表名
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return 已完成的段数
+     */
+    public long getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return 已处理的行数
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return 已处理完的最大id，最后一段没有上界，完成时为空
+     */
+    public Long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * @return 是否已全部完成
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkProgress{table=" + table + ", chunks=" + chunks + ", rows=" + rows + ", lastId=" + lastId + ", finished=" + finished + "}";
+    }
+}
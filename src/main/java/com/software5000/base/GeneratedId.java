@@ -0,0 +1,33 @@
+package com.software5000.base;
+
+import com.software5000.base.id.IdGenerator;
+
+import java.lang.annotation.*;
+
+/**
+ * 实体类加上该注解后，<code>BaseDao</code> 在插入前会通过指定的 {@link IdGenerator} 在客户端生成主键，
+ * 插入语句不再依赖数据库的自增列和 useGeneratedKeys 回填，批量插入可以完整地走JDBC批处理
+ *
+ * @author matuobasyouca@gmail.com
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Documented
+public @interface GeneratedId {
+
+    /**
+     * @return 主键生成器
+     */
+    Class<? extends IdGenerator> generator();
+
+    /**
+     * @return 主键对应的字段名称
+     */
+    String field() default "id";
+
+    /**
+     * @return 数据库序列名称，默认为 表名_SEQ；
+     * 对 {@link com.software5000.base.id.SegmentIdGenerator} 为号段表中的业务标识，默认为表名
+     */
+    String sequence() default "";
+}
@@ -0,0 +1,560 @@
+package com.software5000.base;
+
+import com.google.common.collect.Lists;
+import com.software5000.base.jsql.AndExpressionList;
+import com.software5000.util.BpMybatisException;
+import com.software5000.util.ClassUtil;
+import com.software5000.util.JsqlUtils;
+import com.software5000.util.OptimisticLockException;
+import net.sf.jsqlparser.expression.CaseExpression;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.WhenClause;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.update.Update;
+import org.apache.ibatis.session.SqlSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * 工作单元：在一个 SqlSession 的事务中收集插入、更新、删除，提交时合并后批量写入
+ * <p>
+ * 业务方法中穿插的多次 <code>insertEntity</code>/<code>updateEntity</code>/<code>deleteEntity</code>
+ * 每次都是一次数据库往返，改为登记到工作单元后在提交时统一写入：
+ * <ul>
+ * <li>插入按表合并为 {@link BaseDao#insertEntities(List)} 的多行插入</li>
+ * <li>同一行（表 + 条件字段的值）的多次更新合并为一次，后登记的值覆盖先登记的值；
+ * 单个条件字段的更新按表合并为一条 <code>UPDATE ... SET col = CASE key WHEN ... END WHERE key IN (...)</code></li>
+ * <li>删除按表合并为 {@link BaseDao#deleteEntities(List, String)} 的 IN 删除</li>
+ * <li>已登记插入的实体再登记更新时只插入最终状态，再登记删除时两者都不执行；登记删除的行不再执行更新</li>
+ * </ul>
+ * 写入顺序为：删除（子表在前）、插入（父表在前）、更新，先删除使被删除行占用的唯一键可以被新插入的行使用；
+ * 表之间的依赖从 JDBC 元数据中的外键读取，没有外键或存在循环依赖时按登记顺序。
+ * 表名通过 {@link BaseDao#getTableName(Class)} 获取，与 dao 自身的语句使用相同的表。
+ * <p>
+ * 工作单元与当前线程以及开始时的 SqlSession 绑定，嵌套开始时返回同一个工作单元，由最外层提交。
+ * 登记的数据在写入前对查询不可见，需要先查询刚写入的数据时调用 {@link #flush()}。
+ * 实体类有 {@link Version} 字段时，每行按第一次登记时的版本号检查冲突，合并更新中任意一行冲突都会抛出 {@link OptimisticLockException}。
+ * 实体类有 {@link GeneratedId} 注解时登记插入即生成主键，子表可以直接引用；使用数据库自增主键的父表需要先 flush 才能拿到主键。
+ * <pre>
+ * try (UnitOfWork unitOfWork = UnitOfWork.begin(baseDao)) {
+ *     unitOfWork.registerInsert(order);
+ *     unitOfWork.registerUpdate(stock, "id");
+ *     unitOfWork.commit();
+ * }
+ * </pre>
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class UnitOfWork implements AutoCloseable {
+
+    private static Logger logger = LoggerFactory.getLogger(UnitOfWork.class);
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 数据库（连接地址 + catalog）中的表名到其外键引用的表名，来自 JDBC 元数据；
+     * 不同数据库中的同名表可能有不同的外键，不能只按表名缓存
+     */
+    private static final Map<String, Set<String>> PARENT_TABLES = new ConcurrentHashMap<>();
+
+    private final BaseDao baseDao;
+    private final SqlSession sqlSession;
+    private int depth = 1;
+
+    /**
+     * 登记过的表，按第一次登记的顺序
+     */
+    private final Set<String> tables = new LinkedHashSet<>();
+
+    /**
+     * 待插入的实体，按对象身份去重
+     */
+    private final Map<Object, Boolean> inserts = new IdentityHashMap<>();
+    private final List<Object> insertOrder = new ArrayList<>();
+
+    /**
+     * 行标识到待更新/待删除的数据
+     */
+    private final Map<String, PendingUpdate> updates = new LinkedHashMap<>();
+    private final Map<String, PendingDelete> deletes = new LinkedHashMap<>();
+
+    private UnitOfWork(BaseDao baseDao) {
+        this.baseDao = baseDao;
+        this.sqlSession = baseDao.getSqlSession();
+    }
+
+    /**
+     * 开始工作单元，当前线程已经有同一个 SqlSession 的工作单元时加入该工作单元
+     *
+     * @param baseDao 用于写入的dao
+     * @return 工作单元
+     */
+    public static UnitOfWork begin(BaseDao baseDao) {
+        UnitOfWork current = CURRENT.get();
+        if (current != null) {
+            if (current.sqlSession != baseDao.getSqlSession()) {
+                throw new BpMybatisException("unit of work already bound to another sql session in current thread.");
+            }
+            current.depth++;
+            return current;
+        }
+        UnitOfWork unitOfWork = new UnitOfWork(baseDao);
+        CURRENT.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    /**
+     * @return 当前线程的工作单元，没有时为空
+     */
+    public static UnitOfWork current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 登记插入，实体类有 {@link GeneratedId} 注解时立即生成主键
+     *
+     * @param entity 实体对象
+     * @return 登记的实体对象
+     */
+    public <T> T registerInsert(T entity) {
+        checkActive();
+        baseDao.assignIds(Collections.singletonList(entity));
+        if (inserts.put(entity, Boolean.TRUE) == null) {
+            insertOrder.add(entity);
+            tables.add(baseDao.getTableName(entity.getClass()));
+        }
+        return entity;
+    }
+
+    /**
+     * 登记更新
+     *
+     * @param entity      实体对象
+     * @param queryFields 作为查询条件的类属性名称，如<code>ID,codeDesc</code>
+     */
+    public void registerUpdate(Object entity, String queryFields) {
+        registerUpdate(entity, queryFields, ValueUpdatePolicy.NOT_EMPTY_NOT_NULL);
+    }
+
+    /**
+     * 登记更新，同一行的多次更新在提交时合并为一次
+     *
+     * @param entity            实体对象
+     * @param queryFields       作为查询条件的类属性名称，如<code>ID,codeDesc</code>
+     * @param valueUpdatePolicy 更新策略
+     */
+    public void registerUpdate(Object entity, String queryFields, ValueUpdatePolicy valueUpdatePolicy) {
+        checkActive();
+        if (inserts.containsKey(entity)) {
+            // 插入时写入的就是实体的最终状态
+            return;
+        }
+        RowKey rowKey = new RowKey(entity, queryFields, baseDao.getTableName(entity.getClass()));
+        if (deletes.containsKey(rowKey.key)) {
+            throw new BpMybatisException("can't update a row registered for delete : [" + rowKey.key + "]");
+        }
+        tables.add(rowKey.table.getName());
+        updates.computeIfAbsent(rowKey.key, k -> new PendingUpdate(rowKey, entity.getClass())).register(entity, valueUpdatePolicy);
+    }
+
+    /**
+     * 登记删除
+     *
+     * @param entity      实体对象
+     * @param queryFields 作为删除条件的类属性名称，如<code>ID,codeDesc</code>
+     */
+    public void registerDelete(Object entity, String queryFields) {
+        checkActive();
+        if (inserts.remove(entity) != null) {
+            insertOrder.removeIf(e -> e == entity);
+            return;
+        }
+        RowKey rowKey = new RowKey(entity, queryFields, baseDao.getTableName(entity.getClass()));
+        updates.remove(rowKey.key);
+        tables.add(rowKey.table.getName());
+        deletes.putIfAbsent(rowKey.key, new PendingDelete(rowKey, entity, queryFields));
+    }
+
+    /**
+     * 写入所有登记的操作，不提交事务
+     *
+     * @return 影响行数
+     */
+    public int flush() {
+        checkActive();
+        List<String> order = sortTables();
+        int rows = 0;
+
+        // 先删除，释放的唯一键可以被同一单元中插入的行使用
+        Map<String, List<PendingDelete>> deletesByTable = deletes.values().stream()
+                .collect(Collectors.groupingBy(d -> d.rowKey.table.getName(), LinkedHashMap::new, Collectors.toList()));
+        for (String table : Lists.reverse(order)) {
+            List<PendingDelete> pendingDeletes = deletesByTable.get(table);
+            if (pendingDeletes != null) {
+                Map<String, List<Object>> byFields = pendingDeletes.stream()
+                        .collect(Collectors.groupingBy(d -> d.queryFields, LinkedHashMap::new, Collectors.mapping(d -> d.entity, Collectors.toList())));
+                for (Map.Entry<String, List<Object>> entry : byFields.entrySet()) {
+                    rows += baseDao.deleteEntities(entry.getValue(), entry.getKey());
+                }
+            }
+        }
+
+        Map<String, List<Object>> insertsByTable = insertOrder.stream()
+                .collect(Collectors.groupingBy(e -> baseDao.getTableName(e.getClass()), LinkedHashMap::new, Collectors.toList()));
+        for (String table : order) {
+            List<Object> entities = insertsByTable.get(table);
+            if (entities != null) {
+                baseDao.insertEntities(entities);
+                rows += entities.size();
+            }
+        }
+
+        Map<String, List<PendingUpdate>> updatesByTable = updates.values().stream()
+                .collect(Collectors.groupingBy(u -> u.rowKey.table.getName(), LinkedHashMap::new, Collectors.toList()));
+        for (String table : order) {
+            List<PendingUpdate> pendingUpdates = updatesByTable.get(table);
+            if (pendingUpdates != null) {
+                rows += writeUpdates(pendingUpdates);
+            }
+        }
+
+        clear();
+        return rows;
+    }
+
+    /**
+     * 写入所有登记的操作并提交事务，嵌套的工作单元只写入不提交
+     * Spring 管理的 SqlSession 不允许手动提交，由其自行提交
+     */
+    public void commit() {
+        flush();
+        if (depth > 1) {
+            return;
+        }
+        try {
+            sqlSession.commit();
+        } catch (UnsupportedOperationException e) {
+            logger.trace("sql session not support manual commit, skip.");
+        }
+    }
+
+    /**
+     * 结束工作单元，未提交的登记被丢弃，已经 flush 的操作由事务决定是否回滚
+     */
+    @Override
+    public void close() {
+        if (--depth > 0) {
+            return;
+        }
+        CURRENT.remove();
+        int pending = insertOrder.size() + updates.size() + deletes.size();
+        if (pending > 0) {
+            logger.warn("unit of work closed without commit, [" + pending + "] registered operations discarded.");
+        }
+        clear();
+    }
+
+    private void clear() {
+        inserts.clear();
+        insertOrder.clear();
+        updates.clear();
+        deletes.clear();
+        tables.clear();
+    }
+
+    private void checkActive() {
+        if (depth <= 0) {
+            throw new BpMybatisException("unit of work is closed.");
+        }
+    }
+
+    /**
+     * 一张表的更新：单个条件字段时按 CASE 合并为一条语句，多个条件字段时逐行更新
+     */
+    private int writeUpdates(List<PendingUpdate> pendingUpdates) {
+        int rows = 0;
+        Map<String, List<PendingUpdate>> byCondition = pendingUpdates.stream()
+                .collect(Collectors.groupingBy(u -> u.rowKey.conditionColumns.toString(), LinkedHashMap::new, Collectors.toList()));
+        for (List<PendingUpdate> group : byCondition.values()) {
+            List<PendingUpdate> effective = group.stream().filter(u -> !u.values.isEmpty()).collect(Collectors.toList());
+            if (effective.isEmpty()) {
+                continue;
+            }
+            if (effective.get(0).rowKey.conditionColumns.size() > 1) {
+                for (PendingUpdate update : effective) {
+                    rows += executeUpdate(Collections.singletonList(update), update.getColumns(),
+                            new ArrayList<>(update.values.values()), update.getCondition());
+                }
+                continue;
+            }
+            for (List<PendingUpdate> chunk : Lists.partition(effective, BaseDao.DIALECT.getMaxInListSize())) {
+                rows += writeCaseUpdate(chunk);
+            }
+        }
+        return rows;
+    }
+
+    private int writeCaseUpdate(List<PendingUpdate> chunk) {
+        RowKey first = chunk.get(0).rowKey;
+        if (chunk.size() == 1) {
+            return executeUpdate(chunk, chunk.get(0).getColumns(),
+                    new ArrayList<>(chunk.get(0).values.values()), chunk.get(0).getCondition());
+        }
+
+        Column keyColumn = first.conditionColumns.get(0);
+        Set<String> columnNames = new LinkedHashSet<>();
+        chunk.forEach(u -> columnNames.addAll(u.values.keySet()));
+
+        List<Column> updateColumns = new ArrayList<>();
+        List<Expression> expressions = new ArrayList<>();
+        for (String columnName : columnNames) {
+            Column column = new Column(columnName);
+            List<WhenClause> whenClauses = new ArrayList<>();
+            for (PendingUpdate update : chunk) {
+                Expression value = update.values.get(columnName);
+                if (value == null) {
+                    continue;
+                }
+                WhenClause whenClause = new WhenClause();
+                whenClause.setWhenExpression(update.rowKey.conditionValues.get(0));
+                whenClause.setThenExpression(value);
+                whenClauses.add(whenClause);
+            }
+            CaseExpression caseExpression = new CaseExpression();
+            caseExpression.setSwitchExpression(keyColumn);
+            caseExpression.setWhenClauses(whenClauses);
+            caseExpression.setElseExpression(column);
+            updateColumns.add(column);
+            expressions.add(caseExpression);
+        }
+        Expression where;
+        if (chunk.get(0).versionField != null) {
+            // 带版本号时每行的条件不同，使用 OR 连接
+            where = chunk.stream().map(u -> (Expression) new Parenthesis(u.getCondition())).reduce(OrExpression::new).get();
+        } else {
+            List<Expression> keys = chunk.stream().map(u -> u.rowKey.conditionValues.get(0)).collect(Collectors.toList());
+            where = JsqlUtils.in(keyColumn, new ExpressionList(keys));
+        }
+        return executeUpdate(chunk, updateColumns, expressions, where);
+    }
+
+    /**
+     * 执行更新，带版本号时检查每一行都已更新，成功后实体中的版本号加1
+     */
+    private int executeUpdate(List<PendingUpdate> chunk, List<Column> columns, List<Expression> expressions, Expression where) {
+        PendingUpdate first = chunk.get(0);
+        Update update = new Update();
+        update.setTables(Arrays.asList(first.rowKey.table));
+        update.setColumns(columns);
+        update.setExpressions(expressions);
+        update.setWhere(where);
+        if (first.versionField != null) {
+            JsqlUtils.setVersionIncrement(update, first.versionField);
+        }
+
+        Map<String, Object> param = new HashMap<>(1);
+        param.put("baseSql", update.toString());
+        int rows = baseDao.update("com.software5000.base.BaseDao.updateEntities", param);
+        if (first.versionField != null) {
+            if (rows != chunk.size()) {
+                throw new OptimisticLockException(first.entityClass, where.toString(), chunk.size() == 1 ? first.version : null);
+            }
+            for (PendingUpdate pendingUpdate : chunk) {
+                Object nextVersion = JsqlUtils.nextVersion(pendingUpdate.version);
+                pendingUpdate.entities.forEach(e -> JsqlUtils.setVersion(e, pendingUpdate.versionField, nextVersion));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 按外键依赖排序登记过的表，父表在前；没有可排的表时（循环依赖）取登记顺序的第一张
+     */
+    private List<String> sortTables() {
+        List<String> remaining = new ArrayList<>(tables);
+        Map<String, Set<String>> parents = new HashMap<>();
+        for (String table : remaining) {
+            Set<String> tableParents = new HashSet<>();
+            for (String parent : getParentTables(table)) {
+                for (String other : remaining) {
+                    if (!other.equals(table) && other.equalsIgnoreCase(parent)) {
+                        tableParents.add(other);
+                    }
+                }
+            }
+            parents.put(table, tableParents);
+        }
+
+        List<String> sorted = new ArrayList<>(remaining.size());
+        while (!remaining.isEmpty()) {
+            String next = remaining.stream().filter(t -> sorted.containsAll(parents.get(t))).findFirst().orElse(remaining.get(0));
+            remaining.remove(next);
+            sorted.add(next);
+        }
+        return sorted;
+    }
+
+    private Set<String> getParentTables(String table) {
+        Set<String> parentTables = new HashSet<>();
+        try {
+            // 连接属于当前 SqlSession，不能关闭
+            Connection connection = sqlSession.getConnection();
+            DatabaseMetaData metaData = connection.getMetaData();
+            String cacheKey = metaData.getURL() + "#" + connection.getCatalog() + "#" + table;
+            Set<String> cached = PARENT_TABLES.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+            String name = metaData.storesUpperCaseIdentifiers() ? table.toUpperCase()
+                    : metaData.storesLowerCaseIdentifiers() ? table.toLowerCase() : table;
+            try (ResultSet resultSet = metaData.getImportedKeys(connection.getCatalog(), null, name)) {
+                while (resultSet.next()) {
+                    parentTables.add(resultSet.getString("PKTABLE_NAME"));
+                }
+            }
+            PARENT_TABLES.put(cacheKey, parentTables);
+        } catch (SQLException e) {
+            logger.warn("read foreign keys of table [" + table + "] error, use register order.", e);
+            return Collections.emptySet();
+        }
+        return parentTables;
+    }
+
+    /**
+     * 一行数据的标识：表 + 条件字段的值
+     */
+    private static final class RowKey {
+        private final Table table;
+        private final String queryFields;
+        private final List<Column> conditionColumns;
+        private final List<Expression> conditionValues;
+        private final String key;
+
+        private RowKey(Object entity, String queryFields, String tableName) {
+            this.table = new Table(tableName);
+            this.queryFields = queryFields;
+            this.conditionColumns = JsqlUtils.getAllColumnNamesFromEntityWithNames(entity.getClass(), Arrays.asList(queryFields.split(",")));
+            if (conditionColumns.isEmpty()) {
+                throw new BpMybatisException("can't update data without value of condition columns.");
+            }
+            this.conditionValues = new ArrayList<>();
+            for (Column column : conditionColumns) {
+                Expression value = JsqlUtils.getColumnValueFromEntity(entity, column.getColumnName());
+                if (value == null || value instanceof NullValue) {
+                    throw new BpMybatisException("condition column [" + column.getColumnName() + "] of [" + table.getName() + "] is null.");
+                }
+                conditionValues.add(value);
+            }
+            this.key = table.getName() + conditionColumns + conditionValues;
+        }
+
+        private Expression getCondition() {
+            AndExpressionList andExpressionList = new AndExpressionList();
+            for (int i = 0; i < conditionColumns.size(); i++) {
+                andExpressionList.append(JsqlUtils.equalTo(conditionColumns.get(i), conditionValues.get(i)));
+            }
+            return andExpressionList.get();
+        }
+    }
+
+    /**
+     * 一行的更新，多次登记的值按登记顺序覆盖
+     */
+    private static final class PendingUpdate {
+        private final RowKey rowKey;
+        private final Class<?> entityClass;
+        private final Map<String, Expression> values = new LinkedHashMap<>();
+
+        /**
+         * 乐观锁版本号取第一次登记时的值，更新成功后写回所有登记过的实体
+         */
+        private final String versionField;
+        private Object version;
+        private final List<Object> entities = new ArrayList<>();
+
+        private PendingUpdate(RowKey rowKey, Class<?> entityClass) {
+            this.rowKey = rowKey;
+            this.entityClass = entityClass;
+            this.versionField = JsqlUtils.getVersionFieldName(entityClass);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void register(Object entity, ValueUpdatePolicy valueUpdatePolicy) {
+            if (versionField != null && entities.isEmpty()) {
+                version = ClassUtil.getValueByField(entity, versionField);
+                if (version == null) {
+                    throw new BpMybatisException("version field : [" + versionField + "] of entity : [" + entityClass.getName() + "] is null, can't update with optimistic lock.");
+                }
+            }
+            if (entities.stream().noneMatch(e -> e == entity)) {
+                entities.add(entity);
+            }
+
+            List<Column> valueColumns = JsqlUtils.getAllColumnNamesFromEntityExceptSome(entity.getClass(), Arrays.asList(rowKey.queryFields.split(",")));
+            Object[] colsAndValues = JsqlUtils.getNamedColumnAndValueFromEntity(entity, valueColumns, valueUpdatePolicy);
+            List<Column> columns = (List<Column>) colsAndValues[0];
+            List<Expression> expressions = (List<Expression>) colsAndValues[1];
+            for (int i = 0; i < columns.size(); i++) {
+                values.put(columns.get(i).getColumnName(), expressions.get(i));
+            }
+            if (versionField != null) {
+                values.remove(JsqlUtils.transDbSchemesType(versionField));
+            }
+        }
+
+        /**
+         * @return 行条件，带版本号时加上版本号条件
+         */
+        private Expression getCondition() {
+            Expression condition = rowKey.getCondition();
+            if (versionField == null) {
+                return condition;
+            }
+            return new AndExpressionList().append(condition)
+                    .append(JsqlUtils.equalTo(new Column(JsqlUtils.transDbSchemesType(versionField)), JsqlUtils.convertValueType(version)))
+                    .get();
+        }
+
+        private List<Column> getColumns() {
+            return values.keySet().stream().map(Column::new).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * 一行的删除
+     */
+    private static final class PendingDelete {
+        private final RowKey rowKey;
+        private final Object entity;
+        private final String queryFields;
+
+        private PendingDelete(RowKey rowKey, Object entity, String queryFields) {
+            this.rowKey = rowKey;
+            this.entity = entity;
+            this.queryFields = queryFields;
+        }
+    }
+}
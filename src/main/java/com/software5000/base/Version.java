@@ -0,0 +1,25 @@
+package com.software5000.base;
+
+import java.lang.annotation.*;
+
+/**
+ * 乐观锁版本号字段，类型为 Integer/Long/Short
+ * <p>
+ * <code>BaseDao.updateEntity</code> 会在条件中加上 <code>AND VERSION = 当前值</code>，同时设置 <code>VERSION = VERSION + 1</code>，
+ * 没有更新到数据时抛出 {@link com.software5000.util.OptimisticLockException}，更新成功后实体中的版本号加1。
+ * 插入时版本号为空的实体从0开始。{@link UnitOfWork} 合并的更新同样按登记时的版本号检查。
+ * <p>
+ * 以下写入没有单行的期望版本号，只把版本号加1而不检查，使持有旧版本号的更新失败：
+ * <ul>
+ * <li><code>BaseDao.updateWhere</code> 与 <code>claimEntities</code> 的标记更新，需要检查时在条件中自行加上版本号</li>
+ * <li><code>BaseDao.upsertEntity/upsertEntities</code> 更新已存在的数据时</li>
+ * <li><code>WriteBehindBuffer</code> 延迟写入的赋值和增量</li>
+ * </ul>
+ *
+ * @author matuobasyouca@gmail.com
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+@Documented
+public @interface Version {
+}
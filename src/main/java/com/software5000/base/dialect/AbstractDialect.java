@@ -0,0 +1,161 @@
+package com.software5000.base.dialect;
+
+import com.software5000.util.BpMybatisException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.Limit;
+import net.sf.jsqlparser.statement.select.Offset;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 标准SQL的方言实现，具体数据库只需要覆盖不同的部分
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public abstract class AbstractDialect implements Dialect {
+
+    /**
+     * 默认单条插入语句的最大行数，避免语句过大
+     */
+    private static final int DEFAULT_MAX_ROWS_PER_INSERT = 1000;
+
+    /**
+     * 默认 IN 列表的最大值个数，与常见数据库的限制和解析开销取折中
+     */
+    private static final int DEFAULT_MAX_IN_LIST_SIZE = 1000;
+
+    @Override
+    public String quoteIdentifier(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    @Override
+    public String escapeLiteral(String value) {
+        return value.replace("'", "''");
+    }
+
+    @Override
+    public boolean backslashEscapesInLiterals() {
+        return false;
+    }
+
+    @Override
+    public int getMaxRowsPerInsert() {
+        return DEFAULT_MAX_ROWS_PER_INSERT;
+    }
+
+    @Override
+    public int getMaxInListSize() {
+        return DEFAULT_MAX_IN_LIST_SIZE;
+    }
+
+    @Override
+    public boolean supportsRowValueIn() {
+        return true;
+    }
+
+    /**
+     * MySQL 和 H2 默认把空值视为最小值
+     */
+    @Override
+    public boolean nullsAreSortedLow() {
+        return true;
+    }
+
+    /**
+     * 标准的 <code>LIMIT n OFFSET m</code>
+     */
+    @Override
+    public void applyLimit(PlainSelect plainSelect, long offset, long rowCount) {
+        Limit limit = new Limit();
+        limit.setRowCount(new LongValue(rowCount));
+        plainSelect.setLimit(limit);
+        if (offset > 0) {
+            Offset offsetItem = new Offset();
+            offsetItem.setOffset(offset);
+            plainSelect.setOffset(offsetItem);
+        } else {
+            plainSelect.setOffset(null);
+        }
+    }
+
+    /**
+     * 标准的 <code>FOR UPDATE SKIP LOCKED</code>，MySQL 8.0、PostgreSQL 9.5、Oracle 及以上版本支持
+     */
+    @Override
+    public String lockSkipLocked(String selectSql) {
+        return selectSql + " FOR UPDATE SKIP LOCKED";
+    }
+
+    @Override
+    public long bulkLoad(Connection connection, String table, List<Column> columns, File csvFile) throws SQLException {
+        throw new BpMybatisException("dialect [" + getName() + "] not support bulk load");
+    }
+
+    @Override
+    public String nextSequenceValues(String sequence, int n) {
+        throw new BpMybatisException("dialect [" + getName() + "] not support sequence");
+    }
+
+    /**
+     * 执行导入语句
+     *
+     * @param connection 数据库连接
+     * @param sql        导入语句
+     * @return 导入行数
+     * @throws SQLException 导入失败
+     */
+    protected static long executeLoad(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(sql);
+        }
+    }
+
+    @Override
+    public Map<String, String> getBatchRewriteProperties() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * 拼接 <code>col = value</code> 列表
+     *
+     * @param columns     列
+     * @param expressions 对应的值
+     * @return 拼接后的字符串
+     */
+    protected static String joinAssignments(List<Column> columns, List<Expression> expressions) {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(columns.get(i).getColumnName()).append(" = ").append(expressions.get(i));
+        }
+        return sql.toString();
+    }
+
+    /**
+     * 拼接列名列表
+     *
+     * @param columns 列
+     * @return 逗号分隔的列名
+     */
+    protected static String joinColumns(List<Column> columns) {
+        return columns.stream().map(Column::getColumnName).collect(Collectors.joining(", "));
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,147 @@
+package com.software5000.base.dialect;
+
+import com.software5000.util.BpMybatisException;
+import com.software5000.util.ClassUtil;
+import com.software5000.util.JsqlUtils;
+import net.sf.jsqlparser.schema.Column;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * 批量导入使用的CSV临时文件
+ * <p>
+ * 格式对各方言的导入命令都是无歧义的：逗号分隔、换行结束；字符串和时间总是用双引号包裹，内部的双引号写两次；
+ * 数字不加引号；NULL 写为不加引号的 <code>NULL</code>，与加引号的字符串 "NULL" 区分；布尔值与普通插入一致写为 1/0。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class BulkLoadCsvWriter implements Closeable {
+
+    /**
+     * NULL 值的表示
+     */
+    public static final String NULL_VALUE = "NULL";
+
+    private final File file;
+    private final Writer writer;
+    private final List<Column> columns;
+    private final String[] fieldNames;
+    private final Object[] fixedValues;
+    private long rows;
+
+    /**
+     * 创建临时文件
+     *
+     * @param columns 按顺序写入的列
+     * @throws IOException 创建文件失败
+     */
+    public BulkLoadCsvWriter(List<Column> columns) throws IOException {
+        this.columns = columns;
+        this.fieldNames = columns.stream().map(c -> JsqlUtils.transColumnToFieldName(c.getColumnName())).toArray(String[]::new);
+        this.fixedValues = new Object[columns.size()];
+        this.file = File.createTempFile("simple-orm-bulk-", ".csv");
+        this.file.deleteOnExit();
+        this.writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * 指定列固定写入给定的值，不再从实体中取值，如新增和修改时间
+     *
+     * @param columnName 列名，忽略大小写，不存在时忽略
+     * @param value      固定值
+     */
+    public void fixValue(String columnName, Object value) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).getColumnName().equalsIgnoreCase(columnName)) {
+                fixedValues[i] = value;
+            }
+        }
+    }
+
+    /**
+     * 写入一个实体
+     *
+     * @param entity 实体
+     * @throws IOException 写入失败
+     */
+    public void write(Object entity) throws IOException {
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeValue(fixedValues[i] != null ? fixedValues[i] : ClassUtil.getValueByField(entity, fieldNames[i]));
+        }
+        writer.write('\n');
+        rows++;
+    }
+
+    /**
+     * 写入单个值
+     *
+     * @param value 值
+     * @throws IOException 写入失败
+     */
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            writer.write(NULL_VALUE);
+        } else if (value instanceof Number) {
+            writer.write(value.toString());
+        } else if (value instanceof Boolean) {
+            writer.write((Boolean) value ? '1' : '0');
+        } else if (value instanceof java.util.Date && !(value instanceof java.sql.Date) && !(value instanceof java.sql.Time)) {
+            quote(new Timestamp(((java.util.Date) value).getTime()).toString());
+        } else {
+            quote(value.toString());
+        }
+    }
+
+    private void quote(String value) throws IOException {
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /**
+     * 写入完成，刷新到文件
+     *
+     * @return 文件
+     * @throws IOException 写入失败
+     */
+    public File finish() throws IOException {
+        writer.flush();
+        return file;
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * 关闭并删除临时文件
+     */
+    @Override
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw new BpMybatisException("close bulk load file error : [" + file + "]", e);
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
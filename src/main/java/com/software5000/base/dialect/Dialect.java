@@ -0,0 +1,146 @@
+package com.software5000.base.dialect;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.insert.Insert;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数据库方言
+ * <p>
+ * <code>BaseDao</code> 生成的语句中与数据库相关的部分都通过方言处理，包括标识符引用、字符串转义、
+ * 单条语句插入的最大行数、分页语法、upsert 语法、序列取值以及驱动的批处理改写参数。
+ * 通过 <code>BaseDao.initConfig</code> 设置，默认为 {@link MySqlDialect}。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public interface Dialect {
+
+    /**
+     * 方言名称，如 mysql、postgresql、h2
+     *
+     * @return 方言名称
+     */
+    String getName();
+
+    /**
+     * 引用标识符，用于表名、列名与关键字冲突的情况
+     *
+     * @param identifier 标识符
+     * @return 引用后的标识符
+     */
+    String quoteIdentifier(String identifier);
+
+    /**
+     * 转义字符串字面量的内容，返回值不包含两侧的单引号
+     *
+     * @param value 字符串值
+     * @return 转义后的内容
+     */
+    String escapeLiteral(String value);
+
+    /**
+     * 字符串字面量中反斜杠是否为转义符，为否时只有 <code>''</code> 一种转义
+     *
+     * @return 反斜杠是否转义
+     */
+    boolean backslashEscapesInLiterals();
+
+    /**
+     * 一条多行 INSERT 语句中最多包含的行数，超过时批量插入会拆分为多条语句
+     *
+     * @return 最大行数
+     */
+    int getMaxRowsPerInsert();
+
+    /**
+     * 一个 IN 列表中最多包含的值个数，超过时按多条语句执行
+     *
+     * @return 最大值个数
+     */
+    int getMaxInListSize();
+
+    /**
+     * 是否支持行值 IN，即 <code>(a, b) IN ((1, 2), (3, 4))</code>，不支持时使用 OR 连接的等式
+     *
+     * @return 是否支持
+     */
+    boolean supportsRowValueIn();
+
+    /**
+     * 排序时空值是否视为最小值，即升序时空值在前、降序时在后，与 <code>DatabaseMetaData.nullsAreSortedLow</code> 相同
+     *
+     * @return 空值是否最小
+     */
+    boolean nullsAreSortedLow();
+
+    /**
+     * 为查询设置分页
+     *
+     * @param plainSelect 查询
+     * @param offset      跳过的行数
+     * @param rowCount    返回的行数
+     */
+    void applyLimit(PlainSelect plainSelect, long offset, long rowCount);
+
+    /**
+     * 为领取任务的查询加上行锁，已被其他事务锁定的行直接跳过，如 <code>FOR UPDATE SKIP LOCKED</code>
+     *
+     * @param selectSql 已带排序和分页的查询
+     * @return 加锁后的查询
+     */
+    String lockSkipLocked(String selectSql);
+
+    /**
+     * upsert 更新部分中引用待插入值的表达式，如 MySQL 的 <code>VALUES(col)</code>
+     *
+     * @param column 列
+     * @return 待插入值的表达式
+     */
+    Expression insertedValue(Column column);
+
+    /**
+     * 生成 upsert 语句
+     *
+     * @param insert            普通的插入语句
+     * @param conflictColumns   构成主键或唯一索引的列
+     * @param updateColumns     数据已存在时需要更新的列，可以为空
+     * @param updateExpressions 与更新列顺序对应的值表达式
+     * @return upsert 语句
+     */
+    String upsert(Insert insert, List<Column> conflictColumns, List<Column> updateColumns, List<Expression> updateExpressions);
+
+    /**
+     * 使用数据库原生的批量导入命令导入CSV文件，文件格式见 {@link BulkLoadCsvWriter}
+     *
+     * @param connection 数据库连接
+     * @param table      表名
+     * @param columns    文件中按顺序对应的列
+     * @param csvFile    CSV文件
+     * @return 导入行数
+     * @throws SQLException 导入失败
+     */
+    long bulkLoad(Connection connection, String table, List<Column> columns, File csvFile) throws SQLException;
+
+    /**
+     * 获取序列后续值的查询，返回 n 行，每行一个序列值
+     *
+     * @param sequence 序列名称
+     * @param n        数量
+     * @return 查询语句
+     */
+    String nextSequenceValues(String sequence, int n);
+
+    /**
+     * 让驱动把 JDBC 批处理改写为多行语句所需的连接参数，不支持时为空
+     *
+     * @return 连接参数
+     */
+    Map<String, String> getBatchRewriteProperties();
+}
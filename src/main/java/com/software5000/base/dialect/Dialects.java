@@ -0,0 +1,58 @@
+package com.software5000.base.dialect;
+
+import com.software5000.util.BpMybatisException;
+
+import java.util.ServiceLoader;
+
+/**
+ * 方言的查找
+ * 内置 mysql、postgresql、h2，其他数据库可以实现 {@link Dialect} 并通过
+ * <code>META-INF/services/com.software5000.base.dialect.Dialect</code> 注册
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public final class Dialects {
+
+    private Dialects() {
+    }
+
+    /**
+     * 按名称获取方言，忽略大小写
+     *
+     * @param name 方言名称
+     * @return 方言
+     */
+    public static Dialect forName(String name) {
+        switch (name.toLowerCase()) {
+            case "mysql":
+            case "mariadb":
+                return new MySqlDialect();
+            case "postgresql":
+            case "postgres":
+                return new PostgreSqlDialect();
+            case "h2":
+                return new H2Dialect();
+            default:
+                for (Dialect dialect : ServiceLoader.load(Dialect.class)) {
+                    if (dialect.getName().equalsIgnoreCase(name)) {
+                        return dialect;
+                    }
+                }
+                throw new BpMybatisException("unknown dialect : [" + name + "]");
+        }
+    }
+
+    /**
+     * 根据 JDBC 连接地址判断方言，如 <code>jdbc:mysql://...</code>
+     *
+     * @param jdbcUrl JDBC 连接地址
+     * @return 方言
+     */
+    public static Dialect fromJdbcUrl(String jdbcUrl) {
+        String[] parts = jdbcUrl.split(":");
+        if (parts.length < 2 || !"jdbc".equalsIgnoreCase(parts[0])) {
+            throw new BpMybatisException("illegal jdbc url : [" + jdbcUrl + "]");
+        }
+        return forName(parts[1]);
+    }
+}
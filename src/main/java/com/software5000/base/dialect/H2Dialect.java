@@ -0,0 +1,108 @@
+package com.software5000.base.dialect;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.ItemsList;
+import net.sf.jsqlparser.expression.operators.relational.MultiExpressionList;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.insert.Insert;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * H2 方言
+ * upsert 使用标准的 <code>MERGE INTO ... USING ... WHEN MATCHED / WHEN NOT MATCHED</code>，
+ * 待插入的数据作为名为 <code>EXCLUDED</code> 的子查询，与 PostgreSQL 的写法保持一致
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class H2Dialect extends AbstractDialect {
+
+    private static final String EXCLUDED = "EXCLUDED";
+
+    @Override
+    public String getName() {
+        return "h2";
+    }
+
+    @Override
+    public Expression insertedValue(Column column) {
+        return new Column(new Table(EXCLUDED), column.getColumnName());
+    }
+
+    /**
+     * H2 1.4 不支持 SKIP LOCKED，只加 <code>FOR UPDATE</code>，已锁定的行会等待而不是跳过
+     */
+    @Override
+    public String lockSkipLocked(String selectSql) {
+        return selectSql + " FOR UPDATE";
+    }
+
+    /**
+     * <code>NEXT VALUE FOR</code> 在多行查询中每行取一次值，用 <code>SYSTEM_RANGE</code> 生成 n 行
+     */
+    @Override
+    public String nextSequenceValues(String sequence, int n) {
+        return n == 1 ? "SELECT NEXT VALUE FOR " + sequence
+                : "SELECT NEXT VALUE FOR " + sequence + " FROM SYSTEM_RANGE(1, " + n + ")";
+    }
+
+    /**
+     * <code>INSERT INTO ... SELECT * FROM CSVREAD(...)</code>，文件需要在数据库所在的机器上，主要用于测试
+     */
+    @Override
+    public long bulkLoad(Connection connection, String table, List<Column> columns, File csvFile) throws SQLException {
+        return executeLoad(connection, "INSERT INTO " + table + " (" + joinColumns(columns) + ") SELECT * FROM CSVREAD('"
+                + escapeLiteral(csvFile.getAbsolutePath()) + "', '" + joinColumns(columns).replace(" ", "")
+                + "', 'charset=UTF-8 null=" + BulkLoadCsvWriter.NULL_VALUE + "')");
+    }
+
+    @Override
+    public String upsert(Insert insert, List<Column> conflictColumns, List<Column> updateColumns, List<Expression> updateExpressions) {
+        String tableName = insert.getTable().getName();
+        List<Column> columns = insert.getColumns();
+        ItemsList itemsList = insert.getItemsList();
+        List<ExpressionList> rows = itemsList instanceof MultiExpressionList
+                ? ((MultiExpressionList) itemsList).getExprList()
+                : Collections.singletonList((ExpressionList) itemsList);
+
+        StringBuilder sql = new StringBuilder("MERGE INTO ").append(tableName).append(" USING (");
+        for (int r = 0; r < rows.size(); r++) {
+            sql.append(r == 0 ? "SELECT " : " UNION ALL SELECT ");
+            List<Expression> values = rows.get(r).getExpressions();
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(values.get(i)).append(" AS ").append(columns.get(i).getColumnName());
+            }
+        }
+        sql.append(") ").append(EXCLUDED).append(" ON (");
+        for (int i = 0; i < conflictColumns.size(); i++) {
+            String columnName = conflictColumns.get(i).getColumnName();
+            if (i > 0) {
+                sql.append(" AND ");
+            }
+            sql.append(tableName).append('.').append(columnName).append(" = ").append(EXCLUDED).append('.').append(columnName);
+        }
+        sql.append(")");
+
+        if (!updateColumns.isEmpty()) {
+            sql.append(" WHEN MATCHED THEN UPDATE SET ").append(joinAssignments(updateColumns, updateExpressions));
+        }
+        sql.append(" WHEN NOT MATCHED THEN INSERT (").append(joinColumns(columns)).append(") VALUES (");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(EXCLUDED).append('.').append(columns.get(i).getColumnName());
+        }
+        sql.append(")");
+        return sql.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.software5000.base.dialect;
+
+import com.software5000.util.JsqlUtils;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.insert.Insert;
+import net.sf.jsqlparser.statement.select.Limit;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MySQL 方言
+ * 字符串使用反斜杠转义，upsert 为 <code>INSERT ... ON DUPLICATE KEY UPDATE</code>，
+ * 驱动开启 rewriteBatchedStatements 后会把批处理改写为多行插入
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class MySqlDialect extends AbstractDialect {
+
+    @Override
+    public String getName() {
+        return "mysql";
+    }
+
+    @Override
+    public String quoteIdentifier(String identifier) {
+        return "`" + identifier.replace("`", "``") + "`";
+    }
+
+    /**
+     * 默认的 sql_mode 下反斜杠是转义符，需要先转义反斜杠本身，否则 <code>\'</code> 会被拆成转义的反斜杠和结束的引号
+     */
+    @Override
+    public String escapeLiteral(String value) {
+        return value.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    @Override
+    public boolean backslashEscapesInLiterals() {
+        return true;
+    }
+
+    /**
+     * <code>LIMIT m, n</code>
+     */
+    @Override
+    public void applyLimit(PlainSelect plainSelect, long offset, long rowCount) {
+        Limit limit = new Limit();
+        if (offset > 0) {
+            limit.setOffset(new LongValue(offset));
+        }
+        limit.setRowCount(new LongValue(rowCount));
+        plainSelect.setLimit(limit);
+        plainSelect.setOffset(null);
+    }
+
+    @Override
+    public Expression insertedValue(Column column) {
+        return JsqlUtils.function("VALUES", new Column(column.getColumnName()));
+    }
+
+    /**
+     * 没有需要更新的列时把第一个冲突列更新为自身，数据已存在时不做修改
+     */
+    @Override
+    public String upsert(Insert insert, List<Column> conflictColumns, List<Column> updateColumns, List<Expression> updateExpressions) {
+        insert.setUseDuplicate(true);
+        if (updateColumns.isEmpty()) {
+            Column column = new Column(conflictColumns.get(0).getColumnName());
+            insert.setDuplicateUpdateColumns(Collections.singletonList(column));
+            insert.setDuplicateUpdateExpressionList(Collections.singletonList(column));
+        } else {
+            insert.setDuplicateUpdateColumns(updateColumns);
+            insert.setDuplicateUpdateExpressionList(updateExpressions);
+        }
+        return insert.toString();
+    }
+
+    /**
+     * <code>LOAD DATA LOCAL INFILE</code>，需要在连接参数中开启 allowLoadLocalInfile
+     */
+    @Override
+    public long bulkLoad(Connection connection, String table, List<Column> columns, File csvFile) throws SQLException {
+        return executeLoad(connection, "LOAD DATA LOCAL INFILE '" + escapeLiteral(csvFile.getAbsolutePath()) + "' INTO TABLE " + table
+                + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY ''"
+                + " LINES TERMINATED BY '\\n' (" + joinColumns(columns) + ")");
+    }
+
+    @Override
+    public Map<String, String> getBatchRewriteProperties() {
+        return Collections.singletonMap("rewriteBatchedStatements", "true");
+    }
+}
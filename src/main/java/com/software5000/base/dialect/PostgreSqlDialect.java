@@ -0,0 +1,96 @@
+package com.software5000.base.dialect;
+
+import com.software5000.util.BpMybatisException;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.insert.Insert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PostgreSQL 方言
+ * upsert 为 <code>INSERT ... ON CONFLICT (...) DO UPDATE SET</code>，待插入值通过 <code>EXCLUDED</code> 引用，
+ * 驱动开启 reWriteBatchedInserts 后会把批处理改写为多行插入
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class PostgreSqlDialect extends AbstractDialect {
+
+    private static final String EXCLUDED = "EXCLUDED";
+
+    @Override
+    public String getName() {
+        return "postgresql";
+    }
+
+    @Override
+    public Expression insertedValue(Column column) {
+        return new Column(new Table(EXCLUDED), column.getColumnName());
+    }
+
+    @Override
+    public String upsert(Insert insert, List<Column> conflictColumns, List<Column> updateColumns, List<Expression> updateExpressions) {
+        StringBuilder sql = new StringBuilder(insert.toString());
+        sql.append(" ON CONFLICT (").append(joinColumns(conflictColumns)).append(")");
+        if (updateColumns.isEmpty()) {
+            sql.append(" DO NOTHING");
+        } else {
+            sql.append(" DO UPDATE SET ").append(joinAssignments(updateColumns, updateExpressions));
+        }
+        return sql.toString();
+    }
+
+    /**
+     * PostgreSQL 把空值视为最大值，升序时空值在后
+     */
+    @Override
+    public boolean nullsAreSortedLow() {
+        return false;
+    }
+
+    @Override
+    public String nextSequenceValues(String sequence, int n) {
+        return n == 1 ? "SELECT nextval('" + escapeLiteral(sequence) + "')"
+                : "SELECT nextval('" + escapeLiteral(sequence) + "') FROM generate_series(1, " + n + ")";
+    }
+
+    /**
+     * <code>COPY ... FROM STDIN</code>，通过驱动的 CopyManager 把文件流式发送给服务端；
+     * 驱动不是编译依赖，这里通过反射调用
+     */
+    @Override
+    public long bulkLoad(Connection connection, String table, List<Column> columns, File csvFile) throws SQLException {
+        String sql = "COPY " + table + " (" + joinColumns(columns) + ") FROM STDIN WITH (FORMAT csv, NULL '"
+                + BulkLoadCsvWriter.NULL_VALUE + "')";
+        try (Reader reader = new InputStreamReader(Files.newInputStream(csvFile.toPath()), StandardCharsets.UTF_8)) {
+            Class<?> pgConnectionClass = Class.forName("org.postgresql.PGConnection");
+            Object copyManager = pgConnectionClass.getMethod("getCopyAPI").invoke(connection.unwrap(pgConnectionClass));
+            return (Long) Class.forName("org.postgresql.copy.CopyManager")
+                    .getMethod("copyIn", String.class, Reader.class).invoke(copyManager, sql, reader);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new BpMybatisException("copy into [" + table + "] error", e.getCause());
+        } catch (ReflectiveOperationException | IOException e) {
+            throw new BpMybatisException("copy into [" + table + "] error", e);
+        }
+    }
+
+    @Override
+    public Map<String, String> getBatchRewriteProperties() {
+        return Collections.singletonMap("reWriteBatchedInserts", "true");
+    }
+}
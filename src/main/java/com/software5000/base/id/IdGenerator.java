@@ -0,0 +1,37 @@
+package com.software5000.base.id;
+
+import com.software5000.base.BaseDao;
+
+/**
+ * 主键生成器的扩展接口
+ * 实现类需要提供无参构造函数，或者通过 {@link BaseDao#registerIdGenerator(IdGenerator)} 注册已配置好的实例
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成一个主键
+     *
+     * @param baseDao     当前操作的dao，需要访问数据库的生成器使用
+     * @param entityClass 实体类
+     * @return 主键值
+     */
+    Object nextId(BaseDao baseDao, Class<?> entityClass);
+
+    /**
+     * 批量生成主键，默认逐个生成，实现类可以覆盖为一次性预留
+     *
+     * @param baseDao     当前操作的dao
+     * @param entityClass 实体类
+     * @param n           数量
+     * @return 主键值数组
+     */
+    default Object[] nextIds(BaseDao baseDao, Class<?> entityClass, int n) {
+        Object[] ids = new Object[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = nextId(baseDao, entityClass);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,305 @@
+package com.software5000.base.id;
+
+import com.software5000.base.BaseDao;
+import com.software5000.base.GeneratedId;
+import com.software5000.util.BpMybatisException;
+import com.software5000.util.JsqlUtils;
+import com.software5000.util.ValidUtil;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.operators.arithmetic.Addition;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.SelectExpressionItem;
+import net.sf.jsqlparser.statement.update.Update;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于数据库号段的主键生成器（双缓冲）
+ * <p>
+ * 每次从号段表中预留一段连续的id，在内存中自增分配，只有号段用完时才访问数据库；
+ * 当前号段使用超过80%时异步加载下一个号段，切换时基本不需要等待。
+ * 号段长度会根据消耗速度自适应调整：一个号段在15分钟内用完时长度翻倍，超过30分钟才用完时减半。
+ * <p>
+ * 号段表结构（表名、列名按 <code>BaseDao</code> 的命名规则转换，需要有 update_time 列供通用拦截器更新）：
+ * <pre>
+ * CREATE TABLE ID_SEGMENT (
+ *     BIZ_TAG     VARCHAR(128) PRIMARY KEY,
+ *     MAX_ID      BIGINT       NOT NULL,
+ *     STEP        INT          NOT NULL,
+ *     UPDATE_TIME TIMESTAMP
+ * );
+ * </pre>
+ * 业务标识取自 {@link GeneratedId#sequence()}，未设置时为表名。
+ * <p>
+ * 预留号段不使用业务的 SqlSession，而是从构造时传入的 SqlSessionFactory 打开独立的短事务，执行
+ * <code>UPDATE ... SET MAX_ID = MAX_ID + 步长 WHERE BIZ_TAG = ?</code> 后读回 MAX_ID 并立即提交，
+ * 多个实例并发预留时由行锁排队，不需要重试；业务事务回滚不会撤销已分配的号段，行锁也只在预留期间持有。
+ * 该 SqlSessionFactory 需要加载 <code>BaseDao</code> 的映射文件，且不能是参与外部事务管理的会话。
+ * 生成器没有无参构造，需要通过 {@link BaseDao#registerIdGenerator(IdGenerator)} 注册。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class SegmentIdGenerator implements IdGenerator {
+
+    private Logger logger = LoggerFactory.getLogger(SegmentIdGenerator.class);
+
+    /**
+     * 使用超过该比例时开始异步加载下一个号段
+     */
+    private static final double PRELOAD_RATIO = 0.8;
+
+    /**
+     * 号段的期望使用时长，用于自适应调整步长
+     */
+    private static final long SEGMENT_DURATION_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final String TABLE_NAME = "IdSegment";
+
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+    private final SqlSessionFactory sqlSessionFactory;
+    private final long maxStep;
+
+    private final ExecutorService loader = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "simple-orm-segment-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param sqlSessionFactory 用于预留号段的独立会话
+     */
+    public SegmentIdGenerator(SqlSessionFactory sqlSessionFactory) {
+        this(sqlSessionFactory, 1_000_000L);
+    }
+
+    /**
+     * @param sqlSessionFactory 用于预留号段的独立会话
+     * @param maxStep           自适应调整时步长的上限
+     */
+    public SegmentIdGenerator(SqlSessionFactory sqlSessionFactory, long maxStep) {
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.maxStep = maxStep;
+    }
+
+    @Override
+    public Object nextId(BaseDao baseDao, Class<?> entityClass) {
+        return nextId(getBizTag(entityClass));
+    }
+
+    /**
+     * 按业务标识获取下一个id
+     *
+     * @param bizTag 业务标识
+     * @return id
+     */
+    public long nextId(String bizTag) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(bizTag, SegmentBuffer::new);
+        for (; ; ) {
+            Segment current = buffer.current;
+            if (current == null) {
+                buffer.initialize();
+                continue;
+            }
+
+            long id = current.value.getAndIncrement();
+            if (id <= current.max) {
+                if (current.max - id < current.step * (1 - PRELOAD_RATIO)) {
+                    preload(buffer);
+                }
+                return id;
+            }
+            buffer.switchToNext(current);
+        }
+    }
+
+    /**
+     * 异步加载下一个号段
+     */
+    private void preload(SegmentBuffer buffer) {
+        if (buffer.next != null || !buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        loader.execute(() -> {
+            try {
+                Segment segment = reserve(buffer);
+                synchronized (buffer) {
+                    buffer.next = segment;
+                }
+            } catch (Exception e) {
+                logger.error("preload id segment error, bizTag : [" + buffer.bizTag + "] ", e);
+            } finally {
+                synchronized (buffer) {
+                    buffer.loading.set(false);
+                    buffer.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * 在独立的事务中原子地增加号段表的最大值并读回，根据上一个号段的消耗速度调整步长
+     * 第一次预留时步长直接取号段表中的配置
+     */
+    private Segment reserve(SegmentBuffer buffer) {
+        boolean first = buffer.lastReserveTime == 0;
+        long step = first ? 0 : nextStep(buffer);
+        Column maxIdColumn = new Column(JsqlUtils.transDbSchemesType("maxId"));
+        Column stepColumn = new Column(JsqlUtils.transDbSchemesType("step"));
+
+        Update update = new Update();
+        update.setTables(Arrays.asList(new Table(JsqlUtils.transDbSchemesType(TABLE_NAME))));
+        update.setColumns(Arrays.asList(maxIdColumn));
+        Addition addition = new Addition();
+        addition.setLeftExpression(maxIdColumn);
+        addition.setRightExpression(first ? stepColumn : new LongValue(step));
+        update.setExpressions(Arrays.asList(addition));
+        update.setWhere(JsqlUtils.equalTo(new Column(JsqlUtils.transDbSchemesType("bizTag")), JsqlUtils.convertValueType(buffer.bizTag)));
+
+        Map<String, Object> param = new HashMap<>(1);
+        param.put("baseSql", update.toString());
+        try (SqlSession sqlSession = sqlSessionFactory.openSession(false)) {
+            if (sqlSession.update("com.software5000.base.BaseDao.updateEntities", param) != 1) {
+                throw new BpMybatisException("id segment not exist, bizTag : [" + buffer.bizTag + "]");
+            }
+            Map<String, Object> row = selectSegmentRow(sqlSession, buffer.bizTag);
+            sqlSession.commit(true);
+
+            long max = ((Number) JsqlUtils.getValueFromRow(row, "maxId")).longValue();
+            if (first) {
+                buffer.baseStep = ((Number) JsqlUtils.getValueFromRow(row, "step")).longValue();
+                step = buffer.baseStep;
+            }
+            buffer.step = step;
+            buffer.lastReserveTime = System.currentTimeMillis();
+            logger.debug("reserved id segment, bizTag : [" + buffer.bizTag + "] range : (" + (max - step) + ", " + max + "]");
+            return new Segment(max - step + 1, max, step);
+        }
+    }
+
+    /**
+     * 根据上一个号段的使用时长计算本次的步长
+     */
+    private long nextStep(SegmentBuffer buffer) {
+        long baseStep = buffer.baseStep;
+        long duration = System.currentTimeMillis() - buffer.lastReserveTime;
+        if (duration < SEGMENT_DURATION_MILLIS) {
+            return Math.min(buffer.step * 2, Math.max(maxStep, baseStep));
+        } else if (duration > SEGMENT_DURATION_MILLIS * 2) {
+            return Math.max(buffer.step / 2, baseStep);
+        }
+        return buffer.step;
+    }
+
+    private Map<String, Object> selectSegmentRow(SqlSession sqlSession, String bizTag) {
+        PlainSelect plainSelect = new PlainSelect();
+        plainSelect.addSelectItems(new SelectExpressionItem(new Column(JsqlUtils.transDbSchemesType("maxId"))),
+                new SelectExpressionItem(new Column(JsqlUtils.transDbSchemesType("step"))));
+        plainSelect.setFromItem(new Table(JsqlUtils.transDbSchemesType(TABLE_NAME)));
+        plainSelect.setWhere(JsqlUtils.equalTo(new Column(JsqlUtils.transDbSchemesType("bizTag")), JsqlUtils.convertValueType(bizTag)));
+
+        Map<String, Object> param = new HashMap<>(1);
+        param.put("baseSql", plainSelect.toString());
+        List<Map<String, Object>> rows = sqlSession.selectList("com.software5000.base.BaseDao.selectEntities", param);
+        if (rows.isEmpty()) {
+            throw new BpMybatisException("id segment not exist, bizTag : [" + bizTag + "]");
+        }
+        return rows.get(0);
+    }
+
+    /**
+     * 获取实体对应的业务标识
+     *
+     * @param entityClass 实体类
+     * @return 业务标识
+     */
+    protected String getBizTag(Class<?> entityClass) {
+        GeneratedId generatedId = entityClass.getAnnotation(GeneratedId.class);
+        if (generatedId != null && ValidUtil.isNotEmpty(generatedId.sequence())) {
+            return generatedId.sequence();
+        }
+        return JsqlUtils.transDbSchemesType(entityClass.getSimpleName());
+    }
+
+    /**
+     * 关闭异步加载线程
+     */
+    public void close() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * 单个号段，value 为下一个待分配的id
+     */
+    private static class Segment {
+        private final AtomicLong value;
+        private final long max;
+        private final long step;
+
+        private Segment(long start, long max, long step) {
+            this.value = new AtomicLong(start);
+            this.max = max;
+            this.step = step;
+        }
+    }
+
+    /**
+     * 单个业务标识的双缓冲
+     */
+    private class SegmentBuffer {
+        private final String bizTag;
+        private final AtomicBoolean loading = new AtomicBoolean(false);
+        private volatile Segment current;
+        private volatile Segment next;
+        private volatile long step;
+        private volatile long baseStep;
+        private volatile long lastReserveTime;
+
+        private SegmentBuffer(String bizTag) {
+            this.bizTag = bizTag;
+        }
+
+        private synchronized void initialize() {
+            if (current == null) {
+                current = reserve(this);
+            }
+        }
+
+        /**
+         * 当前号段用完时切换到下一个号段，下一个号段还在加载时等待加载完成，没有在加载时同步加载
+         */
+        private synchronized void switchToNext(Segment exhausted) {
+            if (current != exhausted) {
+                return;
+            }
+            while (loading.get() && next == null) {
+                try {
+                    wait(TimeUnit.SECONDS.toMillis(1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BpMybatisException("interrupted while waiting for id segment, bizTag : [" + bizTag + "]", e);
+                }
+            }
+            if (next != null) {
+                current = next;
+                next = null;
+            } else {
+                current = reserve(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.software5000.base.id;
+
+import com.software5000.base.BaseDao;
+import com.software5000.base.GeneratedId;
+import com.software5000.util.JsqlUtils;
+import com.software5000.util.ValidUtil;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于数据库序列的主键生成器
+ * 序列名称取自 {@link GeneratedId#sequence()}，未设置时为 表名_SEQ
+ * <p>
+ * 默认通过当前方言的 {@link com.software5000.base.dialect.Dialect#nextSequenceValues(String, int)} 取值，
+ * 批量生成时一条查询取回 n 个值；MySQL 没有序列，使用默认方言时会抛出异常。
+ * 方言未内置的数据库可以传入sql模板，如 Oracle 的 <code>SELECT %s.NEXTVAL FROM DUAL</code>，此时批量生成逐个取值。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class SequenceIdGenerator implements IdGenerator {
+
+    private static final String SELECT_LONG_VALUE = "com.software5000.base.BaseDao.selectLongValue";
+
+    private final String sqlTemplate;
+
+    public SequenceIdGenerator() {
+        this(null);
+    }
+
+    /**
+     * @param sqlTemplate 获取一个序列值的sql模板，<code>%s</code> 为序列名称，为空时使用方言生成
+     */
+    public SequenceIdGenerator(String sqlTemplate) {
+        this.sqlTemplate = sqlTemplate;
+    }
+
+    @Override
+    public Object nextId(BaseDao baseDao, Class<?> entityClass) {
+        String sequence = getSequenceName(entityClass);
+        String sql = sqlTemplate != null ? String.format(sqlTemplate, sequence) : BaseDao.DIALECT.nextSequenceValues(sequence, 1);
+        return baseDao.getSqlSession().selectOne(SELECT_LONG_VALUE, sqlParam(sql));
+    }
+
+    @Override
+    public Object[] nextIds(BaseDao baseDao, Class<?> entityClass, int n) {
+        if (sqlTemplate != null) {
+            return IdGenerator.super.nextIds(baseDao, entityClass, n);
+        }
+        List<Long> ids = baseDao.getSqlSession().selectList(SELECT_LONG_VALUE,
+                sqlParam(BaseDao.DIALECT.nextSequenceValues(getSequenceName(entityClass), n)));
+        return ids.toArray();
+    }
+
+    private static Map<String, Object> sqlParam(String sql) {
+        Map<String, Object> param = new HashMap<>(1);
+        param.put("baseSql", sql);
+        return param;
+    }
+
+    /**
+     * 获取实体对应的序列名称
+     *
+     * @param entityClass 实体类
+     * @return 序列名称
+     */
+    protected String getSequenceName(Class<?> entityClass) {
+        GeneratedId generatedId = entityClass.getAnnotation(GeneratedId.class);
+        if (generatedId != null && ValidUtil.isNotEmpty(generatedId.sequence())) {
+            return generatedId.sequence();
+        }
+        return JsqlUtils.transDbSchemesType(entityClass.getSimpleName() + "Seq");
+    }
+}
@@ -0,0 +1,40 @@
+package com.software5000.base.id;
+
+import com.software5000.base.BaseDao;
+import com.software5000.util.SnowFlake;
+
+/**
+ * 基于 {@link SnowFlake} 的主键生成器
+ * 不提供无参构造，固定的数据中心和机器标识在多实例部署时必然产生重复主键，
+ * 需要通过 {@link BaseDao#registerIdGenerator(IdGenerator)} 注册配置了唯一标识的实例，
+ * 标识可以由 {@link SnowFlakeWorkerRegistrar} 分配
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class SnowFlakeIdGenerator implements IdGenerator {
+
+    private final SnowFlake snowFlake;
+
+    public SnowFlakeIdGenerator(SnowFlake snowFlake) {
+        this.snowFlake = snowFlake;
+    }
+
+    @Override
+    public Object nextId(BaseDao baseDao, Class<?> entityClass) {
+        return snowFlake.nextId();
+    }
+
+    @Override
+    public Object[] nextIds(BaseDao baseDao, Class<?> entityClass, int n) {
+        long[] ids = snowFlake.nextIds(n);
+        Object[] result = new Object[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = ids[i];
+        }
+        return result;
+    }
+
+    public SnowFlake getSnowFlake() {
+        return snowFlake;
+    }
+}
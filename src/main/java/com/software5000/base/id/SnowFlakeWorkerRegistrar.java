@@ -0,0 +1,377 @@
+package com.software5000.base.id;
+
+import com.software5000.base.BaseDao;
+import com.software5000.base.jsql.AndExpressionList;
+import com.software5000.util.BpMybatisException;
+import com.software5000.util.JsqlUtils;
+import com.software5000.util.SnowFlake;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.insert.Insert;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.update.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnowFlake 机器标识的自动分配
+ * <p>
+ * 通过租约表为当前实例抢占一个空闲的 (数据中心, 机器标识)，按心跳周期续约，关闭时释放。
+ * 租约失效（续约失败超过租约时长，或者被其他实例抢占）后，返回的 {@link SnowFlake} 会拒绝继续生成id，
+ * 避免自动扩缩容时出现重复的机器标识导致id冲突。
+ * <p>
+ * 租约到期时间按各实例的本地时钟记录，持有方在本地时钟到期时停止生成id，
+ * 其他实例只有在本地时钟超过到期时间加上最大时钟偏差后才会抢占，实例间的时钟偏差不能超过该值。
+ * <p>
+ * 租约表结构（表名、列名按 <code>BaseDao</code> 的命名规则转换，create_time/update_time 供通用拦截器填充）：
+ * <pre>
+ * CREATE TABLE SNOW_FLAKE_WORKER (
+ *     DATACENTER_ID INT          NOT NULL,
+ *     MACHINE_ID    INT          NOT NULL,
+ *     OWNER         VARCHAR(128) NOT NULL,
+ *     LEASE_EXPIRE  BIGINT       NOT NULL,
+ *     CREATE_TIME   TIMESTAMP,
+ *     UPDATE_TIME   TIMESTAMP,
+ *     PRIMARY KEY (DATACENTER_ID, MACHINE_ID)
+ * );
+ * </pre>
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class SnowFlakeWorkerRegistrar implements AutoCloseable {
+
+    private Logger logger = LoggerFactory.getLogger(SnowFlakeWorkerRegistrar.class);
+
+    private static final String TABLE_NAME = "SnowFlakeWorker";
+    private static final int MAX_DATACENTER_ID = 31;
+    private static final int MAX_MACHINE_ID = 31;
+    private static final long DEFAULT_MAX_CLOCK_SKEW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final BaseDao baseDao;
+    private final String owner;
+    private final long leaseMillis;
+    private final long maxClockSkewMillis;
+    private final int[] datacenterIds;
+
+    private volatile long leaseExpireAt = 0;
+    private long datacenterId = -1;
+    private long machineId = -1;
+    private ScheduledExecutorService heartbeat;
+    private Thread shutdownHook;
+
+    /**
+     * 在全部数据中心中抢占机器标识
+     *
+     * @param baseDao     用于访问租约表
+     * @param leaseMillis 租约时长
+     */
+    public SnowFlakeWorkerRegistrar(BaseDao baseDao, long leaseMillis) {
+        this(baseDao, leaseMillis, -1);
+    }
+
+    /**
+     * @param baseDao      用于访问租约表
+     * @param leaseMillis  租约时长，心跳周期为其三分之一
+     * @param datacenterId 固定的数据中心，-1表示全部数据中心
+     */
+    public SnowFlakeWorkerRegistrar(BaseDao baseDao, long leaseMillis, int datacenterId) {
+        this(baseDao, leaseMillis, datacenterId, DEFAULT_MAX_CLOCK_SKEW_MILLIS);
+    }
+
+    /**
+     * @param baseDao            用于访问租约表
+     * @param leaseMillis        租约时长，心跳周期为其三分之一
+     * @param datacenterId       固定的数据中心，-1表示全部数据中心
+     * @param maxClockSkewMillis 实例间允许的最大时钟偏差，过期的租约超过该时长后才能被抢占
+     */
+    public SnowFlakeWorkerRegistrar(BaseDao baseDao, long leaseMillis, int datacenterId, long maxClockSkewMillis) {
+        if (datacenterId > MAX_DATACENTER_ID || datacenterId < -1) {
+            throw new IllegalArgumentException("datacenterId can't be greater than " + MAX_DATACENTER_ID + " or less than -1");
+        }
+        this.baseDao = baseDao;
+        this.leaseMillis = leaseMillis;
+        this.maxClockSkewMillis = maxClockSkewMillis;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        if (datacenterId == -1) {
+            this.datacenterIds = new int[MAX_DATACENTER_ID + 1];
+            for (int i = 0; i <= MAX_DATACENTER_ID; i++) {
+                this.datacenterIds[i] = i;
+            }
+        } else {
+            this.datacenterIds = new int[]{datacenterId};
+        }
+    }
+
+    /**
+     * 抢占一个空闲的机器标识，开始心跳续约，并注册关闭时释放的钩子
+     *
+     * @return 受租约保护的 SnowFlake
+     */
+    public synchronized SnowFlake register() {
+        if (machineId >= 0) {
+            throw new BpMybatisException("worker already registered, datacenterId : [" + datacenterId + "] machineId : [" + machineId + "]");
+        }
+        claim();
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "simple-orm-snowflake-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, leaseMillis / 3);
+        heartbeat.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+
+        shutdownHook = new Thread(this::release, "simple-orm-snowflake-release");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        return new LeasedSnowFlake(datacenterId, machineId, this);
+    }
+
+    /**
+     * 依次尝试未使用过的位置和过期超过最大时钟偏差的租约
+     */
+    private void claim() {
+        Set<Long> usedSlots = new HashSet<>();
+        List<long[]> expiredSlots = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Map<String, Object> row : selectLeases()) {
+            long dc = ((Number) JsqlUtils.getValueFromRow(row, "datacenterId")).longValue();
+            long machine = ((Number) JsqlUtils.getValueFromRow(row, "machineId")).longValue();
+            usedSlots.add(dc << 8 | machine);
+            if (((Number) JsqlUtils.getValueFromRow(row, "leaseExpire")).longValue() < now - maxClockSkewMillis) {
+                expiredSlots.add(new long[]{dc, machine});
+            }
+        }
+
+        for (int dc : datacenterIds) {
+            for (int machine = 0; machine <= MAX_MACHINE_ID; machine++) {
+                if (!usedSlots.contains((long) dc << 8 | machine) && tryInsert(dc, machine)) {
+                    return;
+                }
+            }
+        }
+        for (long[] slot : expiredSlots) {
+            if (tryTakeOver(slot[0], slot[1])) {
+                return;
+            }
+        }
+        throw new BpMybatisException("no free snowflake worker slot available");
+    }
+
+    private boolean tryInsert(long dc, long machine) {
+        long start = System.currentTimeMillis();
+        Insert insert = new Insert();
+        insert.setTable(table());
+        insert.setColumns(Arrays.asList(column("datacenterId"), column("machineId"), column("owner"),
+                column("leaseExpire"), column("createTime"), column("updateTime")));
+        insert.setItemsList(new ExpressionList(Arrays.asList(new LongValue(dc), new LongValue(machine),
+                JsqlUtils.convertValueType(owner), new LongValue(start + leaseMillis), new NullValue(), new NullValue())));
+        try {
+            baseDao.insert("com.software5000.base.BaseDao.insertEntityWithAssignedId", param(insert.toString()));
+        } catch (RuntimeException e) {
+            if (!isDuplicateKey(e)) {
+                throw e;
+            }
+            // 并发抢占时主键冲突，尝试下一个位置
+            logger.debug("claim snowflake worker slot failed, datacenterId : [" + dc + "] machineId : [" + machine + "]", e);
+            return false;
+        }
+        claimed(dc, machine, start);
+        return true;
+    }
+
+    private boolean tryTakeOver(long dc, long machine) {
+        long start = System.currentTimeMillis();
+        Update update = new Update();
+        update.setTables(Arrays.asList(table()));
+        update.setColumns(Arrays.asList(column("owner"), column("leaseExpire")));
+        update.setExpressions(Arrays.asList(JsqlUtils.convertValueType(owner), new LongValue(start + leaseMillis)));
+        update.setWhere(new AndExpressionList()
+                .append(slotCondition(dc, machine))
+                .append(JsqlUtils.lessThan(column("leaseExpire"), new LongValue(start - maxClockSkewMillis)))
+                .get());
+        if (baseDao.update("com.software5000.base.BaseDao.updateEntities", param(update.toString())) != 1) {
+            return false;
+        }
+        claimed(dc, machine, start);
+        return true;
+    }
+
+    private void claimed(long dc, long machine, long start) {
+        this.datacenterId = dc;
+        this.machineId = machine;
+        this.leaseExpireAt = start + leaseMillis;
+        logger.info("claimed snowflake worker, datacenterId : [" + dc + "] machineId : [" + machine + "] owner : [" + owner + "]");
+    }
+
+    /**
+     * 续约，租约被其他实例抢占时立即失效
+     */
+    private void renew() {
+        long start = System.currentTimeMillis();
+        try {
+            if (updateOwnLease(start + leaseMillis) == 1) {
+                leaseExpireAt = start + leaseMillis;
+            } else {
+                leaseExpireAt = 0;
+                logger.error("snowflake worker lease lost, datacenterId : [" + datacenterId + "] machineId : [" + machineId + "]");
+            }
+        } catch (Exception e) {
+            logger.error("renew snowflake worker lease error, lease expire at : [" + new Date(leaseExpireAt) + "] ", e);
+        }
+    }
+
+    /**
+     * 释放租约，之后不能再生成id
+     */
+    public synchronized void release() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+        if (machineId < 0 || leaseExpireAt == 0) {
+            return;
+        }
+        leaseExpireAt = 0;
+        try {
+            updateOwnLease(0);
+            logger.info("released snowflake worker, datacenterId : [" + datacenterId + "] machineId : [" + machineId + "]");
+        } catch (Exception e) {
+            logger.error("release snowflake worker lease error", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        release();
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // 已经在关闭过程中
+            }
+            shutdownHook = null;
+        }
+    }
+
+    private int updateOwnLease(long expire) {
+        Update update = new Update();
+        update.setTables(Arrays.asList(table()));
+        update.setColumns(Arrays.asList(column("leaseExpire")));
+        update.setExpressions(Arrays.asList(new LongValue(expire)));
+        update.setWhere(new AndExpressionList()
+                .append(slotCondition(datacenterId, machineId))
+                .append(JsqlUtils.equalTo(column("owner"), JsqlUtils.convertValueType(owner)))
+                .get());
+        return baseDao.update("com.software5000.base.BaseDao.updateEntities", param(update.toString()));
+    }
+
+    /**
+     * @return 租约当前是否有效
+     */
+    public boolean isLeaseValid() {
+        return System.currentTimeMillis() < leaseExpireAt;
+    }
+
+    public long getDatacenterId() {
+        return datacenterId;
+    }
+
+    public long getMachineId() {
+        return machineId;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    private List<Map<String, Object>> selectLeases() {
+        PlainSelect plainSelect = new PlainSelect();
+        plainSelect.setSelectItems(Arrays.asList(new AllColumns()));
+        plainSelect.setFromItem(table());
+        if (datacenterIds.length == 1) {
+            plainSelect.setWhere(JsqlUtils.equalTo(column("datacenterId"), new LongValue(datacenterIds[0])));
+        }
+        return baseDao.selectList("com.software5000.base.BaseDao.selectEntities", param(plainSelect.toString()));
+    }
+
+    private Expression slotCondition(long dc, long machine) {
+        return new Parenthesis(new AndExpressionList()
+                .append(JsqlUtils.equalTo(column("datacenterId"), new LongValue(dc)))
+                .append(JsqlUtils.equalTo(column("machineId"), new LongValue(machine)))
+                .get());
+    }
+
+    private static Table table() {
+        return new Table(JsqlUtils.transDbSchemesType(TABLE_NAME));
+    }
+
+    private static Column column(String fieldName) {
+        return new Column(JsqlUtils.transDbSchemesType(fieldName));
+    }
+
+    /**
+     * 判断是否为主键冲突，SQLState 以 23 开头的为完整性约束错误
+     */
+    private static boolean isDuplicateKey(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                    && ((SQLException) cause).getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, Object> param(String sql) {
+        Map<String, Object> param = new HashMap<>(1);
+        param.put("baseSql", sql);
+        return param;
+    }
+
+
+    /**
+     * 受租约保护的 SnowFlake，租约失效后拒绝生成id
+     */
+    private static class LeasedSnowFlake extends SnowFlake {
+
+        private final SnowFlakeWorkerRegistrar registrar;
+
+        private LeasedSnowFlake(long datacenterId, long machineId, SnowFlakeWorkerRegistrar registrar) {
+            super(datacenterId, machineId);
+            this.registrar = registrar;
+        }
+
+        @Override
+        public long nextId() {
+            checkLease();
+            return super.nextId();
+        }
+
+        @Override
+        public void nextIds(long[] dest) {
+            checkLease();
+            super.nextIds(dest);
+        }
+
+        private void checkLease() {
+            if (!registrar.isLeaseValid()) {
+                throw new BpMybatisException("snowflake worker lease expired, datacenterId : [" + getDatacenterId()
+                        + "] machineId : [" + getMachineId() + "]. Refusing to generate id");
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.software5000.base.id;
+
+import com.software5000.base.BaseDao;
+
+import java.util.UUID;
+
+/**
+ * 基于UUID的主键生成器，生成去掉横线的32位字符串
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class UuidIdGenerator implements IdGenerator {
+
+    @Override
+    public Object nextId(BaseDao baseDao, Class<?> entityClass) {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+}
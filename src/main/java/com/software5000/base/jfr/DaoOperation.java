@@ -0,0 +1,57 @@
+package com.software5000.base.jfr;
+
+/**
+ * 一次 <code>BaseDao</code> 操作的分阶段计时
+ * 一次操作分为三个阶段：生成sql、执行sql、结果映射为实体，每个阶段结束时调用对应的方法，
+ * 最后在 close 时提交事件。未开启记录时使用空实现，几乎没有额外开销。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public interface DaoOperation extends AutoCloseable {
+
+    /**
+     * 空实现，未开启JFR记录或者运行环境不支持JFR时使用
+     */
+    DaoOperation NOOP = new DaoOperation() {
+        @Override
+        public void sqlBuilt(String table) {
+        }
+
+        @Override
+        public void executed(long rowCount) {
+        }
+
+        @Override
+        public void mapped() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * sql生成阶段结束
+     *
+     * @param table 操作的表名
+     */
+    void sqlBuilt(String table);
+
+    /**
+     * sql执行阶段结束
+     *
+     * @param rowCount 影响行数或者返回行数
+     */
+    void executed(long rowCount);
+
+    /**
+     * 结果映射阶段结束
+     */
+    void mapped();
+
+    /**
+     * 操作结束，提交事件
+     */
+    @Override
+    void close();
+}
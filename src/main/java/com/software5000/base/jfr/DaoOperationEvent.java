@@ -0,0 +1,46 @@
+package com.software5000.base.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * BaseDao 操作的JFR事件，分别记录sql生成、执行、结果映射三个阶段的耗时
+ *
+ * @author matuobasyouca@gmail.com
+ */
+@Name("com.software5000.BaseDaoOperation")
+@Label("BaseDao Operation")
+@Category({"Simple ORM", "BaseDao"})
+@Description("A BaseDao operation with separate durations for sql build, execution and row mapping")
+@StackTrace(false)
+class DaoOperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Entity Class")
+    Class<?> entityClass;
+
+    @Label("Table")
+    String table;
+
+    @Label("Row Count")
+    long rowCount;
+
+    @Label("SQL Build Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long sqlBuildDuration;
+
+    @Label("Execute Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long executeDuration;
+
+    @Label("Map Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long mapDuration;
+}
@@ -0,0 +1,69 @@
+package com.software5000.base.jfr;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link DaoOperation} 的创建入口
+ * <p>
+ * JFR相关的类只在运行环境存在 <code>jdk.jfr.Event</code> 时才会通过反射加载，
+ * 在不支持JFR的Java 8上自动退化为空实现。
+ * 编译JFR相关的类需要 JDK 8u262+ 或 11+，更早的 JDK 8 使用 <code>mvn -Pno-jfr</code> 编译，此时同样退化为空实现。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public final class DaoOperations {
+
+    private static final Logger logger = LoggerFactory.getLogger(DaoOperations.class);
+
+    private static final JfrSupport JFR = loadJfr();
+
+    private DaoOperations() {
+    }
+
+    /**
+     * 开始一次操作的计时
+     *
+     * @param operation   操作名称，如 insertEntity
+     * @param entityClass 操作的实体类
+     * @return 操作计时，JFR未开启记录时返回空实现
+     */
+    public static DaoOperation begin(String operation, Class<?> entityClass) {
+        if (JFR == null || !JFR.isEnabled()) {
+            return DaoOperation.NOOP;
+        }
+        return JFR.begin(operation, entityClass);
+    }
+
+    /**
+     * 不直接引用JFR实现类，未编译JFR相关类或运行环境不支持时返回空
+     */
+    private static JfrSupport loadJfr() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            JfrSupport support = (JfrSupport) Class.forName("com.software5000.base.jfr.JfrDaoOperation$Support").newInstance();
+            // 触发事件类型的注册，确认当前环境可以正常使用
+            support.isEnabled();
+            return support;
+        } catch (Throwable t) {
+            logger.debug("jdk flight recorder is not available, BaseDao events disabled.");
+            return null;
+        }
+    }
+
+    /**
+     * JFR实现的入口，由 {@link JfrDaoOperation} 提供
+     */
+    interface JfrSupport {
+
+        /**
+         * @return 当前是否有录制开启了该事件
+         */
+        boolean isEnabled();
+
+        /**
+         * 开始一次操作的计时
+         */
+        DaoOperation begin(String operation, Class<?> entityClass);
+    }
+}
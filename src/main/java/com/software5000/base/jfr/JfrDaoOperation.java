@@ -0,0 +1,78 @@
+package com.software5000.base.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * 基于JFR事件的 {@link DaoOperation} 实现
+ *
+ * @author matuobasyouca@gmail.com
+ */
+class JfrDaoOperation implements DaoOperation {
+
+    private static final EventType EVENT_TYPE = EventType.getEventType(DaoOperationEvent.class);
+
+    private final DaoOperationEvent event;
+    private long phaseStart;
+
+    JfrDaoOperation(String operation, Class<?> entityClass) {
+        this.event = new DaoOperationEvent();
+        this.event.operation = operation;
+        this.event.entityClass = entityClass;
+        this.event.begin();
+        this.phaseStart = System.nanoTime();
+    }
+
+    /**
+     * @return 当前是否有录制开启了该事件
+     */
+    static boolean isEnabled() {
+        return EVENT_TYPE.isEnabled();
+    }
+
+    @Override
+    public void sqlBuilt(String table) {
+        long now = System.nanoTime();
+        event.table = table;
+        event.sqlBuildDuration = now - phaseStart;
+        phaseStart = now;
+    }
+
+    @Override
+    public void executed(long rowCount) {
+        long now = System.nanoTime();
+        event.rowCount = rowCount;
+        event.executeDuration = now - phaseStart;
+        phaseStart = now;
+    }
+
+    @Override
+    public void mapped() {
+        long now = System.nanoTime();
+        event.mapDuration = now - phaseStart;
+        phaseStart = now;
+    }
+
+    @Override
+    public void close() {
+        event.end();
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+    }
+
+    /**
+     * 供 {@link DaoOperations} 通过反射加载
+     */
+    static final class Support implements DaoOperations.JfrSupport {
+
+        @Override
+        public boolean isEnabled() {
+            return JfrDaoOperation.isEnabled();
+        }
+
+        @Override
+        public DaoOperation begin(String operation, Class<?> entityClass) {
+            return new JfrDaoOperation(operation, entityClass);
+        }
+    }
+}
@@ -3,10 +3,13 @@ package com.software5000.base.jsql;
 import com.software5000.util.BpMybatisException;
 import com.software5000.util.ClassUtil;
 import com.software5000.util.JsqlUtils;
+import com.software5000.util.SnowFlake;
 import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
 import net.sf.jsqlparser.expression.operators.relational.ItemsList;
 import net.sf.jsqlparser.schema.Column;
 
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -228,6 +231,32 @@ public class ConditionWrapper<T> {
         needCleanFields.add(fieldName);
         return this;
     }
+
+    /**
+     * 按时间范围过滤 snowflake 主键，时间条件会转换为主键的范围条件，
+     * 从而可以用主键（聚簇索引）的范围扫描代替在未建索引的时间字段上的全表扫描
+     * PS：只适用于由 {@link SnowFlake} 生成的主键，时间为id生成的时间，与数据中的时间字段可能有细微差别
+     *
+     * @param fieldName 主键字段名称
+     * @param from      开始时间（包含），为空时不限制
+     * @param to        结束时间（包含），为空时不限制
+     * @return 当前对象本身
+     */
+    public ConditionWrapper idBetweenTime(String fieldName, Date from, Date to) {
+        if (from == null && to == null) {
+            throw new BpMybatisException("the 'idBetweenTime' condition can't query with both null from and to");
+        }
+
+        Column column = new Column(JsqlUtils.transDbSchemesType(fieldName));
+        if (from != null) {
+            this.andExpressionList.append(JsqlUtils.greaterThanEquals(column, new LongValue(SnowFlake.minIdForTime(from.getTime()))));
+        }
+        if (to != null) {
+            this.andExpressionList.append(JsqlUtils.lessThanEquals(column, new LongValue(SnowFlake.maxIdForTime(to.getTime()))));
+        }
+        needCleanFields.add(fieldName);
+        return this;
+    }
     // endregion
 
 }
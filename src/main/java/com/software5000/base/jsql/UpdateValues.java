@@ -0,0 +1,58 @@
+package com.software5000.base.jsql;
+
+import com.software5000.util.JsqlUtils;
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.arithmetic.Addition;
+import net.sf.jsqlparser.expression.operators.arithmetic.Subtraction;
+import net.sf.jsqlparser.schema.Column;
+
+/**
+ * 更新值表达式，用于 <code>BaseDao.updateWhere</code>
+ * 在数据库中基于原值计算新值，如 <code>SET STOCK = STOCK - 1</code>，不需要先查询再更新
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public final class UpdateValues {
+
+    private UpdateValues() {
+    }
+
+    /**
+     * 原值增加
+     *
+     * @param fieldName 类属性名称
+     * @param delta     增加的值，可以为负数
+     * @return <code>col + delta</code>
+     */
+    public static Expression increment(String fieldName, Number delta) {
+        return arithmetic(new Addition(), fieldName, delta);
+    }
+
+    /**
+     * 原值减少
+     *
+     * @param fieldName 类属性名称
+     * @param delta     减少的值
+     * @return <code>col - delta</code>
+     */
+    public static Expression decrement(String fieldName, Number delta) {
+        return arithmetic(new Subtraction(), fieldName, delta);
+    }
+
+    /**
+     * 使用同一行中另一列的值
+     *
+     * @param fieldName 类属性名称
+     * @return 列
+     */
+    public static Expression column(String fieldName) {
+        return new Column(JsqlUtils.transDbSchemesType(fieldName));
+    }
+
+    private static Expression arithmetic(BinaryExpression expression, String fieldName, Number delta) {
+        expression.setLeftExpression(column(fieldName));
+        expression.setRightExpression(JsqlUtils.convertValueType(delta));
+        return expression;
+    }
+}
@@ -45,6 +45,12 @@ public class CommonInterceptor implements Interceptor {
 
     private static final ThreadLocal<Long> IGNORE_DATA = new ThreadLocal<Long>();
 
+    /**
+     * 自行写入新增/修改时间的语句，各数据库方言的 upsert 语法无法在这里解析
+     */
+    private static final Set<String> SELF_MANAGED_STATEMENTS = new HashSet<>(Arrays.asList(
+            "com.software5000.base.BaseDao.upsertEntities"));
+
     private Properties props = null;
 
     @Override
@@ -70,6 +76,9 @@ public class CommonInterceptor implements Interceptor {
         if (sqlCmdType != SqlCommandType.UPDATE && sqlCmdType != SqlCommandType.INSERT) {
             return invocation.proceed();
         }
+        if (SELF_MANAGED_STATEMENTS.contains(ms.getId())) {
+            return invocation.proceed();
+        }
 
         BoundSql boundSql = (BoundSql) metaObject.getValue("delegate.boundSql");
         Object parameterObject = boundSql.getParameterObject();
@@ -84,7 +93,7 @@ public class CommonInterceptor implements Interceptor {
             newSql = setTimeForInsert(originalSql);
         }
         //修改原始sql
-        if (newSql.length() > 0) {
+        if (newSql != null && newSql.length() > 0) {
             logger.debug("==> newSql after change create/update time : " + newSql);
             metaObject.setValue("delegate.boundSql.sql", newSql);
         }
@@ -93,38 +102,10 @@ public class CommonInterceptor implements Interceptor {
 
 
     private String setTimeForInsert(String sqls) {
-
-        int createTimeIndex = -1;
-        int updateTimeIndex = -1;
         try {
             Statement stmt = CCJSqlParserUtil.parse(sqls);
             Insert insert = (Insert) stmt;
-            List<Column> columns = insert.getColumns();
-            // 循环所有列，检查是否存在 createTime和updateTime两个字段，并且获取这两个字段的序号
-            for (int ci = 0; ci < columns.size(); ci++) {
-                if (CREATE_TIME_FIELD_NAME.equalsIgnoreCase(columns.get(ci).getColumnName())) {
-                    createTimeIndex = ci;
-                }
-                if (UPDATE_TIME_FIELD_NAME.equalsIgnoreCase(columns.get(ci).getColumnName())) {
-                    updateTimeIndex = ci;
-                }
-
-                if (createTimeIndex > -1 && updateTimeIndex > -1) {
-                    break;
-                }
-            }
-            ItemsList itemList = insert.getItemsList();
-
-            // 确认是处理单条数据还是数据列表
-            if (itemList instanceof ExpressionList) {
-                ((ExpressionList) itemList).getExpressions().set(createTimeIndex, new TimestampValue(String.valueOf(TIMESTAMP_FORMAT.format(new Date(System.currentTimeMillis())))));
-                ((ExpressionList) itemList).getExpressions().set(updateTimeIndex, new TimestampValue(String.valueOf(TIMESTAMP_FORMAT.format(new Date(System.currentTimeMillis())))));
-            } else if (itemList instanceof MultiExpressionList) {
-                for (ExpressionList el : ((MultiExpressionList) itemList).getExprList()) {
-                    el.getExpressions().set(createTimeIndex, new TimestampValue(String.valueOf(TIMESTAMP_FORMAT.format(new Date(System.currentTimeMillis())))));
-                    el.getExpressions().set(updateTimeIndex, new TimestampValue(String.valueOf(TIMESTAMP_FORMAT.format(new Date(System.currentTimeMillis())))));
-                }
-            }
+            setTimeForInsert(insert);
             return insert.toString();
         } catch (JSQLParserException e) {
             logger.error("set insert createTime/updateTime error!", e);
@@ -133,6 +114,51 @@ public class CommonInterceptor implements Interceptor {
         return null;
     }
 
+    /**
+     * 将插入语句中的 新增和修改时间 设置为当前时间，没有对应列时跳过
+     *
+     * @param insert 插入语句
+     */
+    public static void setTimeForInsert(Insert insert) {
+        int createTimeIndex = -1;
+        int updateTimeIndex = -1;
+        List<Column> columns = insert.getColumns();
+        // 循环所有列，检查是否存在 createTime和updateTime两个字段，并且获取这两个字段的序号
+        for (int ci = 0; ci < columns.size(); ci++) {
+            if (CREATE_TIME_FIELD_NAME.equalsIgnoreCase(columns.get(ci).getColumnName())) {
+                createTimeIndex = ci;
+            }
+            if (UPDATE_TIME_FIELD_NAME.equalsIgnoreCase(columns.get(ci).getColumnName())) {
+                updateTimeIndex = ci;
+            }
+
+            if (createTimeIndex > -1 && updateTimeIndex > -1) {
+                break;
+            }
+        }
+        ItemsList itemList = insert.getItemsList();
+        String now;
+        synchronized (TIMESTAMP_FORMAT) {
+            now = TIMESTAMP_FORMAT.format(new Date(System.currentTimeMillis()));
+        }
+
+        // 确认是处理单条数据还是数据列表
+        List<ExpressionList> rows = new ArrayList<>();
+        if (itemList instanceof ExpressionList) {
+            rows.add((ExpressionList) itemList);
+        } else if (itemList instanceof MultiExpressionList) {
+            rows.addAll(((MultiExpressionList) itemList).getExprList());
+        }
+        for (ExpressionList el : rows) {
+            if (createTimeIndex > -1) {
+                el.getExpressions().set(createTimeIndex, new TimestampValue(now));
+            }
+            if (updateTimeIndex > -1) {
+                el.getExpressions().set(updateTimeIndex, new TimestampValue(now));
+            }
+        }
+    }
+
     private String setTimeForUpdate(String sqls) {
         try {
             Statement parse = CCJSqlParserUtil.parse(sqls);
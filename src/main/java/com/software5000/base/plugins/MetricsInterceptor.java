@@ -0,0 +1,139 @@
+package com.software5000.base.plugins;
+
+import com.software5000.base.plugins.metrics.MetricsRegistry;
+import com.software5000.base.plugins.metrics.TableNameExtractor;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.*;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 语句执行指标统计
+ * 1. 按 MappedStatement id 统计耗时分布、执行次数、影响行数、返回行数、错误次数
+ * 2. 按表名统计同样的指标，表名从 <code>BaseDao</code> 生成的 baseSql 中提取，
+ * 因为所有的生成sql都走少数几个 <code>BaseDao.*</code> 语句，只按语句统计无法区分具体的表
+ * 3. 指标通过JMX发布，并可以按周期调用 {@link com.software5000.base.plugins.metrics.MetricsReporter} 上报
+ * <p>
+ * 可配置的属性：
+ * <ul>
+ * <li>jmxEnabled：是否注册MBean，默认 true</li>
+ * <li>jmxDomain：MBean的域名，默认 com.software5000.orm</li>
+ * <li>tableMetricsEnabled：是否按表统计，默认 true</li>
+ * <li>reportIntervalSeconds：上报周期，默认 0 不上报</li>
+ * <li>resetAfterReport：上报后是否清空统计，默认 false</li>
+ * </ul>
+ *
+ * @author matuobasyouca@gmail.com
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class})
+})
+public class MetricsInterceptor implements Interceptor {
+
+    public static final String BASE_SQL_PARAM_NAME = "baseSql";
+
+    /**
+     * 防止同一个语句在多层代理中被重复统计
+     */
+    private static final ThreadLocal<Boolean> IN_PROGRESS = new ThreadLocal<>();
+
+    private final MetricsRegistry registry;
+
+    private boolean tableMetricsEnabled = true;
+
+    public MetricsInterceptor() {
+        this(new MetricsRegistry());
+    }
+
+    public MetricsInterceptor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        if (IN_PROGRESS.get() != null) {
+            return invocation.proceed();
+        }
+
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        Object parameter = invocation.getArgs()[1];
+        boolean isQuery = "query".equals(invocation.getMethod().getName());
+
+        IN_PROGRESS.set(Boolean.TRUE);
+        long start = System.nanoTime();
+        Object result = null;
+        boolean error = false;
+        try {
+            result = invocation.proceed();
+            return result;
+        } catch (Throwable t) {
+            error = true;
+            throw t;
+        } finally {
+            IN_PROGRESS.remove();
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            long affected = !isQuery && result instanceof Integer ? (Integer) result : 0;
+            long fetched = isQuery && result instanceof List ? ((List) result).size() : 0;
+
+            registry.statement(ms.getId()).record(micros, affected, fetched, error);
+            if (tableMetricsEnabled) {
+                String table = TableNameExtractor.extract(getBaseSql(parameter));
+                if (table != null) {
+                    registry.table(table).record(micros, affected, fetched, error);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取 <code>BaseDao</code> 生成的sql，其余语句返回null
+     *
+     * @param parameter 语句参数
+     * @return 生成的sql
+     */
+    static String getBaseSql(Object parameter) {
+        if (parameter instanceof Map && ((Map) parameter).containsKey(BASE_SQL_PARAM_NAME)) {
+            Object baseSql = ((Map) parameter).get(BASE_SQL_PARAM_NAME);
+            return baseSql instanceof String ? (String) baseSql : null;
+        }
+        return null;
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        if (target instanceof Executor) {
+            return Plugin.wrap(target, this);
+        } else {
+            return target;
+        }
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+        if (null == properties || properties.isEmpty()) {
+            return;
+        }
+        registry.setJmxEnabled(Boolean.parseBoolean(properties.getProperty("jmxEnabled", "true")));
+        registry.setJmxDomain(properties.getProperty("jmxDomain", MetricsRegistry.DEFAULT_JMX_DOMAIN));
+        registry.setResetAfterReport(Boolean.parseBoolean(properties.getProperty("resetAfterReport", "false")));
+        tableMetricsEnabled = Boolean.parseBoolean(properties.getProperty("tableMetricsEnabled", "true"));
+
+        registry.loadReporters();
+        registry.startReporting(Long.parseLong(properties.getProperty("reportIntervalSeconds", "0")));
+    }
+
+}
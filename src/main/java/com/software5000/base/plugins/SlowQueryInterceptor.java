@@ -0,0 +1,102 @@
+package com.software5000.base.plugins;
+
+import com.software5000.base.plugins.slowlog.SlowQueryLog;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.*;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 慢查询日志
+ * 在语句真正执行时计时，超过阈值的语句输出归一化后的指纹以及原始sql，
+ * 同时按采样率统计各个指纹的总耗时，用于找出哪些 <code>selectEntities</code> 的查询形态需要加索引
+ * <p>
+ * 可配置的属性：
+ * <ul>
+ * <li>slowThresholdMillis：慢查询阈值，默认 1000</li>
+ * <li>sampleRate：排行统计的采样率，默认 0.1</li>
+ * <li>maxFingerprints：排行保留的最大指纹数，默认 1000</li>
+ * <li>topLogIntervalSeconds：排行输出到日志的周期，默认 0 不输出</li>
+ * <li>topN：每次输出的排行数量，默认 20</li>
+ * </ul>
+ *
+ * @author matuobasyouca@gmail.com
+ */
+@Intercepts({
+        @Signature(type = StatementHandler.class, method = "query", args = {Statement.class, ResultHandler.class}),
+        @Signature(type = StatementHandler.class, method = "queryCursor", args = {Statement.class}),
+        @Signature(type = StatementHandler.class, method = "update", args = {Statement.class}),
+        @Signature(type = StatementHandler.class, method = "batch", args = {Statement.class})
+})
+public class SlowQueryInterceptor implements Interceptor {
+
+    private final SlowQueryLog slowQueryLog;
+
+    private ScheduledExecutorService topLogExecutor;
+
+    public SlowQueryInterceptor() {
+        this(new SlowQueryLog());
+    }
+
+    public SlowQueryInterceptor(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            StatementHandler handler = (StatementHandler) PluginUtil.processTarget(invocation.getTarget());
+            MetaObject metaObject = SystemMetaObject.forObject(handler);
+            String statementId = metaObject.hasGetter("delegate.mappedStatement")
+                    ? ((MappedStatement) metaObject.getValue("delegate.mappedStatement")).getId() : null;
+            slowQueryLog.record(statementId, handler.getBoundSql().getSql(), micros);
+        }
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        if (target instanceof StatementHandler) {
+            return Plugin.wrap(target, this);
+        } else {
+            return target;
+        }
+    }
+
+    @Override
+    public synchronized void setProperties(Properties properties) {
+        if (null == properties || properties.isEmpty()) {
+            return;
+        }
+        slowQueryLog.setSlowThresholdMillis(Long.parseLong(properties.getProperty("slowThresholdMillis", "1000")));
+        slowQueryLog.setSampleRate(Double.parseDouble(properties.getProperty("sampleRate", "0.1")));
+        slowQueryLog.setMaxFingerprints(Integer.parseInt(properties.getProperty("maxFingerprints", "1000")));
+
+        long interval = Long.parseLong(properties.getProperty("topLogIntervalSeconds", "0"));
+        int topN = Integer.parseInt(properties.getProperty("topN", "20"));
+        if (interval > 0 && topLogExecutor == null) {
+            topLogExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "simple-orm-slow-query-top");
+                thread.setDaemon(true);
+                return thread;
+            });
+            topLogExecutor.scheduleAtFixedRate(() -> slowQueryLog.logTop(topN), interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+}
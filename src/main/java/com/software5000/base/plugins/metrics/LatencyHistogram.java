@@ -0,0 +1,161 @@
+package com.software5000.base.plugins.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的耗时直方图，参考 HdrHistogram 的对数-线性分桶方式
+ * <p>
+ * 每个2的幂次区间再线性拆分为16个子桶，相对误差约为3%，记录时只有一次数组原子自增，
+ * 不需要加锁，可以在高并发的拦截器中直接使用。记录单位为微秒。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class LatencyHistogram {
+
+    /**
+     * 子桶的位数，32个子桶，小于32的值精确记录
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    /**
+     * 可以区分的最大值的位数，2^36微秒约为19小时，超过的值统一记入最后一个桶
+     */
+    private static final int MAX_VALUE_BITS = 36;
+    private static final long MAX_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+    private final LongAccumulator maxValue = new LongAccumulator(Long::max, 0L);
+
+    /**
+     * 记录一个耗时值
+     *
+     * @param micros 耗时，单位微秒
+     */
+    public void recordValue(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts.incrementAndGet(bucketIndex(Math.min(micros, MAX_TRACKABLE_VALUE)));
+        totalCount.increment();
+        totalValue.add(micros);
+        maxValue.accumulate(micros);
+    }
+
+    /**
+     * @return 记录总次数
+     */
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * @return 所有记录值的总和，单位微秒
+     */
+    public long getTotalValue() {
+        return totalValue.sum();
+    }
+
+    /**
+     * @return 最大记录值，单位微秒
+     */
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    /**
+     * @return 平均值，单位微秒
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalValue.sum() / count;
+    }
+
+    /**
+     * 获取指定百分位的值，返回的是所在桶的上界，与 HdrHistogram 的 highestEquivalentValue 一致
+     *
+     * @param percentile 百分位，如 99.9
+     * @return 对应的耗时，单位微秒
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            accumulated += snapshot[i];
+            if (accumulated >= target) {
+                return Math.min(highestEquivalentValue(i), getMaxValue());
+            }
+        }
+        return getMaxValue();
+    }
+
+    /**
+     * 清空全部记录，用于按周期上报的场景
+     * PS：与并发的记录操作之间不保证原子性，可能会有极少量的记录被计入下一个周期
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalValue.reset();
+        maxValue.reset();
+    }
+
+    /**
+     * 计算值所在的桶序号
+     *
+     * @param value 记录值
+     * @return 桶序号
+     */
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> exponent);
+        return SUB_BUCKET_COUNT + (exponent - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * 计算桶的下界
+     *
+     * @param index 桶序号
+     * @return 桶内的最小值
+     */
+    private static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int exponent = offset / SUB_BUCKET_HALF + 1;
+        long subBucket = offset % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return subBucket << exponent;
+    }
+
+    /**
+     * 计算桶的上界
+     *
+     * @param index 桶序号
+     * @return 桶内的最大值
+     */
+    private static long highestEquivalentValue(int index) {
+        return lowestEquivalentValue(index + 1) - 1;
+    }
+}
@@ -0,0 +1,195 @@
+package com.software5000.base.plugins.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 指标的注册中心
+ * 1. 按 MappedStatement id 以及表名分别保存指标
+ * 2. 新指标创建时自动注册为JMX MBean
+ * 3. 按周期调用已注册的上报器
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class MetricsRegistry {
+
+    public static final String DEFAULT_JMX_DOMAIN = "com.software5000.orm";
+
+    private Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    private final Map<String, StatementMetrics> statementMetrics = new ConcurrentHashMap<>();
+    private final Map<String, StatementMetrics> tableMetrics = new ConcurrentHashMap<>();
+    private final List<MetricsReporter> reporters = new CopyOnWriteArrayList<>();
+    /**
+     * 本注册中心注册的MBean，关闭时只注销这些，不影响同一域下其他注册中心的MBean
+     */
+    private final Set<ObjectName> registeredNames = ConcurrentHashMap.newKeySet();
+
+    private volatile String jmxDomain = DEFAULT_JMX_DOMAIN;
+    private volatile boolean jmxEnabled = true;
+    private volatile boolean resetAfterReport = false;
+    private ScheduledExecutorService reportExecutor;
+
+    /**
+     * 获取语句对应的指标，不存在时创建
+     *
+     * @param statementId MappedStatement id
+     * @return 对应指标
+     */
+    public StatementMetrics statement(String statementId) {
+        StatementMetrics metrics = statementMetrics.get(statementId);
+        return metrics != null ? metrics : statementMetrics.computeIfAbsent(statementId, k -> register("StatementMetrics", k));
+    }
+
+    /**
+     * 获取表对应的指标，不存在时创建
+     *
+     * @param tableName 表名
+     * @return 对应指标
+     */
+    public StatementMetrics table(String tableName) {
+        StatementMetrics metrics = tableMetrics.get(tableName);
+        return metrics != null ? metrics : tableMetrics.computeIfAbsent(tableName, k -> register("TableMetrics", k));
+    }
+
+    /**
+     * 新建指标，并按配置注册为MBean
+     * 同名MBean已被其他注册中心注册时不覆盖，只记录警告，多个注册中心需要各自设置 jmxDomain
+     */
+    private StatementMetrics register(String type, String name) {
+        StatementMetrics metrics = new StatementMetrics(name);
+        if (jmxEnabled) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName(jmxDomain + ":type=" + type + ",name=" + ObjectName.quote(name));
+                server.registerMBean(metrics, objectName);
+                registeredNames.add(objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                logger.warn("metrics mbean already registered, use another jmxDomain, name : [" + name + "] ");
+            } catch (Exception e) {
+                logger.warn("register metrics mbean error, name : [" + name + "] ", e);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * 注销本注册中心注册的MBean，并停止上报
+     */
+    public synchronized void close() {
+        if (reportExecutor != null) {
+            reportExecutor.shutdownNow();
+            reportExecutor = null;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredNames) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception e) {
+                logger.warn("unregister metrics mbean error, name : [" + name + "] ", e);
+            }
+            registeredNames.remove(name);
+        }
+    }
+
+    // region 上报
+
+    /**
+     * 注册上报器
+     *
+     * @param reporter 上报器
+     */
+    public void addReporter(MetricsReporter reporter) {
+        reporters.add(reporter);
+    }
+
+    /**
+     * 通过 {@link ServiceLoader} 加载上报器
+     */
+    public void loadReporters() {
+        for (MetricsReporter reporter : ServiceLoader.load(MetricsReporter.class)) {
+            addReporter(reporter);
+        }
+    }
+
+    /**
+     * 开启周期上报，没有注册上报器时默认输出到日志
+     *
+     * @param intervalSeconds 上报周期，单位秒
+     */
+    public synchronized void startReporting(long intervalSeconds) {
+        if (intervalSeconds <= 0 || reportExecutor != null) {
+            return;
+        }
+        if (reporters.isEmpty()) {
+            addReporter(new Slf4jMetricsReporter());
+        }
+        reportExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "simple-orm-metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reportExecutor.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 立即执行一次上报
+     */
+    public void report() {
+        List<MetricsSnapshot> statements = snapshot(statementMetrics.values());
+        List<MetricsSnapshot> tables = snapshot(tableMetrics.values());
+        for (MetricsReporter reporter : reporters) {
+            try {
+                reporter.report(statements, tables);
+            } catch (Exception e) {
+                logger.error("metrics reporter error, reporter : [" + reporter.getClass().getName() + "] ", e);
+            }
+        }
+        if (resetAfterReport) {
+            statementMetrics.values().forEach(StatementMetrics::reset);
+            tableMetrics.values().forEach(StatementMetrics::reset);
+        }
+    }
+
+    private List<MetricsSnapshot> snapshot(Collection<StatementMetrics> metrics) {
+        return metrics.stream().map(StatementMetrics::snapshot).collect(Collectors.toList());
+    }
+
+    // endregion
+
+    public Map<String, StatementMetrics> getStatementMetrics() {
+        return statementMetrics;
+    }
+
+    public Map<String, StatementMetrics> getTableMetrics() {
+        return tableMetrics;
+    }
+
+    public void setJmxDomain(String jmxDomain) {
+        this.jmxDomain = jmxDomain;
+    }
+
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    public void setResetAfterReport(boolean resetAfterReport) {
+        this.resetAfterReport = resetAfterReport;
+    }
+}
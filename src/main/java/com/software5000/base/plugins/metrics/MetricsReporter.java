@@ -0,0 +1,22 @@
+package com.software5000.base.plugins.metrics;
+
+import java.util.Collection;
+
+/**
+ * 指标上报的扩展接口
+ * <p>
+ * 可以通过 {@link MetricsRegistry#addReporter(MetricsReporter)} 手动注册，
+ * 也可以通过 <code>META-INF/services/com.software5000.base.plugins.metrics.MetricsReporter</code> 自动加载
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public interface MetricsReporter {
+
+    /**
+     * 周期性上报当前的指标
+     *
+     * @param statements 按 MappedStatement id 统计的指标
+     * @param tables     按表名统计的指标
+     */
+    void report(Collection<MetricsSnapshot> statements, Collection<MetricsSnapshot> tables);
+}
@@ -0,0 +1,87 @@
+package com.software5000.base.plugins.metrics;
+
+/**
+ * 指标快照，用于提供给上报器，创建后不再变化
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class MetricsSnapshot {
+
+    private final String name;
+    private final long count;
+    private final long errorCount;
+    private final long rowsAffected;
+    private final long rowsFetched;
+    private final double meanMicros;
+    private final long maxMicros;
+    private final long p50Micros;
+    private final long p95Micros;
+    private final long p99Micros;
+    private final long p999Micros;
+
+    public MetricsSnapshot(String name, long count, long errorCount, long rowsAffected, long rowsFetched,
+                           double meanMicros, long maxMicros, long p50Micros, long p95Micros, long p99Micros, long p999Micros) {
+        this.name = name;
+        this.count = count;
+        this.errorCount = errorCount;
+        this.rowsAffected = rowsAffected;
+        this.rowsFetched = rowsFetched;
+        this.meanMicros = meanMicros;
+        this.maxMicros = maxMicros;
+        this.p50Micros = p50Micros;
+        this.p95Micros = p95Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public long getRowsAffected() {
+        return rowsAffected;
+    }
+
+    public long getRowsFetched() {
+        return rowsFetched;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP95Micros() {
+        return p95Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getP999Micros() {
+        return p999Micros;
+    }
+
+    @Override
+    public String toString() {
+        return name + " count=" + count + " errors=" + errorCount + " affected=" + rowsAffected + " fetched=" + rowsFetched
+                + " mean=" + String.format("%.1f", meanMicros) + "us max=" + maxMicros + "us p50=" + p50Micros
+                + "us p95=" + p95Micros + "us p99=" + p99Micros + "us p999=" + p999Micros + "us";
+    }
+}
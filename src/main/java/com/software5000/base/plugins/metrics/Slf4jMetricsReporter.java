@@ -0,0 +1,25 @@
+package com.software5000.base.plugins.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+
+/**
+ * 默认的上报实现，直接输出到日志
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class Slf4jMetricsReporter implements MetricsReporter {
+
+    private Logger logger = LoggerFactory.getLogger(Slf4jMetricsReporter.class);
+
+    @Override
+    public void report(Collection<MetricsSnapshot> statements, Collection<MetricsSnapshot> tables) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        statements.stream().filter(s -> s.getCount() > 0).forEach(s -> logger.info("==> statement metrics: " + s));
+        tables.stream().filter(s -> s.getCount() > 0).forEach(s -> logger.info("==> table metrics: " + s));
+    }
+}
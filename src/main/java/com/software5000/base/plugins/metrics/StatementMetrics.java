@@ -0,0 +1,118 @@
+package com.software5000.base.plugins.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个语句或单张表的执行指标，所有计数均为无锁实现
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class StatementMetrics implements StatementMetricsMXBean {
+
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder rowsAffected = new LongAdder();
+    private final LongAdder rowsFetched = new LongAdder();
+
+    public StatementMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 记录一次执行
+     *
+     * @param micros   耗时，单位微秒
+     * @param affected 影响行数
+     * @param fetched  返回行数
+     * @param error    是否出错
+     */
+    public void record(long micros, long affected, long fetched, boolean error) {
+        histogram.recordValue(micros);
+        if (affected > 0) {
+            rowsAffected.add(affected);
+        }
+        if (fetched > 0) {
+            rowsFetched.add(fetched);
+        }
+        if (error) {
+            errorCount.increment();
+        }
+    }
+
+    /**
+     * 获取当前指标的快照
+     *
+     * @return 指标快照
+     */
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(name, getCount(), getErrorCount(), getRowsAffected(), getRowsFetched(),
+                getMeanMicros(), getMaxMicros(), getP50Micros(), getP95Micros(), getP99Micros(), getP999Micros());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getTotalCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    @Override
+    public long getRowsAffected() {
+        return rowsAffected.sum();
+    }
+
+    @Override
+    public long getRowsFetched() {
+        return rowsFetched.sum();
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return histogram.getMean();
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return histogram.getMaxValue();
+    }
+
+    @Override
+    public long getP50Micros() {
+        return histogram.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getP95Micros() {
+        return histogram.getValueAtPercentile(95);
+    }
+
+    @Override
+    public long getP99Micros() {
+        return histogram.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getP999Micros() {
+        return histogram.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public void reset() {
+        histogram.reset();
+        errorCount.reset();
+        rowsAffected.reset();
+        rowsFetched.reset();
+    }
+}
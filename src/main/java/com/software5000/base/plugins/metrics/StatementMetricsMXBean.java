@@ -0,0 +1,64 @@
+package com.software5000.base.plugins.metrics;
+
+/**
+ * 单个语句或单张表的执行指标，通过JMX对外发布
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public interface StatementMetricsMXBean {
+
+    /**
+     * @return 执行次数
+     */
+    long getCount();
+
+    /**
+     * @return 执行出错次数
+     */
+    long getErrorCount();
+
+    /**
+     * @return insert/update/delete 的影响行数合计
+     */
+    long getRowsAffected();
+
+    /**
+     * @return select 的返回行数合计
+     */
+    long getRowsFetched();
+
+    /**
+     * @return 平均耗时，单位微秒
+     */
+    double getMeanMicros();
+
+    /**
+     * @return 最大耗时，单位微秒
+     */
+    long getMaxMicros();
+
+    /**
+     * @return p50耗时，单位微秒
+     */
+    long getP50Micros();
+
+    /**
+     * @return p95耗时，单位微秒
+     */
+    long getP95Micros();
+
+    /**
+     * @return p99耗时，单位微秒
+     */
+    long getP99Micros();
+
+    /**
+     * @return p99.9耗时，单位微秒
+     */
+    long getP999Micros();
+
+    /**
+     * 清空当前的统计数据
+     */
+    void reset();
+}
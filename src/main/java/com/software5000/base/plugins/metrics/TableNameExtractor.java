@@ -0,0 +1,140 @@
+package com.software5000.base.plugins.metrics;
+
+import com.software5000.util.JsqlUtils;
+
+/**
+ * 从生成的sql中快速提取主表名
+ * <p>
+ * 只做简单的词法扫描，不做完整的语法解析，适用于 <code>BaseDao</code> 生成的单表语句，
+ * 对于复杂的多表语句只返回第一个出现的主表。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public final class TableNameExtractor {
+
+    private TableNameExtractor() {
+    }
+
+    /**
+     * 提取sql中的主表名
+     *
+     * @param sql 待处理的sql
+     * @return 主表名，无法识别时返回null
+     */
+    public static String extract(String sql) {
+        if (sql == null) {
+            return null;
+        }
+        int[] pos = {0};
+        String first = nextToken(sql, pos);
+        if (first == null) {
+            return null;
+        }
+
+        switch (first.toUpperCase()) {
+            case "INSERT":
+            case "REPLACE":
+            case "MERGE":
+                return skipUntilAndRead(sql, pos, "INTO");
+            case "UPDATE":
+                return readTableName(nextToken(sql, pos));
+            case "DELETE":
+                return skipUntilAndRead(sql, pos, "FROM");
+            case "SELECT":
+            case "WITH":
+                return skipUntilAndRead(sql, pos, "FROM");
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 跳过直到指定关键字的全部内容，返回关键字后面的表名
+     * 优先返回最外层（不在括号内）的表名，找不到时返回子查询中第一个出现的表名
+     */
+    private static String skipUntilAndRead(String sql, int[] pos, String keyword) {
+        String token;
+        String nestedCandidate = null;
+        int depth = 0;
+        while ((token = nextToken(sql, pos)) != null) {
+            if ("(".equals(token)) {
+                depth++;
+            } else if (")".equals(token)) {
+                depth--;
+            } else if (keyword.equalsIgnoreCase(token)) {
+                String table = nextToken(sql, pos);
+                if (table == null) {
+                    break;
+                }
+                // 类似 FROM (子查询) 的场景，继续向后查找
+                if ("(".equals(table)) {
+                    depth++;
+                    continue;
+                }
+                if (depth <= 0) {
+                    return readTableName(table);
+                }
+                if (nestedCandidate == null) {
+                    nestedCandidate = readTableName(table);
+                }
+            }
+        }
+        return nestedCandidate;
+    }
+
+    /**
+     * 去除表名中的引号
+     */
+    private static String readTableName(String token) {
+        if (token == null) {
+            return null;
+        }
+        String name = token.replace("`", "").replace("\"", "").replace("[", "").replace("]", "");
+        return name.isEmpty() ? null : name;
+    }
+
+    /**
+     * 读取下一个词，跳过字符串字面量和注释，括号单独作为一个词返回
+     */
+    private static String nextToken(String sql, int[] pos) {
+        int i = pos[0];
+        int length = sql.length();
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c) || c == ',' || c == ';') {
+                i++;
+            } else if (c == '\'') {
+                i = JsqlUtils.skipQuoted(sql, i);
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else {
+                break;
+            }
+        }
+        if (i >= length) {
+            pos[0] = length;
+            return null;
+        }
+
+        char c = sql.charAt(i);
+        if (c == '(' || c == ')') {
+            pos[0] = i + 1;
+            return String.valueOf(c);
+        }
+
+        int start = i;
+        while (i < length) {
+            c = sql.charAt(i);
+            if (Character.isWhitespace(c) || c == '(' || c == ')' || c == ',' || c == ';' || c == '\'') {
+                break;
+            }
+            i++;
+        }
+        pos[0] = i;
+        return sql.substring(start, i);
+    }
+}
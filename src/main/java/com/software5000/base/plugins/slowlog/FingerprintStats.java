@@ -0,0 +1,83 @@
+package com.software5000.base.plugins.slowlog;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个sql指纹的累计耗时统计
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class FingerprintStats {
+
+    private final String fingerprint;
+    private final String id;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Long::max, 0L);
+
+    /**
+     * 最近一条原始sql，用于定位问题时直接拿到可执行的语句
+     */
+    private volatile String sampleSql;
+
+    public FingerprintStats(String fingerprint) {
+        this.fingerprint = fingerprint;
+        this.id = SqlFingerprint.id(fingerprint);
+    }
+
+    /**
+     * 记录一次执行
+     *
+     * @param micros    耗时，单位微秒
+     * @param weight    采样权重，采样率为 r 时为 1/r
+     * @param sampleSql 原始sql
+     */
+    public void record(long micros, long weight, String sampleSql) {
+        count.add(weight);
+        totalMicros.add(micros * weight);
+        maxMicros.accumulate(micros);
+        this.sampleSql = sampleSql;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return 按采样率还原后的执行次数估计值
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return 按采样率还原后的总耗时估计值，单位微秒
+     */
+    public long getTotalMicros() {
+        return totalMicros.sum();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    public double getMeanMicros() {
+        long c = getCount();
+        return c == 0 ? 0 : (double) getTotalMicros() / c;
+    }
+
+    public String getSampleSql() {
+        return sampleSql;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + id + "] total=" + getTotalMicros() / 1000 + "ms count=" + getCount()
+                + " mean=" + String.format("%.1f", getMeanMicros() / 1000) + "ms max=" + getMaxMicros() / 1000 + "ms : " + fingerprint;
+    }
+}
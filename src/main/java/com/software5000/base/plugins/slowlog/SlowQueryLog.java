@@ -0,0 +1,152 @@
+package com.software5000.base.plugins.slowlog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * 慢查询日志以及按指纹的耗时排行
+ * 1. 超过阈值的语句一定会计算指纹并输出到日志（日志名称为 <code>simple-orm.slow-query</code>）
+ * 2. 未超过阈值的语句按采样率计算指纹，计入排行时按采样率放大，避免每条语句都做归一化
+ * 3. 排行只保留有限数量的指纹，超过时淘汰总耗时最少的指纹
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class SlowQueryLog {
+
+    private Logger logger = LoggerFactory.getLogger("simple-orm.slow-query");
+
+    /**
+     * 原始sql在日志中的最大长度，防止超长的批量插入刷屏
+     */
+    private static final int MAX_LOGGED_SQL_LENGTH = 2048;
+
+    private final Map<String, FingerprintStats> stats = new ConcurrentHashMap<>();
+
+    private volatile long slowThresholdMicros = 1000_000L;
+    private volatile double sampleRate = 0.1;
+    private volatile int maxFingerprints = 1000;
+
+    /**
+     * 记录一次语句执行
+     *
+     * @param statementId MappedStatement id
+     * @param sql         实际执行的sql
+     * @param micros      耗时，单位微秒
+     */
+    public void record(String statementId, String sql, long micros) {
+        boolean slow = micros >= slowThresholdMicros;
+        double rate = sampleRate;
+        boolean sampled = rate >= 1.0 || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+        if (!slow && !sampled) {
+            return;
+        }
+
+        String fingerprint = SqlFingerprint.of(sql);
+        if (fingerprint == null) {
+            return;
+        }
+        if (sampled) {
+            long weight = rate >= 1.0 ? 1 : Math.max(1, Math.round(1 / rate));
+            FingerprintStats fingerprintStats = stats.get(fingerprint);
+            if (fingerprintStats == null) {
+                fingerprintStats = stats.computeIfAbsent(fingerprint, FingerprintStats::new);
+                if (stats.size() > maxFingerprints * 2) {
+                    evict();
+                }
+            }
+            fingerprintStats.record(micros, weight, sql);
+        }
+        if (slow && logger.isWarnEnabled()) {
+            logger.warn("==> slow query [" + SqlFingerprint.id(fingerprint) + "] " + micros / 1000 + "ms statement : ["
+                    + statementId + "] fingerprint : [" + fingerprint + "] sql : [" + abbreviate(sql) + "]");
+        }
+    }
+
+    /**
+     * 获取总耗时最多的前n个指纹
+     *
+     * @param n 数量
+     * @return 按总耗时倒序的指纹统计
+     */
+    public List<FingerprintStats> top(int n) {
+        return stats.values().stream()
+                .sorted(Comparator.comparingLong(FingerprintStats::getTotalMicros).reversed())
+                .limit(n)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 输出排行到日志
+     *
+     * @param n 数量
+     */
+    public void logTop(int n) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        List<FingerprintStats> top = top(n);
+        for (int i = 0; i < top.size(); i++) {
+            logger.info("==> top sql #" + (i + 1) + " " + top.get(i));
+        }
+    }
+
+    /**
+     * 清空排行
+     */
+    public void reset() {
+        stats.clear();
+    }
+
+    /**
+     * 淘汰总耗时最少的指纹，只保留 maxFingerprints 个
+     */
+    private synchronized void evict() {
+        if (stats.size() <= maxFingerprints) {
+            return;
+        }
+        stats.values().stream()
+                .sorted(Comparator.comparingLong(FingerprintStats::getTotalMicros))
+                .limit(stats.size() - maxFingerprints)
+                .map(FingerprintStats::getFingerprint)
+                .collect(Collectors.toList())
+                .forEach(stats::remove);
+    }
+
+    private static String abbreviate(String sql) {
+        return sql.length() <= MAX_LOGGED_SQL_LENGTH ? sql : sql.substring(0, MAX_LOGGED_SQL_LENGTH) + "...(" + sql.length() + " chars)";
+    }
+
+    public long getSlowThresholdMillis() {
+        return slowThresholdMicros / 1000;
+    }
+
+    public void setSlowThresholdMillis(long slowThresholdMillis) {
+        this.slowThresholdMicros = slowThresholdMillis * 1000;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate 采样率，0 ~ 1 之间，0表示只记录慢查询不做排行
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+    }
+
+    public int getMaxFingerprints() {
+        return maxFingerprints;
+    }
+
+    public void setMaxFingerprints(int maxFingerprints) {
+        this.maxFingerprints = maxFingerprints;
+    }
+}
@@ -0,0 +1,240 @@
+package com.software5000.base.plugins.slowlog;
+
+import com.software5000.util.JsqlUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * sql指纹，用于把只有字面量不同的语句归为同一类
+ * <p>
+ * <code>BaseDao</code> 生成的sql会把参数值直接拼进语句中，日志和数据库侧的工具都无法对相似的语句做归并，
+ * 这里把语句归一化：
+ * <ul>
+ * <li>字符串、数字、时间字面量以及 NULL/TRUE/FALSE 替换为 <code>?</code></li>
+ * <li>只包含 <code>?</code> 的括号列表折叠为 <code>(?+)</code>，如 IN 列表、VALUES 行</li>
+ * <li>连续的多行 VALUES 折叠为一行</li>
+ * <li>去除注释，空白统一为单个空格，关键字和标识符统一小写</li>
+ * </ul>
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public final class SqlFingerprint {
+
+    private static final String PLACEHOLDER = "?";
+    private static final String COLLAPSED_LIST = "(?+)";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SqlFingerprint() {
+    }
+
+    /**
+     * 计算sql的指纹
+     *
+     * @param sql 原始sql
+     * @return 归一化后的sql
+     */
+    public static String of(String sql) {
+        if (sql == null) {
+            return null;
+        }
+        List<String> tokens = collapseLists(tokenize(sql));
+
+        StringBuilder result = new StringBuilder(sql.length());
+        String previous = null;
+        for (String token : tokens) {
+            boolean noSpace = previous == null || "(".equals(previous) || ".".equals(previous)
+                    || ",".equals(token) || ")".equals(token) || ".".equals(token);
+            if (!noSpace) {
+                result.append(' ');
+            }
+            result.append(token);
+            previous = token;
+        }
+        return result.toString();
+    }
+
+    /**
+     * 计算指纹的短标识，用于日志中的检索
+     *
+     * @param fingerprint 指纹
+     * @return 16位十六进制的哈希值
+     */
+    public static String id(String fingerprint) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < fingerprint.length(); i++) {
+            hash ^= fingerprint.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return String.format("%016x", hash);
+    }
+
+    /**
+     * 拆分为词，同时完成字面量替换
+     */
+    private static List<String> tokenize(String sql) {
+        List<String> tokens = new ArrayList<>();
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '\'') {
+                i = JsqlUtils.skipQuoted(sql, i);
+                tokens.add(PLACEHOLDER);
+            } else if (c == '{') {
+                // JDBC转义的时间字面量，如 {ts '2019-01-01 00:00:00'}
+                int end = sql.indexOf('}', i);
+                i = end < 0 ? length : end + 1;
+                tokens.add(PLACEHOLDER);
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(sql.charAt(i + 1)))) {
+                i = skipNumber(sql, i);
+                // 负数的符号一并视为字面量
+                if (isNegativeSign(tokens)) {
+                    tokens.remove(tokens.size() - 1);
+                }
+                tokens.add(PLACEHOLDER);
+            } else if (Character.isLetter(c) || c == '_' || c == '$') {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) {
+                    i++;
+                }
+                String word = sql.substring(start, i).toLowerCase();
+                tokens.add(isKeywordLiteral(word, tokens) ? PLACEHOLDER : word);
+            } else if (c == '`' || c == '"') {
+                int end = sql.indexOf(c, i + 1);
+                end = end < 0 ? length : end + 1;
+                tokens.add(sql.substring(i, end).toLowerCase());
+                i = end;
+            } else {
+                // 操作符，尽量把 >= <= <> != 这类合并为一个词
+                int start = i++;
+                if (i < length && "<>=!".indexOf(c) > -1 && "<>=".indexOf(sql.charAt(i)) > -1) {
+                    i++;
+                }
+                tokens.add(sql.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 折叠只包含占位符的括号列表，以及连续的多行值
+     */
+    private static List<String> collapseLists(List<String> tokens) {
+        List<String> result = new ArrayList<>(tokens.size());
+        int i = 0;
+        while (i < tokens.size()) {
+            int end = placeholderListEnd(tokens, i);
+            if (end < 0) {
+                result.add(tokens.get(i));
+                i++;
+                continue;
+            }
+
+            // 连续的 (?+), (?+) 只保留一个
+            int size = result.size();
+            boolean repeated = size >= 2 && ",".equals(result.get(size - 1)) && COLLAPSED_LIST.equals(result.get(size - 2));
+            if (repeated) {
+                result.remove(size - 1);
+            } else {
+                result.add(COLLAPSED_LIST);
+            }
+            i = end + 1;
+        }
+        return result;
+    }
+
+    /**
+     * 如果从start开始是一个只包含占位符的括号列表，返回右括号的位置，否则返回-1
+     */
+    private static int placeholderListEnd(List<String> tokens, int start) {
+        if (!"(".equals(tokens.get(start))) {
+            return -1;
+        }
+        boolean expectPlaceholder = true;
+        for (int i = start + 1; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (expectPlaceholder) {
+                if (!PLACEHOLDER.equals(token)) {
+                    return -1;
+                }
+            } else if (")".equals(token)) {
+                return i;
+            } else if (!",".equals(token)) {
+                return -1;
+            }
+            expectPlaceholder = !expectPlaceholder;
+        }
+        return -1;
+    }
+
+    /**
+     * NULL/TRUE/FALSE 作为值时视为字面量，但是 IS NULL/IS NOT NULL 需要保留
+     */
+    private static boolean isKeywordLiteral(String word, List<String> tokens) {
+        if ("true".equals(word) || "false".equals(word)) {
+            return true;
+        }
+        if (!"null".equals(word)) {
+            return false;
+        }
+        String previous = tokens.isEmpty() ? null : tokens.get(tokens.size() - 1);
+        return !"is".equals(previous) && !"not".equals(previous);
+    }
+
+    /**
+     * 前一个词是减号，且减号前面是操作符、逗号或者左括号时，减号视为负数符号
+     */
+    private static boolean isNegativeSign(List<String> tokens) {
+        int size = tokens.size();
+        if (size == 0 || !"-".equals(tokens.get(size - 1))) {
+            return false;
+        }
+        if (size == 1) {
+            return true;
+        }
+        String beforeSign = tokens.get(size - 2);
+        return "(".equals(beforeSign) || ",".equals(beforeSign) || "=".equals(beforeSign) || "<".equals(beforeSign)
+                || ">".equals(beforeSign) || "<=".equals(beforeSign) || ">=".equals(beforeSign)
+                || "<>".equals(beforeSign) || "!=".equals(beforeSign)
+                || "and".equals(beforeSign) || "or".equals(beforeSign) || "between".equals(beforeSign);
+    }
+
+    private static int skipNumber(String sql, int start) {
+        int i = start;
+        int length = sql.length();
+        if (sql.charAt(i) == '0' && i + 1 < length && (sql.charAt(i + 1) == 'x' || sql.charAt(i + 1) == 'X')) {
+            i += 2;
+            while (i < length && Character.digit(sql.charAt(i), 16) > -1) {
+                i++;
+            }
+            return i;
+        }
+        while (i < length && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+            i++;
+        }
+        if (i < length && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+            int exponent = i + 1;
+            if (exponent < length && (sql.charAt(exponent) == '+' || sql.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            if (exponent < length && Character.isDigit(sql.charAt(exponent))) {
+                i = exponent;
+                while (i < length && Character.isDigit(sql.charAt(i))) {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+}
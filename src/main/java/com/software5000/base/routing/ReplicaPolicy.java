@@ -0,0 +1,19 @@
+package com.software5000.base.routing;
+
+/**
+ * 从库的选择策略
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public enum ReplicaPolicy {
+
+    /**
+     * 依次轮询
+     */
+    ROUND_ROBIN,
+
+    /**
+     * 选择最近查询平均耗时最低的从库
+     */
+    LEAST_LATENCY
+}
@@ -0,0 +1,736 @@
+package com.software5000.base.routing;
+
+import com.github.pagehelper.PageHelper;
+import com.software5000.base.plugins.metrics.LatencyHistogram;
+import com.software5000.base.routing.StatementCancelInterceptor.CancelHandle;
+import com.software5000.util.BpMybatisException;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 读写分离的 SqlSession
+ * <p>
+ * <code>BaseDao.getSqlSession()</code> 返回该对象后，查询语句发往从库，其余操作发往主库：
+ * <ul>
+ * <li>写入、提交、回滚、游标查询、取连接、带 <code>FOR UPDATE</code> 的查询以及 <code>BaseDao.selectLongValue</code>
+ * （取序列值、分段操作的分段边界）始终使用主库</li>
+ * <li>当前线程在写事务中时查询也使用主库。默认以本对象上有未 commit/rollback 的写入判断，
+ * 主库自动提交或由外部管理事务时通过 {@link #setTransactionActive(BooleanSupplier)} 指定判断方法</li>
+ * <li>写入后的一段时间内当前线程的查询仍使用主库，保证能读到自己刚写入的数据</li>
+ * <li>{@link #usePrimary(Supplier)} 中的查询强制使用主库</li>
+ * <li>从库查询失败时标记该从库一段时间不可用，本次查询改用主库</li>
+ * <li>通过 {@link #enableHedging(double, double)} 开启对冲查询后，从库查询超过近期耗时的指定分位数仍未返回时，
+ * 同一查询再发往另一个从库，先返回的结果生效，另一方通过 <code>Statement.cancel</code> 取消</li>
+ * </ul>
+ * 从库的每次查询打开一个自动提交的 SqlSession，用完即关闭，从库的 SqlSessionFactory 需要加载与主库相同的映射文件。
+ * 创建时会在从库的配置中加入取消查询用的拦截器，MyBatis 的拦截器链不是线程安全的，需要在从库开始查询前创建。
+ * 主库的 SqlSession 需要是线程安全的，如 Spring 的 SqlSessionTemplate；
+ * SqlSessionTemplate 不允许手动 commit/rollback，无法按未提交的写入判断事务，使用时必须设置
+ * <code>setTransactionActive(TransactionSynchronizationManager::isActualTransactionActive)</code>，否则查询时报错。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class RoutingSqlSession implements SqlSession {
+
+    private Logger logger = LoggerFactory.getLogger(RoutingSqlSession.class);
+
+    /**
+     * 从库查询失败后的不可用时长
+     */
+    private static final long UNHEALTHY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * 平均耗时的平滑系数
+     */
+    private static final double LATENCY_ALPHA = 0.2;
+
+    /**
+     * 对冲延迟统计窗口的时长，每个窗口结束后保留上一个窗口
+     */
+    private static final long HEDGE_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * 计算对冲延迟所需的最少样本数，样本不足时不对冲
+     */
+    private static final long HEDGE_MIN_SAMPLES = 100;
+
+    /**
+     * 对冲预算可以累积的最大次数，限制突发的额外查询
+     */
+    private static final double HEDGE_MAX_BURST = 10;
+
+    /**
+     * 由 Spring 管理事务的 SqlSession，按类名判断，不依赖 Spring 的类
+     */
+    private static final String SQL_SESSION_TEMPLATE = "org.mybatis.spring.SqlSessionTemplate";
+
+    /**
+     * 只能在主库执行的查询：取序列值在从库上会失败或取到从库的序列，分段边界不能读到延迟的数据
+     */
+    private static final Set<String> PRIMARY_STATEMENTS = Collections.singleton("com.software5000.base.BaseDao.selectLongValue");
+
+    private final SqlSession primary;
+    private final List<Replica> replicas;
+    private final ReplicaPolicy policy;
+    private final long stickyMillis;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile BooleanSupplier transactionActive;
+
+    /**
+     * 当前线程有未提交的写入
+     */
+    private final ThreadLocal<Boolean> writing = new ThreadLocal<>();
+
+    /**
+     * 当前线程最后一次写入的时间
+     */
+    private final ThreadLocal<Long> lastWriteTime = new ThreadLocal<>();
+
+    /**
+     * 当前线程强制使用主库的嵌套层数
+     */
+    private final ThreadLocal<Integer> forcePrimary = new ThreadLocal<>();
+
+    private volatile ExecutorService hedgeExecutor;
+    private volatile ScheduledExecutorService hedgeTimer;
+    private volatile double hedgePercentile;
+    private volatile double hedgeRatio;
+
+    /**
+     * 从库查询耗时，按窗口轮换
+     */
+    private volatile LatencyHistogram latencyWindow = new LatencyHistogram();
+    private volatile LatencyHistogram previousLatencyWindow;
+    private volatile long latencyWindowStart = System.currentTimeMillis();
+
+    /**
+     * 对冲预算：每次从库查询增加 hedgeRatio，每次对冲消耗1
+     */
+    private double hedgeTokens;
+    private final Object hedgeLock = new Object();
+
+    /**
+     * @param primary      主库
+     * @param replicas     从库
+     * @param policy       从库选择策略
+     * @param stickyMillis 写入后当前线程继续读主库的时长，0为不保持
+     */
+    public RoutingSqlSession(SqlSession primary, List<SqlSessionFactory> replicas, ReplicaPolicy policy, long stickyMillis) {
+        this.primary = primary;
+        List<Replica> replicaList = new ArrayList<>(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            replicaList.add(new Replica(i, replicas.get(i)));
+        }
+        this.replicas = Collections.unmodifiableList(replicaList);
+        for (SqlSessionFactory replica : replicas) {
+            Configuration configuration = replica.getConfiguration();
+            if (configuration.getInterceptors().stream().noneMatch(StatementCancelInterceptor.class::isInstance)) {
+                configuration.addInterceptor(new StatementCancelInterceptor());
+            }
+        }
+        this.policy = policy;
+        this.stickyMillis = stickyMillis;
+    }
+
+    /**
+     * 设置判断当前线程是否在事务中的方法，在事务中时查询使用主库，设置后不再按未提交的写入判断
+     *
+     * @param transactionActive 是否在事务中
+     */
+    public void setTransactionActive(BooleanSupplier transactionActive) {
+        this.transactionActive = transactionActive;
+    }
+
+    /**
+     * 开启对冲查询，只对返回结果的查询生效，带 ResultHandler 的查询不对冲
+     * <p>
+     * 从库查询超过近期耗时的 percentile 分位数仍未返回时，同一查询发往另一个健康的从库，先成功返回的结果生效，
+     * 落后的一方通过 <code>Statement.cancel</code> 取消。额外查询数不超过从库查询数的 maxExtraRatio，
+     * 近期样本不足时不对冲。
+     * <p>
+     * 首次查询在当前线程执行，对冲的查询在后台线程执行，看不到当前线程上的参数，
+     * 因此当前线程设置了 PageHelper 分页时不对冲。
+     *
+     * @param percentile    触发对冲的耗时分位数，如 95
+     * @param maxExtraRatio 对冲产生的额外查询占从库查询的最大比例，如 0.05
+     */
+    public void enableHedging(double percentile, double maxExtraRatio) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in (0, 100]");
+        }
+        if (maxExtraRatio <= 0 || maxExtraRatio > 1) {
+            throw new IllegalArgumentException("maxExtraRatio must be in (0, 1]");
+        }
+        synchronized (hedgeLock) {
+            this.hedgePercentile = percentile;
+            this.hedgeRatio = maxExtraRatio;
+            if (hedgeExecutor != null) {
+                return;
+            }
+            hedgeTimer = Executors.newSingleThreadScheduledExecutor(daemonThreads("simple-orm-hedge-timer"));
+            hedgeExecutor = Executors.newCachedThreadPool(daemonThreads("simple-orm-hedged-read"));
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 在主库上执行，期间的查询都使用主库
+     *
+     * @param action 执行的操作
+     * @return 操作结果
+     */
+    public <T> T usePrimary(Supplier<T> action) {
+        Integer depth = forcePrimary.get();
+        forcePrimary.set(depth == null ? 1 : depth + 1);
+        try {
+            return action.get();
+        } finally {
+            if (depth == null) {
+                forcePrimary.remove();
+            } else {
+                forcePrimary.set(depth);
+            }
+        }
+    }
+
+    /**
+     * 当前线程的查询是否需要使用主库
+     */
+    private boolean readFromPrimary(String statement, Object parameter) {
+        if (replicas.isEmpty() || forcePrimary.get() != null || PRIMARY_STATEMENTS.contains(statement)) {
+            return true;
+        }
+        BooleanSupplier transaction = transactionActive;
+        if (transaction == null && SQL_SESSION_TEMPLATE.equals(primary.getClass().getName())) {
+            throw new BpMybatisException("primary is a SqlSessionTemplate whose transactions can't be tracked, call setTransactionActive first.");
+        }
+        if (transaction != null ? transaction.getAsBoolean() : writing.get() != null) {
+            return true;
+        }
+        Long writeTime = lastWriteTime.get();
+        if (writeTime != null) {
+            if (System.currentTimeMillis() - writeTime < stickyMillis) {
+                return true;
+            }
+            lastWriteTime.remove();
+        }
+        return isLockingRead(parameter);
+    }
+
+    /**
+     * <code>BaseDao</code> 生成的加锁查询，如 <code>claimEntities</code>
+     */
+    private static boolean isLockingRead(Object parameter) {
+        if (!(parameter instanceof Map)) {
+            return false;
+        }
+        Object baseSql = ((Map<?, ?>) parameter).containsKey("baseSql") ? ((Map<?, ?>) parameter).get("baseSql") : null;
+        return baseSql instanceof String && ((String) baseSql).toUpperCase().contains(" FOR UPDATE");
+    }
+
+    private <T> T read(String statement, Object parameter, Function<SqlSession, T> query) {
+        return read(statement, parameter, true, query);
+    }
+
+    /**
+     * 执行查询，按规则选择主库或从库
+     *
+     * @param hedge 是否可以对冲，结果通过 ResultHandler 返回的查询不能执行两次
+     */
+    private <T> T read(String statement, Object parameter, boolean hedge, Function<SqlSession, T> query) {
+        if (readFromPrimary(statement, parameter)) {
+            return query.apply(primary);
+        }
+        Replica replica = chooseReplica();
+        if (replica == null) {
+            return query.apply(primary);
+        }
+        if (hedge && hedgeExecutor != null && PageHelper.getLocalPage() == null) {
+            return hedgedRead(replica, query);
+        }
+        try {
+            return new Attempt<>(replica, query).query();
+        } catch (RuntimeException e) {
+            markUnhealthy(replica, e);
+            return query.apply(primary);
+        }
+    }
+
+    /**
+     * 对冲查询：首次查询在当前线程执行，超过对冲延迟未返回时，在预算内由后台线程发往第二个从库，
+     * 先成功的结果生效并取消另一方，所有从库都失败时改用主库
+     */
+    private <T> T hedgedRead(Replica replica, Function<SqlSession, T> query) {
+        depositHedgeBudget();
+        long delayMicros = hedgeDelayMicros();
+        Attempt<T> first = new Attempt<>(replica, query);
+        Hedge<T> hedge = new Hedge<>(first, delayMicros);
+        ScheduledFuture<?> timer = delayMicros < 0 ? null : hedgeTimer.schedule(hedge, delayMicros, TimeUnit.MICROSECONDS);
+        first.call();
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        Future<Attempt<T>> hedged = hedge.finish();
+        if (first.error == null) {
+            if (hedged != null) {
+                hedge.second.handle.cancel();
+            }
+            return first.result;
+        }
+        if (hedged != null) {
+            Attempt<T> second = awaitHedge(hedge, hedged);
+            if (second.error == null) {
+                // 首次查询可能是被对冲的一方取消的，不标记
+                return second.result;
+            }
+            markUnhealthy(second.replica, second.error);
+        }
+        markUnhealthy(replica, first.error);
+        return query.apply(primary);
+    }
+
+    private <T> Attempt<T> awaitHedge(Hedge<T> hedge, Future<Attempt<T>> hedged) {
+        try {
+            return hedged.get();
+        } catch (InterruptedException e) {
+            hedge.second.handle.cancel();
+            Thread.currentThread().interrupt();
+            throw new BpMybatisException("hedged read interrupted.", e);
+        } catch (ExecutionException e) {
+            // Attempt 内部已经捕获了查询异常，这里只会是意外的错误
+            throw new BpMybatisException("hedged read error.", e.getCause());
+        }
+    }
+
+    private void markUnhealthy(Replica replica, RuntimeException e) {
+        logger.warn("replica [" + replica.index + "] query error, mark unhealthy and read from primary.", e);
+        replica.unhealthyUntil = System.currentTimeMillis() + UNHEALTHY_MILLIS;
+    }
+
+    /**
+     * 记录从库查询耗时，窗口到期时轮换
+     */
+    private void recordLatency(Replica replica, long nanos) {
+        replica.recordLatency(nanos);
+        if (hedgeExecutor == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - latencyWindowStart >= HEDGE_WINDOW_MILLIS) {
+            synchronized (hedgeLock) {
+                if (now - latencyWindowStart >= HEDGE_WINDOW_MILLIS) {
+                    previousLatencyWindow = latencyWindow;
+                    latencyWindow = new LatencyHistogram();
+                    latencyWindowStart = now;
+                }
+            }
+        }
+        latencyWindow.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * 对冲延迟：当前窗口样本足够时取当前窗口的分位数，否则取上一个窗口的
+     *
+     * @return 延迟微秒数，样本不足时返回-1
+     */
+    private long hedgeDelayMicros() {
+        LatencyHistogram histogram = latencyWindow;
+        if (histogram.getTotalCount() < HEDGE_MIN_SAMPLES) {
+            histogram = previousLatencyWindow;
+            if (histogram == null || histogram.getTotalCount() < HEDGE_MIN_SAMPLES) {
+                return -1;
+            }
+        }
+        return histogram.getValueAtPercentile(hedgePercentile);
+    }
+
+    private void depositHedgeBudget() {
+        synchronized (hedgeLock) {
+            hedgeTokens = Math.min(HEDGE_MAX_BURST, hedgeTokens + hedgeRatio);
+        }
+    }
+
+    private boolean acquireHedgeBudget() {
+        synchronized (hedgeLock) {
+            if (hedgeTokens < 1) {
+                return false;
+            }
+            hedgeTokens -= 1;
+            return true;
+        }
+    }
+
+    private Replica chooseReplica() {
+        return chooseReplica(null);
+    }
+
+    /**
+     * @param exclude 排除的从库，对冲时不发往同一个从库
+     */
+    private Replica chooseReplica(Replica exclude) {
+        long now = System.currentTimeMillis();
+        if (policy == ReplicaPolicy.LEAST_LATENCY) {
+            Replica best = null;
+            for (Replica replica : replicas) {
+                if (replica != exclude && replica.unhealthyUntil <= now && (best == null || replica.latencyNanos < best.latencyNanos)) {
+                    best = replica;
+                }
+            }
+            return best;
+        }
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+            if (replica != exclude && replica.unhealthyUntil <= now) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 执行写入，标记当前线程在写事务中
+     */
+    private int write(Supplier<Integer> action) {
+        writing.set(Boolean.TRUE);
+        try {
+            return action.get();
+        } finally {
+            lastWriteTime.set(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 事务结束，清除当前线程的写事务标记，保留写入时间用于读自己的写
+     * 提交或回滚失败时同样清除，避免之后的查询一直使用主库
+     */
+    private void endTransaction() {
+        writing.remove();
+    }
+
+    @Override
+    public <T> T selectOne(String statement) {
+        return read(statement, null, session -> session.selectOne(statement));
+    }
+
+    @Override
+    public <T> T selectOne(String statement, Object parameter) {
+        return read(statement, parameter, session -> session.selectOne(statement, parameter));
+    }
+
+    @Override
+    public <E> List<E> selectList(String statement) {
+        return read(statement, null, session -> session.selectList(statement));
+    }
+
+    @Override
+    public <E> List<E> selectList(String statement, Object parameter) {
+        return read(statement, parameter, session -> session.selectList(statement, parameter));
+    }
+
+    @Override
+    public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds) {
+        return read(statement, parameter, session -> session.selectList(statement, parameter, rowBounds));
+    }
+
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, String mapKey) {
+        return read(statement, null, session -> session.selectMap(statement, mapKey));
+    }
+
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey) {
+        return read(statement, parameter, session -> session.selectMap(statement, parameter, mapKey));
+    }
+
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds) {
+        return read(statement, parameter, session -> session.selectMap(statement, parameter, mapKey, rowBounds));
+    }
+
+    /**
+     * 游标在返回后才读取数据，从库的 SqlSession 无法及时关闭，游标查询使用主库
+     */
+    @Override
+    public <T> Cursor<T> selectCursor(String statement) {
+        return primary.selectCursor(statement);
+    }
+
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+        return primary.selectCursor(statement, parameter);
+    }
+
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+        return primary.selectCursor(statement, parameter, rowBounds);
+    }
+
+    @Override
+    public void select(String statement, Object parameter, ResultHandler handler) {
+        read(statement, parameter, false, session -> {
+            session.select(statement, parameter, handler);
+            return null;
+        });
+    }
+
+    @Override
+    public void select(String statement, ResultHandler handler) {
+        read(statement, null, false, session -> {
+            session.select(statement, handler);
+            return null;
+        });
+    }
+
+    @Override
+    public void select(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler) {
+        read(statement, parameter, false, session -> {
+            session.select(statement, parameter, rowBounds, handler);
+            return null;
+        });
+    }
+
+    @Override
+    public int insert(String statement) {
+        return write(() -> primary.insert(statement));
+    }
+
+    @Override
+    public int insert(String statement, Object parameter) {
+        return write(() -> primary.insert(statement, parameter));
+    }
+
+    @Override
+    public int update(String statement) {
+        return write(() -> primary.update(statement));
+    }
+
+    @Override
+    public int update(String statement, Object parameter) {
+        return write(() -> primary.update(statement, parameter));
+    }
+
+    @Override
+    public int delete(String statement) {
+        return write(() -> primary.delete(statement));
+    }
+
+    @Override
+    public int delete(String statement, Object parameter) {
+        return write(() -> primary.delete(statement, parameter));
+    }
+
+    @Override
+    public void commit() {
+        try {
+            primary.commit();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    @Override
+    public void commit(boolean force) {
+        try {
+            primary.commit(force);
+        } finally {
+            endTransaction();
+        }
+    }
+
+    @Override
+    public void rollback() {
+        try {
+            primary.rollback();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    @Override
+    public void rollback(boolean force) {
+        try {
+            primary.rollback(force);
+        } finally {
+            endTransaction();
+        }
+    }
+
+    @Override
+    public List<BatchResult> flushStatements() {
+        return primary.flushStatements();
+    }
+
+    @Override
+    public void close() {
+        try {
+            primary.close();
+        } finally {
+            endTransaction();
+        }
+    }
+
+    @Override
+    public void clearCache() {
+        primary.clearCache();
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+        return primary.getConfiguration();
+    }
+
+    /**
+     * 映射接口绑定到本对象，接口方法同样按规则路由
+     */
+    @Override
+    public <T> T getMapper(Class<T> type) {
+        return getConfiguration().getMapper(type, this);
+    }
+
+    @Override
+    public Connection getConnection() {
+        return primary.getConnection();
+    }
+
+    /**
+     * 在一个从库上执行一次查询，查询异常保存在 error 中，由调用方判断
+     */
+    private final class Attempt<T> {
+        private final Replica replica;
+        private final Function<SqlSession, T> query;
+        private final CancelHandle handle = new CancelHandle();
+        private T result;
+        private RuntimeException error;
+
+        private Attempt(Replica replica, Function<SqlSession, T> query) {
+            this.replica = replica;
+            this.query = query;
+        }
+
+        private T query() {
+            long start = System.nanoTime();
+            try (SqlSession session = replica.factory.openSession(true)) {
+                T value = query.apply(session);
+                recordLatency(replica, System.nanoTime() - start);
+                return value;
+            }
+        }
+
+        private Attempt<T> call() {
+            StatementCancelInterceptor.CANCEL_HANDLE.set(handle);
+            try {
+                result = query();
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                StatementCancelInterceptor.CANCEL_HANDLE.remove();
+            }
+            return this;
+        }
+    }
+
+    /**
+     * 对冲延迟到期时由定时线程执行，首次查询仍未返回时把查询发往另一个从库
+     */
+    private final class Hedge<T> implements Runnable {
+        private final Attempt<T> first;
+        private final long delayMicros;
+        private Attempt<T> second;
+        private Future<Attempt<T>> future;
+        private boolean finished;
+
+        private Hedge(Attempt<T> first, long delayMicros) {
+            this.first = first;
+            this.delayMicros = delayMicros;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (finished) {
+                return;
+            }
+            Replica replica = chooseReplica(first.replica);
+            if (replica == null || !acquireHedgeBudget()) {
+                return;
+            }
+            logger.debug("replica [" + first.replica.index + "] slower than " + delayMicros + "us, hedge to replica [" + replica.index + "].");
+            Attempt<T> attempt = new Attempt<>(replica, first.query);
+            second = attempt;
+            future = hedgeExecutor.submit(() -> {
+                attempt.call();
+                if (attempt.error == null) {
+                    first.handle.cancel();
+                }
+                return attempt;
+            });
+        }
+
+        /**
+         * 首次查询返回后调用，之后不再发起对冲
+         *
+         * @return 已发起的对冲查询，未发起时为null
+         */
+        private synchronized Future<Attempt<T>> finish() {
+            finished = true;
+            return future;
+        }
+    }
+
+    /**
+     * 单个从库
+     */
+    private final class Replica {
+        private final int index;
+        private final SqlSessionFactory factory;
+        private volatile long unhealthyUntil;
+
+        /**
+         * 查询耗时的指数移动平均
+         */
+        private volatile double latencyNanos;
+
+        private Replica(int index, SqlSessionFactory factory) {
+            this.index = index;
+            this.factory = factory;
+        }
+
+        private void recordLatency(long nanos) {
+            // 并发更新时丢失个别样本不影响选择
+            latencyNanos = latencyNanos == 0 ? nanos : latencyNanos + LATENCY_ALPHA * (nanos - latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.software5000.base.routing;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * 记录当前线程正在执行的查询语句，供对冲查询取消落后的一方
+ * 只在线程上有 {@link CancelHandle} 时生效，由 {@link RoutingSqlSession} 创建时加入从库的配置
+ *
+ * @author matuobasyouca@gmail.com
+ */
+@Intercepts({
+        @Signature(type = StatementHandler.class, method = "query", args = {Statement.class, ResultHandler.class})
+})
+class StatementCancelInterceptor implements Interceptor {
+
+    static final ThreadLocal<CancelHandle> CANCEL_HANDLE = new ThreadLocal<>();
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        CancelHandle handle = CANCEL_HANDLE.get();
+        if (handle == null) {
+            return invocation.proceed();
+        }
+        handle.bind((Statement) invocation.getArgs()[0]);
+        try {
+            return invocation.proceed();
+        } finally {
+            handle.bind(null);
+        }
+    }
+
+    @Override
+    public Object plugin(Object target) {
+        if (target instanceof StatementHandler) {
+            return Plugin.wrap(target, this);
+        } else {
+            return target;
+        }
+    }
+
+    @Override
+    public void setProperties(Properties properties) {
+    }
+
+    /**
+     * 一次查询的取消句柄，语句开始执行前已经取消时，开始执行后立即取消
+     */
+    static final class CancelHandle {
+        private Statement statement;
+        private boolean cancelled;
+
+        private synchronized void bind(Statement statement) throws SQLException {
+            this.statement = statement;
+            if (cancelled && statement != null) {
+                statement.cancel();
+            }
+        }
+
+        /**
+         * 通过 <code>Statement.cancel</code> 取消正在执行的查询
+         */
+        synchronized void cancel() {
+            cancelled = true;
+            if (statement != null) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    // 语句可能刚好执行完或已关闭，取消失败不影响结果
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.software5000.base.sharding;
+
+import com.software5000.util.BpMybatisException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * 多目标查询的并行执行器，用于跨分片、跨分区的查询
+ * <p>
+ * <ul>
+ * <li>运行环境支持虚拟线程（JDK 21+）时使用虚拟线程，否则使用固定大小的线程池，同时执行的目标数都不超过 parallelism</li>
+ * <li>每次调用一次性预留 min(目标数, parallelism) 个许可，由同样数量的线程依次领取目标执行，
+ * 并发的多次调用不会各自占用部分许可后互相等待；目标的查询中不能再调用同一个执行器</li>
+ * <li>{@link #gather(List)} 并行执行后按顺序返回各目标的结果，用于聚合等每个目标只有一个结果的查询</li>
+ * <li>{@link #merge(List, Comparator, int)} 各目标边查询边输出，按相同顺序排好序的结果做多路归并，
+ * 取够 limit 条后停止读取剩余的行并取消尚未开始的目标</li>
+ * </ul>
+ * 任一目标失败时取消其余目标并抛出异常。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class FanOutExecutor {
+
+    private Logger logger = LoggerFactory.getLogger(FanOutExecutor.class);
+
+    /**
+     * 每个目标已读取、尚未归并的最大行数，超过时读取线程等待
+     */
+    private static final int BUFFER_SIZE = 256;
+
+    /**
+     * 目标结束的标记
+     */
+    private static final Object END = new Object();
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int parallelism;
+
+    /**
+     * @param parallelism 同时执行的最大目标数
+     */
+    public FanOutExecutor(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be greater than 0.");
+        }
+        this.parallelism = parallelism;
+        this.permits = new Semaphore(parallelism, true);
+        this.executor = newExecutor(parallelism);
+    }
+
+    /**
+     * 使用指定的线程池，线程数不受 parallelism 限制时与虚拟线程的行为相同
+     *
+     * @param parallelism 同时执行的最大目标数
+     * @param executor    执行目标的线程池
+     */
+    FanOutExecutor(int parallelism, ExecutorService executor) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be greater than 0.");
+        }
+        this.parallelism = parallelism;
+        this.permits = new Semaphore(parallelism, true);
+        this.executor = executor;
+    }
+
+    /**
+     * 通过反射使用 JDK 21 的虚拟线程，低版本或未开启预览时使用平台线程池
+     */
+    private ExecutorService newExecutor(int parallelism) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("virtual threads not available, use platform threads for fan-out.");
+            return Executors.newFixedThreadPool(parallelism, r -> {
+                Thread thread = new Thread(r, "simple-orm-fan-out");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * 关闭执行线程，正在执行的目标继续完成，之后的调用抛出异常
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * 并行执行所有目标，按顺序返回结果
+     *
+     * @param tasks 各目标的查询
+     * @return 各目标的结果，顺序与 tasks 相同
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> gather(List<? extends Callable<T>> tasks) {
+        Object[] results = new Object[tasks.size()];
+        try (Execution execution = new Execution(tasks.size(), i -> results[i] = tasks.get(i).call())) {
+            execution.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BpMybatisException("fan-out interrupted.", e);
+        }
+        List<T> list = new ArrayList<>(results.length);
+        for (Object result : results) {
+            list.add((T) result);
+        }
+        return list;
+    }
+
+    /**
+     * 并行读取所有目标并合并
+     * comparator 不为空时各目标的输出需要已经按该顺序排好，多路归并后整体有序；为空时按到达顺序合并。
+     * 取够 limit 条后通知各目标停止读取，并取消尚未开始的目标。
+     * 有序合并需要每个目标的首行，目标数超过 parallelism 时不限制缓冲的行数，避免已开始的目标写满缓冲后等待、未开始的目标没有线程执行
+     *
+     * @param sources    各目标的查询，逐条交给参数中的 sink，sink 返回 false 时应停止读取
+     * @param comparator 排序，可以为空
+     * @param limit      最多返回的行数，0为不限制
+     * @return 合并后的结果
+     */
+    public <T> List<T> merge(List<? extends Source<T>> sources, Comparator<? super T> comparator, int limit) {
+        List<BlockingQueue<Object>> queues = new ArrayList<>(sources.size());
+        // 无序合并时所有目标共用一个队列，按到达顺序取
+        BlockingQueue<Object> shared = comparator == null ? new ArrayBlockingQueue<>(BUFFER_SIZE) : null;
+        boolean bounded = sources.size() <= parallelism;
+        for (int i = 0; i < sources.size(); i++) {
+            queues.add(shared != null ? shared : bounded ? new ArrayBlockingQueue<>(BUFFER_SIZE) : new LinkedBlockingQueue<>());
+        }
+
+        List<T> results = new ArrayList<>();
+        Execution execution = null;
+        try {
+            AtomicBoolean stopped = new AtomicBoolean();
+            execution = new Execution(sources.size(), i -> read(sources.get(i), queues.get(i), stopped), stopped);
+            if (comparator == null) {
+                for (int ended = 0; ended < sources.size() && (limit <= 0 || results.size() < limit); ) {
+                    T row = take(shared);
+                    if (row == null) {
+                        ended++;
+                    } else {
+                        results.add(row);
+                    }
+                }
+            } else {
+                PriorityQueue<Head<T>> heads = new PriorityQueue<>((a, b) -> {
+                    int compared = comparator.compare(a.row, b.row);
+                    return compared != 0 ? compared : Integer.compare(a.index, b.index);
+                });
+                for (int i = 0; i < queues.size(); i++) {
+                    T row = take(queues.get(i));
+                    if (row != null) {
+                        heads.add(new Head<>(i, row));
+                    }
+                }
+                while (!heads.isEmpty() && (limit <= 0 || results.size() < limit)) {
+                    Head<T> head = heads.poll();
+                    results.add(head.row);
+                    T row = take(queues.get(head.index));
+                    if (row != null) {
+                        heads.add(new Head<>(head.index, row));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BpMybatisException("fan-out interrupted.", e);
+        } finally {
+            if (execution != null) {
+                execution.close();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 在执行线程中读取一个目标，逐条放入队列，结束或失败时放入标记
+     */
+    private <T> void read(Source<T> source, BlockingQueue<Object> queue, AtomicBoolean stopped) throws InterruptedException {
+        Object end = END;
+        try {
+            source.read(row -> {
+                if (stopped.get()) {
+                    return false;
+                }
+                try {
+                    queue.put(row);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                return !stopped.get();
+            });
+        } catch (RuntimeException | Error e) {
+            end = new Failure(e);
+        }
+        if (!stopped.get()) {
+            queue.put(end);
+        }
+    }
+
+    /**
+     * 取下一条，目标结束时返回空，目标失败时抛出异常
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T take(BlockingQueue<Object> queue) throws InterruptedException {
+        Object row = queue.take();
+        if (row == END) {
+            return null;
+        }
+        if (row instanceof Failure) {
+            throw new BpMybatisException("fan-out target error.", ((Failure) row).cause);
+        }
+        return (T) row;
+    }
+
+    /**
+     * 一次 gather 或 merge 的执行：预留许可后启动同样数量的线程，依次领取目标执行，结束时取消线程
+     * 每个线程退出时才归还自己的许可，被取消的线程可能仍在执行查询，提前归还会让后续调用超出 parallelism
+     */
+    private final class Execution implements AutoCloseable {
+        private final AtomicBoolean stopped;
+        private final AtomicInteger next = new AtomicInteger();
+        private final List<Worker> workers;
+
+        private Execution(int targets, Target target) throws InterruptedException {
+            this(targets, target, new AtomicBoolean());
+        }
+
+        /**
+         * @param targets 目标数
+         * @param target  执行一个目标
+         * @param stopped 停止标记，设置后不再领取新的目标
+         */
+        private Execution(int targets, Target target, AtomicBoolean stopped) throws InterruptedException {
+            int reserved = Math.min(targets, parallelism);
+            this.stopped = stopped;
+            this.workers = new ArrayList<>(reserved);
+            permits.acquire(reserved);
+            for (int i = 0; i < reserved; i++) {
+                workers.add(new Worker(targets, target));
+            }
+            try {
+                for (Worker worker : workers) {
+                    worker.future = executor.submit(worker);
+                }
+            } catch (RejectedExecutionException e) {
+                close();
+                throw new BpMybatisException("fan-out executor is closed.", e);
+            }
+        }
+
+        /**
+         * 等待所有目标执行完成，任一目标失败时抛出异常
+         */
+        private void await() throws InterruptedException {
+            for (Worker worker : workers) {
+                try {
+                    worker.future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof BpMybatisException ? (BpMybatisException) e.getCause()
+                            : new BpMybatisException("fan-out error.", e.getCause());
+                }
+            }
+        }
+
+        /**
+         * 停止领取目标并取消线程，尚未开始执行的线程由这里归还许可
+         */
+        @Override
+        public void close() {
+            stopped.set(true);
+            for (Worker worker : workers) {
+                if (worker.future != null) {
+                    worker.future.cancel(true);
+                }
+                if (worker.claimed.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            }
+        }
+
+        /**
+         * 执行线程，与 close 中先标记 claimed 的一方负责归还许可
+         */
+        private final class Worker implements Callable<Void> {
+            private final int targets;
+            private final Target target;
+            private final AtomicBoolean claimed = new AtomicBoolean();
+            private volatile Future<?> future;
+
+            private Worker(int targets, Target target) {
+                this.targets = targets;
+                this.target = target;
+            }
+
+            @Override
+            public Void call() {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    for (int index = next.getAndIncrement(); index < targets && !stopped.get(); index = next.getAndIncrement()) {
+                        try {
+                            target.run(index);
+                        } catch (Exception e) {
+                            throw new BpMybatisException("fan-out target [" + index + "] error.", e);
+                        }
+                    }
+                    return null;
+                } finally {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * 执行一个目标
+     */
+    @FunctionalInterface
+    private interface Target {
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * 一个目标的逐条查询
+     */
+    @FunctionalInterface
+    public interface Source<T> {
+
+        /**
+         * 逐条读取结果交给 sink
+         *
+         * @param sink 接收一条结果，返回 false 时应停止读取
+         */
+        void read(Predicate<T> sink);
+    }
+
+    /**
+     * 归并时一个目标的当前行
+     */
+    private static final class Head<T> {
+        private final int index;
+        private final T row;
+
+        private Head(int index, T row) {
+            this.index = index;
+            this.row = row;
+        }
+    }
+
+    /**
+     * 目标失败的标记
+     */
+    private static final class Failure {
+        private final Throwable cause;
+
+        private Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.software5000.base.sharding;
+
+import com.software5000.util.JsqlUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按分片键取模的分片策略
+ * <p>
+ * 实体表拆分为 tableCount 张物理表，表名为逻辑表名加两位以上的序号，如 <code>ORDER_00</code> ~ <code>ORDER_63</code>，
+ * 物理表按序号连续地平均分配到各个数据源，如64张表、4个数据源时 00~15 在第一个数据源。
+ * 整数类型的分片键直接取模，其他类型按 <code>hashCode()</code> 取模。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class ModShardingStrategy implements ShardingStrategy {
+
+    private final List<String> dataSources;
+    private final int tableCount;
+    private final String suffixFormat;
+
+    /**
+     * 实体类到分片键的映射
+     */
+    private final Map<Class<?>, String> shardKeys = new ConcurrentHashMap<>();
+
+    /**
+     * @param dataSources 数据源名称，按顺序分配物理表
+     * @param tableCount  每个实体的物理表数量，不小于数据源数量
+     */
+    public ModShardingStrategy(List<String> dataSources, int tableCount) {
+        if (dataSources.isEmpty() || tableCount < dataSources.size()) {
+            throw new IllegalArgumentException("tableCount must be greater than or equal to the number of data sources.");
+        }
+        this.dataSources = new ArrayList<>(dataSources);
+        this.tableCount = tableCount;
+        this.suffixFormat = "_%0" + Math.max(2, String.valueOf(tableCount - 1).length()) + "d";
+    }
+
+    /**
+     * 注册需要分片的实体类
+     *
+     * @param entityClass 实体类
+     * @param shardKey    分片键的类属性名称
+     * @return 当前对象
+     */
+    public ModShardingStrategy shard(Class<?> entityClass, String shardKey) {
+        shardKeys.put(entityClass, shardKey);
+        return this;
+    }
+
+    @Override
+    public String getShardKey(Class<?> entityClass) {
+        return shardKeys.get(entityClass);
+    }
+
+    @Override
+    public ShardTarget route(Class<?> entityClass, Object shardKeyValue) {
+        long hash = shardKeyValue instanceof Long || shardKeyValue instanceof Integer || shardKeyValue instanceof Short
+                ? ((Number) shardKeyValue).longValue() : shardKeyValue.hashCode();
+        return target(entityClass, (int) Math.floorMod(hash, (long) tableCount));
+    }
+
+    @Override
+    public List<ShardTarget> getAllShards(Class<?> entityClass) {
+        List<ShardTarget> targets = new ArrayList<>(tableCount);
+        for (int i = 0; i < tableCount; i++) {
+            targets.add(target(entityClass, i));
+        }
+        return Collections.unmodifiableList(targets);
+    }
+
+    private ShardTarget target(Class<?> entityClass, int index) {
+        String dataSource = dataSources.get((int) ((long) index * dataSources.size() / tableCount));
+        return new ShardTarget(dataSource, JsqlUtils.transDbSchemesType(entityClass.getSimpleName()) + String.format(suffixFormat, index));
+    }
+}
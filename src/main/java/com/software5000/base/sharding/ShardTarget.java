@@ -0,0 +1,53 @@
+package com.software5000.base.sharding;
+
+import java.util.Objects;
+
+/**
+ * 一个分片：数据源名称和物理表名
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public final class ShardTarget {
+
+    private final String dataSource;
+    private final String table;
+
+    /**
+     * @param dataSource 数据源名称，对应 {@link ShardingDao} 中注册的 SqlSession
+     * @param table      物理表名，如 <code>ORDER_07</code>
+     */
+    public ShardTarget(String dataSource, String table) {
+        this.dataSource = dataSource;
+        this.table = table;
+    }
+
+    public String getDataSource() {
+        return dataSource;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ShardTarget)) {
+            return false;
+        }
+        ShardTarget that = (ShardTarget) o;
+        return dataSource.equals(that.dataSource) && table.equals(that.table);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dataSource, table);
+    }
+
+    @Override
+    public String toString() {
+        return dataSource + "." + table;
+    }
+}
@@ -0,0 +1,378 @@
+package com.software5000.base.sharding;
+
+import com.software5000.base.Aggregation;
+import com.software5000.base.BaseDao;
+import com.software5000.base.ValueUpdatePolicy;
+import com.software5000.base.jsql.ConditionWrapper;
+import com.software5000.util.BpMybatisException;
+import com.software5000.util.ClassUtil;
+import com.software5000.util.JsqlUtils;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import org.apache.ibatis.session.SqlSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 分库分表的 Dao
+ * <p>
+ * 由 {@link ShardingStrategy} 决定实体的分片键以及分片键的值对应的数据源和物理表：
+ * <ul>
+ * <li>插入、按实体更新、删除、upsert 按实体上分片键的值路由到一个分片，批量操作按分片分组后分别执行，分片键不能为空</li>
+ * <li>实体上有分片键的值时查询只发往一个分片；没有时由 {@link FanOutExecutor} 并行查询所有分片，排序和行数限制下推到每个分片，
+ * 各分片边读取边多路归并，取够行数后停止读取；聚合查询合并各分片的部分结果</li>
+ * <li>按条件的操作（updateWhere、deleteWhere、claimEntities 等）无法从条件中得到分片键，需要在 {@link #onShard(Class, ShardTarget, Supplier)} 中调用</li>
+ * <li>不分片的实体使用默认数据源</li>
+ * </ul>
+ * 各数据源的 SqlSession 会被多个线程同时使用，需要是线程安全的，如 Spring 的 SqlSessionTemplate。
+ * 跨分片的操作不在同一个事务中。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class ShardingDao extends BaseDao {
+
+    private Logger logger = LoggerFactory.getLogger(ShardingDao.class);
+
+    private final Map<String, SqlSession> dataSources;
+    private final String defaultDataSource;
+    private final ShardingStrategy shardingStrategy;
+    private final FanOutExecutor fanOutExecutor;
+
+    /**
+     * 当前线程正在操作的分片
+     */
+    private final ThreadLocal<ShardContext> currentShard = new ThreadLocal<>();
+
+    public ShardingDao(Map<String, SqlSession> dataSources, String defaultDataSource, ShardingStrategy shardingStrategy) {
+        this(dataSources, defaultDataSource, shardingStrategy, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param dataSources       数据源名称到 SqlSession 的映射
+     * @param defaultDataSource 不分片的实体使用的数据源名称
+     * @param shardingStrategy  分片策略
+     * @param parallelism       并行查询所有分片时同时执行的最大分片数
+     */
+    public ShardingDao(Map<String, SqlSession> dataSources, String defaultDataSource, ShardingStrategy shardingStrategy, int parallelism) {
+        if (!dataSources.containsKey(defaultDataSource)) {
+            throw new BpMybatisException("default data source [" + defaultDataSource + "] not exist in " + dataSources.keySet());
+        }
+        this.dataSources = new HashMap<>(dataSources);
+        this.defaultDataSource = defaultDataSource;
+        this.shardingStrategy = shardingStrategy;
+        this.fanOutExecutor = new FanOutExecutor(parallelism);
+    }
+
+    /**
+     * 当前分片所在数据源的 SqlSession，不在分片上时为默认数据源
+     */
+    @Override
+    public SqlSession getSqlSession() {
+        ShardContext context = currentShard.get();
+        String dataSource = context != null ? context.target.getDataSource() : defaultDataSource;
+        SqlSession sqlSession = dataSources.get(dataSource);
+        if (sqlSession == null) {
+            throw new BpMybatisException("data source [" + dataSource + "] not exist in " + dataSources.keySet());
+        }
+        return sqlSession;
+    }
+
+    /**
+     * 分片的实体使用当前分片的物理表，不在分片上时报错，防止写入逻辑表
+     */
+    @Override
+    public String getTableName(Class<?> entityClass) {
+        ShardContext context = currentShard.get();
+        if (context != null && context.entityClass == entityClass) {
+            return context.target.getTable();
+        }
+        String shardKey = shardingStrategy.getShardKey(entityClass);
+        if (shardKey != null) {
+            throw new BpMybatisException("entity [" + entityClass.getName() + "] is sharded by [" + shardKey
+                    + "], set the shard key or call inside onShard.");
+        }
+        return super.getTableName(entityClass);
+    }
+
+    /**
+     * 在指定分片上执行，期间该实体类使用分片的物理表，所有操作使用分片所在的数据源
+     *
+     * @param entityClass 实体类
+     * @param target      分片
+     * @param action      执行的操作
+     * @return 操作结果
+     */
+    public <T> T onShard(Class<?> entityClass, ShardTarget target, Supplier<T> action) {
+        ShardContext previous = currentShard.get();
+        currentShard.set(new ShardContext(entityClass, target));
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                currentShard.remove();
+            } else {
+                currentShard.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 关闭并行查询所有分片的线程，各数据源的 SqlSession 由调用方关闭
+     */
+    public void close() {
+        fanOutExecutor.close();
+    }
+
+    /**
+     * 实体所在的分片
+     *
+     * @param entity 实体对象
+     * @return 分片，实体类不分片或已经在该实体类的分片上时为空
+     */
+    private ShardTarget route(Object entity) {
+        Class<?> entityClass = entity.getClass();
+        String shardKey = shardingStrategy.getShardKey(entityClass);
+        if (shardKey == null || isOnShard(entityClass)) {
+            return null;
+        }
+        Object shardKeyValue = ClassUtil.getValueByField(entity, shardKey);
+        if (shardKeyValue == null) {
+            throw new BpMybatisException("the shard key [" + shardKey + "] of entity [" + entityClass.getName() + "] is null.");
+        }
+        return shardingStrategy.route(entityClass, shardKeyValue);
+    }
+
+    /**
+     * 查询时实体上分片键的值
+     * 外部条件会清除实体中对应字段的值，先清除再读取，条件引用分片键时按没有分片键处理；
+     * 提前清除后各分片的线程只读取实体
+     *
+     * @return 分片键的值，没有时为空
+     */
+    private static Object getShardKeyValue(Object entity, String shardKey, ConditionWrapper conditionWrapper) {
+        if (conditionWrapper != null) {
+            conditionWrapper.get();
+        }
+        return ClassUtil.getValueByField(entity, shardKey);
+    }
+
+    private boolean isOnShard(Class<?> entityClass) {
+        ShardContext context = currentShard.get();
+        return context != null && context.entityClass == entityClass;
+    }
+
+    /**
+     * 按分片分组，保持各分片内实体的原有顺序
+     */
+    private <T> Map<ShardTarget, List<T>> groupByShard(List<T> entities) {
+        Map<ShardTarget, List<T>> groups = new LinkedHashMap<>();
+        for (T entity : entities) {
+            groups.computeIfAbsent(route(entity), k -> new ArrayList<>()).add(entity);
+        }
+        return groups;
+    }
+
+    // region 路由到单个分片的方法块
+
+    @Override
+    public <T> T insertEntity(T entity) {
+        ShardTarget target = route(entity);
+        if (target == null) {
+            return super.insertEntity(entity);
+        }
+        return onShard(entity.getClass(), target, () -> super.insertEntity(entity));
+    }
+
+    @Override
+    public <T> List<T> insertEntities(List<T> entities) {
+        if (entities == null || entities.size() == 0 || route(entities.get(0)) == null) {
+            return super.insertEntities(entities);
+        }
+        groupByShard(entities).forEach((target, group) -> onShard(group.get(0).getClass(), target, () -> super.insertEntities(group)));
+        return entities;
+    }
+
+    @Override
+    public int deleteEntity(Object entity, String queryFields) {
+        ShardTarget target = route(entity);
+        if (target == null) {
+            return super.deleteEntity(entity, queryFields);
+        }
+        return onShard(entity.getClass(), target, () -> super.deleteEntity(entity, queryFields));
+    }
+
+    @Override
+    public int deleteEntities(List<?> entities, String queryFields) {
+        if (entities == null || entities.size() == 0 || route(entities.get(0)) == null) {
+            return super.deleteEntities(entities, queryFields);
+        }
+        int rows = 0;
+        for (Map.Entry<ShardTarget, ? extends List<?>> entry : groupByShard(entities).entrySet()) {
+            List<?> group = entry.getValue();
+            rows += onShard(group.get(0).getClass(), entry.getKey(), () -> super.deleteEntities(group, queryFields));
+        }
+        return rows;
+    }
+
+    /**
+     * {@link #updateEntities(List, String)} 逐个调用本方法，同样按分片路由
+     */
+    @Override
+    public int updateEntity(Object entity, String queryFields, ValueUpdatePolicy valueUpdatePolicy) {
+        ShardTarget target = route(entity);
+        if (target == null) {
+            return super.updateEntity(entity, queryFields, valueUpdatePolicy);
+        }
+        return onShard(entity.getClass(), target, () -> super.updateEntity(entity, queryFields, valueUpdatePolicy));
+    }
+
+    @Override
+    public int upsertEntity(Object entity, String conflictFields, ValueUpdatePolicy valueUpdatePolicy) {
+        ShardTarget target = route(entity);
+        if (target == null) {
+            return super.upsertEntity(entity, conflictFields, valueUpdatePolicy);
+        }
+        return onShard(entity.getClass(), target, () -> super.upsertEntity(entity, conflictFields, valueUpdatePolicy));
+    }
+
+    @Override
+    public int upsertEntities(List<?> entities, String conflictFields, ValueUpdatePolicy valueUpdatePolicy) {
+        if (entities == null || entities.size() == 0 || route(entities.get(0)) == null) {
+            return super.upsertEntities(entities, conflictFields, valueUpdatePolicy);
+        }
+        int rows = 0;
+        for (Map.Entry<ShardTarget, ? extends List<?>> entry : groupByShard(entities).entrySet()) {
+            List<?> group = entry.getValue();
+            rows += onShard(group.get(0).getClass(), entry.getKey(), () -> super.upsertEntities(group, conflictFields, valueUpdatePolicy));
+        }
+        return rows;
+    }
+
+    // endregion
+
+    // region 查询方法块
+
+    /**
+     * 实体上有分片键的值且外部条件没有引用分片键时只查询一个分片，否则并行查询所有分片并合并
+     * 有排序时各分片的结果已经排好序，多路归并后整体有序，空值顺序按当前方言，字符串排序规则需要与数据库一致；
+     * limit 大于0时每个分片最多取 limit 条，合并取够 limit 条后停止读取其余分片
+     */
+    @Override
+    public List selectEntities(Object entity, ConditionWrapper conditionWrapper, String queryFields, String orderBy, int limit) {
+        Class<?> entityClass = entity.getClass();
+        String shardKey = shardingStrategy.getShardKey(entityClass);
+        if (shardKey == null || isOnShard(entityClass)) {
+            return super.selectEntities(entity, conditionWrapper, queryFields, orderBy, limit);
+        }
+        Object shardKeyValue = getShardKeyValue(entity, shardKey, conditionWrapper);
+        if (shardKeyValue != null) {
+            return onShard(entityClass, shardingStrategy.route(entityClass, shardKeyValue),
+                    () -> super.selectEntities(entity, conditionWrapper, queryFields, orderBy, limit));
+        }
+
+        List<ShardTarget> targets = shardingStrategy.getAllShards(entityClass);
+        List<FanOutExecutor.Source<Object>> sources = new ArrayList<>(targets.size());
+        for (ShardTarget target : targets) {
+            sources.add(sink -> onShard(entityClass, target, () -> {
+                super.streamEntities(entity, conditionWrapper, queryFields, orderBy, limit, sink);
+                return null;
+            }));
+        }
+        List<Object> merged = fanOutExecutor.merge(sources, orderByComparator(orderBy), limit);
+        logger.debug("selected [" + merged.size() + "] rows of [" + entityClass.getName() + "] from [" + targets.size() + "] shards.");
+        return merged;
+    }
+
+    /**
+     * 实体上有分片键的值时只查询一个分片，否则需要在 {@link #onShard(Class, ShardTarget, Supplier)} 中调用
+     */
+    @Override
+    public <T> void streamEntities(T entity, ConditionWrapper conditionWrapper, String queryFields, String orderBy, int limit, Predicate<T> consumer) {
+        Class<?> entityClass = entity.getClass();
+        String shardKey = shardingStrategy.getShardKey(entityClass);
+        Object shardKeyValue = shardKey == null || isOnShard(entityClass) ? null : getShardKeyValue(entity, shardKey, conditionWrapper);
+        if (shardKeyValue == null) {
+            super.streamEntities(entity, conditionWrapper, queryFields, orderBy, limit, consumer);
+            return;
+        }
+        onShard(entityClass, shardingStrategy.route(entityClass, shardKeyValue), () -> {
+            super.streamEntities(entity, conditionWrapper, queryFields, orderBy, limit, consumer);
+            return null;
+        });
+    }
+
+    /**
+     * 实体上有分片键的值时只查询一个分片，否则并行查询所有分片，按聚合函数合并各分片的结果
+     */
+    @Override
+    public Object aggregateEntities(Object entity, ConditionWrapper conditionWrapper, Aggregation aggregation, String fieldName) {
+        Class<?> entityClass = entity.getClass();
+        String shardKey = shardingStrategy.getShardKey(entityClass);
+        if (shardKey == null || isOnShard(entityClass)) {
+            return super.aggregateEntities(entity, conditionWrapper, aggregation, fieldName);
+        }
+        Object shardKeyValue = getShardKeyValue(entity, shardKey, conditionWrapper);
+        if (shardKeyValue != null) {
+            return onShard(entityClass, shardingStrategy.route(entityClass, shardKeyValue),
+                    () -> super.aggregateEntities(entity, conditionWrapper, aggregation, fieldName));
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (ShardTarget target : shardingStrategy.getAllShards(entityClass)) {
+            tasks.add(() -> onShard(entityClass, target, () -> super.aggregateEntities(entity, conditionWrapper, aggregation, fieldName)));
+        }
+        return aggregation.merge(fanOutExecutor.gather(tasks));
+    }
+
+    /**
+     * 按排序字段比较实体，空值顺序与 {@link BaseDao#DIALECT} 一致
+     *
+     * @param orderBy 排序字段，如 <code>createTime desc,id</code>
+     * @return 比较器，没有排序字段时为空
+     */
+    @SuppressWarnings("unchecked")
+    static Comparator<Object> orderByComparator(String orderBy) {
+        List<OrderByElement> orderByElements = JsqlUtils.getOrderByElementFromString(orderBy);
+        if (orderByElements == null) {
+            return null;
+        }
+        Comparator<Object> comparator = null;
+        for (OrderByElement orderByElement : orderByElements) {
+            String fieldName = JsqlUtils.transColumnToFieldName(((Column) orderByElement.getExpression()).getColumnName());
+            Comparator<Comparable<Object>> byValue = Comparator.naturalOrder();
+            if (!orderByElement.isAsc()) {
+                byValue = byValue.reversed();
+            }
+            // 空值最小时升序在前、降序在后，空值最大时相反
+            byValue = orderByElement.isAsc() == DIALECT.nullsAreSortedLow() ? Comparator.nullsFirst(byValue) : Comparator.nullsLast(byValue);
+            Comparator<Object> byField = Comparator.comparing(e -> (Comparable<Object>) ClassUtil.getValueByField(e, fieldName), byValue);
+            comparator = comparator == null ? byField : comparator.thenComparing(byField);
+        }
+        return comparator;
+    }
+
+    // endregion
+
+    /**
+     * 线程当前的实体类和分片
+     */
+    private static final class ShardContext {
+        private final Class<?> entityClass;
+        private final ShardTarget target;
+
+        private ShardContext(Class<?> entityClass, ShardTarget target) {
+            this.entityClass = entityClass;
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.software5000.base.sharding;
+
+import java.util.List;
+
+/**
+ * 分片策略，决定实体按哪个属性分片以及分片键的值对应哪个数据源的哪张物理表
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public interface ShardingStrategy {
+
+    /**
+     * 实体类的分片键
+     *
+     * @param entityClass 实体类
+     * @return 分片键的类属性名称，实体类不分片时返回空
+     */
+    String getShardKey(Class<?> entityClass);
+
+    /**
+     * 根据分片键的值选择分片
+     *
+     * @param entityClass   实体类
+     * @param shardKeyValue 分片键的值，不为空
+     * @return 分片
+     */
+    ShardTarget route(Class<?> entityClass, Object shardKeyValue);
+
+    /**
+     * 实体类的所有分片，用于不带分片键的查询
+     *
+     * @param entityClass 实体类
+     * @return 所有分片
+     */
+    List<ShardTarget> getAllShards(Class<?> entityClass);
+}
@@ -0,0 +1,192 @@
+package com.software5000.base.writebehind;
+
+import com.software5000.util.BpMybatisException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 写入日志中的一条延迟操作
+ * 二进制格式：类型(1字节) + 实体类名 + 操作内容，值带1字节的类型标记，只支持实体中常见的基础类型
+ *
+ * @author matuobasyouca@gmail.com
+ */
+class JournalRecord {
+
+    static final byte INSERT = 1;
+    static final byte SET = 2;
+    static final byte INCREMENT = 3;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte LONG_VALUE = 1;
+    private static final byte INTEGER_VALUE = 2;
+    private static final byte SHORT_VALUE = 3;
+    private static final byte DOUBLE_VALUE = 4;
+    private static final byte FLOAT_VALUE = 5;
+    private static final byte BIG_DECIMAL_VALUE = 6;
+    private static final byte BIG_INTEGER_VALUE = 7;
+    private static final byte STRING_VALUE = 8;
+    private static final byte BOOLEAN_VALUE = 9;
+    private static final byte TIMESTAMP_VALUE = 10;
+    private static final byte SQL_DATE_VALUE = 11;
+    private static final byte DATE_VALUE = 12;
+
+    final byte type;
+    final String className;
+    final Object id;
+    final String fieldName;
+    final Object value;
+    final Map<String, Object> fields;
+
+    private JournalRecord(byte type, String className, Object id, String fieldName, Object value, Map<String, Object> fields) {
+        this.type = type;
+        this.className = className;
+        this.id = id;
+        this.fieldName = fieldName;
+        this.value = value;
+        this.fields = fields;
+    }
+
+    static JournalRecord update(byte type, Class<?> entityClass, Object id, String fieldName, Object value) {
+        return new JournalRecord(type, entityClass.getName(), id, fieldName, value, null);
+    }
+
+    static JournalRecord insert(Class<?> entityClass, Map<String, Object> fields) {
+        return new JournalRecord(INSERT, entityClass.getName(), null, null, null, fields);
+    }
+
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            out.writeUTF(className);
+            if (type == INSERT) {
+                out.writeShort(fields.size());
+                for (Map.Entry<String, Object> field : fields.entrySet()) {
+                    out.writeUTF(field.getKey());
+                    writeValue(out, field.getValue());
+                }
+            } else {
+                writeValue(out, id);
+                out.writeUTF(fieldName);
+                writeValue(out, value);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new BpMybatisException("encode journal record error", e);
+        }
+    }
+
+    static JournalRecord decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String className = in.readUTF();
+        if (type == INSERT) {
+            int size = in.readUnsignedShort();
+            Map<String, Object> fields = new LinkedHashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                fields.put(in.readUTF(), readValue(in));
+            }
+            return new JournalRecord(type, className, null, null, null, fields);
+        }
+        Object id = readValue(in);
+        String fieldName = in.readUTF();
+        return new JournalRecord(type, className, id, fieldName, readValue(in), null);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG_VALUE);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER_VALUE);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT_VALUE);
+            out.writeShort((Short) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT_VALUE);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL_VALUE);
+            out.writeUTF(value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER_VALUE);
+            out.writeUTF(value.toString());
+        } else if (value instanceof String) {
+            out.writeByte(STRING_VALUE);
+            byte[] chars = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(chars.length);
+            out.write(chars);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_VALUE);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP_VALUE);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(SQL_DATE_VALUE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value.getClass() == java.util.Date.class) {
+            out.writeByte(DATE_VALUE);
+            out.writeLong(((java.util.Date) value).getTime());
+        } else {
+            throw new BpMybatisException("journal not support value type : [" + value.getClass().getName() + "]");
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL_VALUE:
+                return null;
+            case LONG_VALUE:
+                return in.readLong();
+            case INTEGER_VALUE:
+                return in.readInt();
+            case SHORT_VALUE:
+                return in.readShort();
+            case DOUBLE_VALUE:
+                return in.readDouble();
+            case FLOAT_VALUE:
+                return in.readFloat();
+            case BIG_DECIMAL_VALUE:
+                return new BigDecimal(in.readUTF());
+            case BIG_INTEGER_VALUE:
+                return new BigInteger(in.readUTF());
+            case STRING_VALUE:
+                byte[] chars = new byte[in.readInt()];
+                in.readFully(chars);
+                return new String(chars, StandardCharsets.UTF_8);
+            case BOOLEAN_VALUE:
+                return in.readBoolean();
+            case TIMESTAMP_VALUE:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case SQL_DATE_VALUE:
+                return new java.sql.Date(in.readLong());
+            case DATE_VALUE:
+                return new java.util.Date(in.readLong());
+            default:
+                throw new IOException("unknown value tag : [" + tag + "]");
+        }
+    }
+}
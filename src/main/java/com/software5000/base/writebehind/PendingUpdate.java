@@ -0,0 +1,61 @@
+package com.software5000.base.writebehind;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一行数据上尚未写入数据库的更新
+ * 同一个字段多次赋值时保留最后一次；多次增量时合并为一次；先赋值后增量时直接在值上累加，先增量后赋值时增量被覆盖。
+ * 只在 {@link WriteBehindBuffer} 的 map 操作内修改，不需要额外同步
+ *
+ * @author matuobasyouca@gmail.com
+ */
+class PendingUpdate {
+
+    /**
+     * 直接赋值的字段
+     */
+    final Map<String, Object> values = new LinkedHashMap<>();
+
+    /**
+     * 在原值上增量更新的字段
+     */
+    final Map<String, Number> increments = new LinkedHashMap<>();
+
+    void set(String fieldName, Object value) {
+        increments.remove(fieldName);
+        values.put(fieldName, value);
+    }
+
+    void increment(String fieldName, Number delta) {
+        Object value = values.get(fieldName);
+        if (value instanceof Number) {
+            values.put(fieldName, add((Number) value, delta));
+        } else if (!values.containsKey(fieldName)) {
+            increments.merge(fieldName, delta, PendingUpdate::add);
+        }
+        // 已赋值为NULL时与数据库中 NULL + n 的结果一致，保持不变
+    }
+
+    /**
+     * 合并另一批更新，用于写入失败后放回缓冲区，后来的更新覆盖先前的
+     *
+     * @param later 后来的更新
+     */
+    void merge(PendingUpdate later) {
+        later.values.forEach(this::set);
+        later.increments.forEach(this::increment);
+    }
+
+    static Number add(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return a.longValue() + b.longValue();
+        }
+        return new BigDecimal(a.toString()).add(new BigDecimal(b.toString()));
+    }
+
+    static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+}
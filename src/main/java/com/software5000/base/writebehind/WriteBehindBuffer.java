@@ -0,0 +1,506 @@
+package com.software5000.base.writebehind;
+
+import com.google.common.collect.Lists;
+import com.software5000.base.BaseDao;
+import com.software5000.base.plugins.CommonInterceptor;
+import com.software5000.util.BpMybatisException;
+import com.software5000.util.ClassUtil;
+import com.software5000.util.JsqlUtils;
+import net.sf.jsqlparser.expression.CaseExpression;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.WhenClause;
+import net.sf.jsqlparser.expression.operators.arithmetic.Addition;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.update.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 延迟合并写入的更新缓冲区
+ * <p>
+ * 适用于同一批数据被高频更新的场景，如最后访问时间、计数器。更新先按 (表, id) 合并在内存中，
+ * 定时按表生成一条 <code>UPDATE ... SET col = CASE ID WHEN ... END WHERE ID IN (...)</code> 写入，
+ * 每秒上千次的行锁竞争变为每个周期一次。
+ * <ul>
+ * <li>内存有界：待写入的行数达到上限时，由调用线程同步写入，调用方自然被限速</li>
+ * <li>写入失败的更新会合并回缓冲区，下个周期重试；插入按单条语句的行数分块，只重试失败的块</li>
+ * <li>关闭时写入剩余的更新，可以通过 {@link #registerShutdownHook()} 在进程退出时关闭</li>
+ * <li>可以配合 {@link WriteBehindJournal} 使用，更新落盘后才返回，进程崩溃后重启时重放未写入的更新</li>
+ * </ul>
+ * 延迟插入的实体在写入前不要再修改，写入时先于同一周期的更新执行。
+ * 缓冲区中的更新在写入前对数据库不可见，只能用于允许短暂延迟的数据。
+ * 后台线程通过 <code>BaseDao.getSqlSession()</code> 执行，需要是线程安全并自动提交的 SqlSession，如 Spring 的 SqlSessionTemplate。
+ * 表名取自 <code>BaseDao.getTableName</code>，更新按主键写入无法路由到分片，分片的实体只能延迟插入，延迟更新时直接报错。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class WriteBehindBuffer implements AutoCloseable {
+
+    private Logger logger = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private final BaseDao baseDao;
+    private final int maxPendingRows;
+
+    /**
+     * 待写入的更新，ConcurrentHashMap 按桶加锁，不同行的合并互不阻塞
+     */
+    private final Map<RowKey, PendingUpdate> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingRows = new AtomicInteger();
+
+    /**
+     * 待写入的插入
+     */
+    private final Queue<Object> pendingInserts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 可选的本地日志。追加日志与放入内存在读锁中完成，取出待写入数据时加写锁，
+     * 保证取出时记下的日志序号之前的记录都已经在取出的数据中
+     */
+    private final WriteBehindJournal journal;
+    private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+
+    /**
+     * 已校验过的 (类, 属性)，避免每次更新都反射校验
+     */
+    private final Set<String> checkedFields = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final ScheduledExecutorService flushExecutor;
+    private Thread shutdownHook;
+
+    /**
+     * @param baseDao             用于写入的dao
+     * @param maxPendingRows      最多缓存的行数
+     * @param flushIntervalMillis 定时写入的周期
+     */
+    public WriteBehindBuffer(BaseDao baseDao, int maxPendingRows, long flushIntervalMillis) {
+        this(baseDao, maxPendingRows, flushIntervalMillis, null);
+    }
+
+    /**
+     * 使用本地日志的缓冲区，创建时先重放日志中未写入的记录并立即写入数据库
+     *
+     * @param baseDao             用于写入的dao
+     * @param maxPendingRows      最多缓存的行数
+     * @param flushIntervalMillis 定时写入的周期
+     * @param journal             本地日志，为空时不记录日志
+     */
+    public WriteBehindBuffer(BaseDao baseDao, int maxPendingRows, long flushIntervalMillis, WriteBehindJournal journal) {
+        if (maxPendingRows <= 0 || flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("maxPendingRows and flushIntervalMillis must be greater than 0");
+        }
+        this.baseDao = baseDao;
+        this.maxPendingRows = maxPendingRows;
+        this.journal = journal;
+        if (journal != null) {
+            int records = journal.replay(this::replay);
+            if (records > 0) {
+                logger.info("write behind journal replayed [" + records + "] records");
+            }
+            flush();
+        }
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "simple-orm-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flushExecutor.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 设置字段值，同一行同一字段多次设置时只写入最后一次
+     *
+     * @param entityClass 实体类
+     * @param id          主键
+     * @param fieldName   类属性名称
+     * @param value       值
+     */
+    public void set(Class<?> entityClass, Object id, String fieldName, Object value) {
+        apply(JournalRecord.update(JournalRecord.SET, entityClass, id, fieldName, value), entityClass, id, fieldName,
+                update -> update.set(fieldName, value));
+    }
+
+    /**
+     * 字段在原值上增加，同一行同一字段的多次增量合并为一次
+     *
+     * @param entityClass 实体类
+     * @param id          主键
+     * @param fieldName   类属性名称
+     * @param delta       增量，可以为负数
+     */
+    public void increment(Class<?> entityClass, Object id, String fieldName, Number delta) {
+        apply(JournalRecord.update(JournalRecord.INCREMENT, entityClass, id, fieldName, delta), entityClass, id, fieldName,
+                update -> update.increment(fieldName, delta));
+    }
+
+    /**
+     * 延迟插入实体，在下次写入时与同类型的其他实体一起通过 <code>insertEntities</code> 插入
+     *
+     * @param entity 实体
+     */
+    public void insert(Object entity) {
+        checkOpen();
+        Objects.requireNonNull(entity, "entity");
+        journaled(() -> JournalRecord.insert(entity.getClass(), getFieldValues(entity)), () -> pendingInserts.add(entity));
+        if (pendingRows.incrementAndGet() >= maxPendingRows) {
+            flush();
+        }
+    }
+
+    private void apply(JournalRecord record, Class<?> entityClass, Object id, String fieldName, Consumer<PendingUpdate> change) {
+        checkOpen();
+        Objects.requireNonNull(id, "id");
+        checkField(entityClass, fieldName);
+
+        boolean[] added = new boolean[1];
+        journaled(() -> record, () -> added[0] = merge(new RowKey(entityClass, id), change));
+        if (added[0] && pendingRows.incrementAndGet() >= maxPendingRows) {
+            // 达到上限时由调用线程同步写入，形成背压
+            flush();
+        }
+    }
+
+    /**
+     * 更新合并到缓冲区中
+     *
+     * @return 是否新增了一行
+     */
+    private boolean merge(RowKey rowKey, Consumer<PendingUpdate> change) {
+        boolean[] added = new boolean[1];
+        pending.compute(rowKey, (key, update) -> {
+            if (update == null) {
+                update = new PendingUpdate();
+                added[0] = true;
+            }
+            change.accept(update);
+            return update;
+        });
+        return added[0];
+    }
+
+    /**
+     * 有日志时先追加日志再放入内存，落盘后返回
+     */
+    private void journaled(Supplier<JournalRecord> record, Runnable change) {
+        if (journal == null) {
+            change.run();
+            return;
+        }
+        long lsn;
+        journalLock.readLock().lock();
+        try {
+            lsn = journal.append(record.get());
+            change.run();
+        } finally {
+            journalLock.readLock().unlock();
+        }
+        journal.sync(lsn);
+    }
+
+    /**
+     * 重放日志中的记录，只放入内存，不再记录日志
+     */
+    private void replay(JournalRecord record) {
+        Class<?> entityClass;
+        try {
+            entityClass = ClassUtil.loadClass(record.className, false);
+        } catch (ClassNotFoundException e) {
+            throw new BpMybatisException("replay journal record error, class not found : [" + record.className + "]", e);
+        }
+        if (record.type == JournalRecord.INSERT) {
+            Object entity = ClassUtil.newInstance(entityClass);
+            for (Map.Entry<String, Object> field : record.fields.entrySet()) {
+                try {
+                    ClassUtil.setValueByField(entity, field.getKey(), field.getValue());
+                } catch (Exception e) {
+                    throw new BpMybatisException("replay journal record error, entity : [" + record.className + "] field : [" + field.getKey() + "]", e);
+                }
+            }
+            pendingInserts.add(entity);
+            pendingRows.incrementAndGet();
+            return;
+        }
+        Consumer<PendingUpdate> change = record.type == JournalRecord.INCREMENT
+                ? update -> update.increment(record.fieldName, (Number) record.value)
+                : update -> update.set(record.fieldName, record.value);
+        if (merge(new RowKey(entityClass, record.id), change)) {
+            pendingRows.incrementAndGet();
+        }
+    }
+
+    private Map<String, Object> getFieldValues(Object entity) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (Column column : JsqlUtils.getAllColumnNamesFromEntity(entity.getClass())) {
+            String fieldName = JsqlUtils.transColumnToFieldName(column.getColumnName());
+            fields.put(fieldName, ClassUtil.getValueByField(entity, fieldName));
+        }
+        return fields;
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new BpMybatisException("write behind buffer is closed.");
+        }
+    }
+
+    private void checkField(Class<?> entityClass, String fieldName) {
+        if (checkedFields.add(entityClass.getName() + "#" + fieldName)) {
+            try {
+                JsqlUtils.getAllColumnNamesFromEntityWithNames(entityClass, Collections.singletonList(fieldName));
+                // 分片的实体在这里报错，而不是在后台写入时反复失败
+                baseDao.getTableName(entityClass);
+            } catch (RuntimeException e) {
+                checkedFields.remove(entityClass.getName() + "#" + fieldName);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 立即写入所有待写入的插入和更新
+     * 使用日志时，全部写入成功后记录检查点
+     *
+     * @return 影响行数
+     */
+    public synchronized int flush() {
+        List<Object> inserts = new ArrayList<>();
+        Map<Class<?>, Map<Object, PendingUpdate>> drained = new LinkedHashMap<>();
+        long drainedLsn = 0;
+        if (journal != null) {
+            journalLock.writeLock().lock();
+        }
+        try {
+            if (journal != null) {
+                drainedLsn = journal.getWrittenLsn();
+            }
+            for (Object entity = pendingInserts.poll(); entity != null; entity = pendingInserts.poll()) {
+                pendingRows.decrementAndGet();
+                inserts.add(entity);
+            }
+            for (RowKey key : pending.keySet()) {
+                PendingUpdate update = pending.remove(key);
+                if (update != null) {
+                    pendingRows.decrementAndGet();
+                    drained.computeIfAbsent(key.entityClass, c -> new LinkedHashMap<>()).put(key.id, update);
+                }
+            }
+        } finally {
+            if (journal != null) {
+                journalLock.writeLock().unlock();
+            }
+        }
+
+        int rows = 0;
+        boolean failed = false;
+        Map<Class<?>, List<Object>> insertsByClass = inserts.stream()
+                .collect(Collectors.groupingBy(Object::getClass, LinkedHashMap::new, Collectors.toList()));
+        for (Map.Entry<Class<?>, List<Object>> entry : insertsByClass.entrySet()) {
+            // 每块是一条插入语句，自动提交时前面的块已经写入，只重试失败的块
+            for (List<Object> chunk : Lists.partition(entry.getValue(), BaseDao.DIALECT.getMaxRowsPerInsert())) {
+                try {
+                    baseDao.insertEntities(chunk);
+                    rows += chunk.size();
+                } catch (RuntimeException e) {
+                    logger.error("write behind insert error, entity : [" + entry.getKey().getName() + "] rows : [" + chunk.size() + "], will retry", e);
+                    pendingInserts.addAll(chunk);
+                    pendingRows.addAndGet(chunk.size());
+                    failed = true;
+                }
+            }
+        }
+        for (Map.Entry<Class<?>, Map<Object, PendingUpdate>> entry : drained.entrySet()) {
+            List<Object> ids = new ArrayList<>(entry.getValue().keySet());
+            for (List<Object> chunk : Lists.partition(ids, BaseDao.DIALECT.getMaxInListSize())) {
+                try {
+                    rows += write(entry.getKey(), chunk, entry.getValue());
+                } catch (RuntimeException e) {
+                    logger.error("write behind flush error, entity : [" + entry.getKey().getName() + "] rows : [" + chunk.size() + "], will retry", e);
+                    chunk.forEach(id -> restore(new RowKey(entry.getKey(), id), entry.getValue().get(id)));
+                    failed = true;
+                }
+            }
+        }
+        if (journal != null && !failed) {
+            journal.checkpoint(drainedLsn);
+        }
+        return rows;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("write behind flush error", e);
+        }
+    }
+
+    /**
+     * 写入失败的更新放回缓冲区，与期间新产生的更新合并
+     */
+    private void restore(RowKey key, PendingUpdate failed) {
+        pending.compute(key, (k, later) -> {
+            if (later == null) {
+                pendingRows.incrementAndGet();
+                return failed;
+            }
+            failed.merge(later);
+            return failed;
+        });
+    }
+
+    /**
+     * 一张表的一批行生成一条更新语句
+     */
+    private int write(Class<?> entityClass, List<Object> ids, Map<Object, PendingUpdate> updates) {
+        Column idColumn = new Column(JsqlUtils.transDbSchemesType(CommonInterceptor.ID_FIELD_NAME));
+        Set<String> fieldNames = new LinkedHashSet<>();
+        ids.forEach(id -> {
+            fieldNames.addAll(updates.get(id).values.keySet());
+            fieldNames.addAll(updates.get(id).increments.keySet());
+        });
+
+        List<Column> columns = new ArrayList<>();
+        List<Expression> expressions = new ArrayList<>();
+        for (String fieldName : fieldNames) {
+            Column column = new Column(JsqlUtils.transDbSchemesType(fieldName));
+            List<WhenClause> whenClauses = new ArrayList<>();
+            for (Object id : ids) {
+                PendingUpdate update = updates.get(id);
+                Expression value;
+                if (update.values.containsKey(fieldName)) {
+                    value = JsqlUtils.convertValueType(update.values.get(fieldName));
+                } else if (update.increments.containsKey(fieldName)) {
+                    Addition addition = new Addition();
+                    addition.setLeftExpression(column);
+                    addition.setRightExpression(numberValue(update.increments.get(fieldName)));
+                    value = addition;
+                } else {
+                    continue;
+                }
+                WhenClause whenClause = new WhenClause();
+                whenClause.setWhenExpression(JsqlUtils.convertValueType(id));
+                whenClause.setThenExpression(value);
+                whenClauses.add(whenClause);
+            }
+            CaseExpression caseExpression = new CaseExpression();
+            caseExpression.setSwitchExpression(idColumn);
+            caseExpression.setWhenClauses(whenClauses);
+            caseExpression.setElseExpression(column);
+            columns.add(column);
+            expressions.add(caseExpression);
+        }
+
+        Update update = new Update();
+        update.setTables(Arrays.asList(new Table(baseDao.getTableName(entityClass))));
+        update.setColumns(columns);
+        update.setExpressions(expressions);
+        String versionField = JsqlUtils.getVersionFieldName(entityClass);
+        if (versionField != null && !fieldNames.contains(versionField)) {
+            // 不检查版本号，但需要让持有旧版本号的乐观锁更新失败
+            JsqlUtils.setVersionIncrement(update, versionField);
+        }
+        update.setWhere(JsqlUtils.in(idColumn, JsqlUtils.convertValueTypeList(ids)));
+
+        Map<String, Object> param = new HashMap<>(1);
+        param.put("baseSql", update.toString());
+        return baseDao.update("com.software5000.base.BaseDao.updateEntities", param);
+    }
+
+    private static Expression numberValue(Number number) {
+        return PendingUpdate.isIntegral(number) ? new LongValue(number.longValue()) : new DoubleValue(number.toString());
+    }
+
+    /**
+     * @return 当前待写入的行数
+     */
+    public int getPendingRows() {
+        return pendingRows.get();
+    }
+
+    /**
+     * 注册进程退出时的钩子，退出前写入剩余的更新
+     */
+    public synchronized void registerShutdownHook() {
+        if (shutdownHook == null) {
+            shutdownHook = new Thread(this::close, "simple-orm-write-behind-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    /**
+     * 停止定时写入并写入剩余的更新，日志需要调用方另外关闭
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (pendingRows.get() > 0) {
+            logger.error("write behind buffer closed with [" + pendingRows.get() + "] rows not written");
+        }
+    }
+
+    /**
+     * 缓冲区中一行数据的标识
+     */
+    private static final class RowKey {
+        private final Class<?> entityClass;
+        private final Object id;
+
+        private RowKey(Class<?> entityClass, Object id) {
+            this.entityClass = entityClass;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RowKey)) {
+                return false;
+            }
+            RowKey rowKey = (RowKey) o;
+            return entityClass == rowKey.entityClass && id.equals(rowKey.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * entityClass.hashCode() + id.hashCode();
+        }
+    }
+}
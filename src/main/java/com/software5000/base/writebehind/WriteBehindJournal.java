@@ -0,0 +1,499 @@
+package com.software5000.base.writebehind;
+
+import com.software5000.util.BpMybatisException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 延迟写入的本地日志
+ * <p>
+ * {@link WriteBehindBuffer} 中的插入、赋值、增量在进入内存前先追加到日志，进程崩溃后重启时重放未写入数据库的记录。
+ * <ul>
+ * <li>日志按段存放在目录中，每段是一个通过 NIO 内存映射的定长文件，追加只是一次内存拷贝</li>
+ * <li>每条记录为 长度(4字节) + CRC32(4字节) + 内容，重放时遇到长度为0或校验失败（写了一半的记录）即结束该段</li>
+ * <li>分组刷盘：并发追加的线程中只有一个执行 <code>force()</code>，其余线程等待并共享这次刷盘的结果</li>
+ * <li>数据库写入成功后记录检查点，检查点之前的整段日志直接删除，重放时跳过检查点之前的记录</li>
+ * </ul>
+ * 打开时最后一段还有空间的，从其中最后一条完整记录之后继续追加，避免每次重启都预分配一个新段；
+ * 写满切换段时解除旧段的内存映射，不依赖GC回收。
+ * 数据库写入成功到记录检查点之间崩溃时，重放会再次执行这些记录，赋值是幂等的，插入和增量会重复执行。
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class WriteBehindJournal implements AutoCloseable {
+
+    private Logger logger = LoggerFactory.getLogger(WriteBehindJournal.class);
+
+    /**
+     * 默认的单段大小
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int HEADER_SIZE = 8;
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("segment-(\\d{10})\\.log");
+
+    /**
+     * 解除内存映射，JDK 9+ 使用 Unsafe.invokeCleaner，JDK 8 使用 DirectByteBuffer 的 cleaner，都不可用时为空，交给GC回收
+     */
+    private static final Consumer<ByteBuffer> UNMAPPER = loadUnmapper();
+
+    private final File directory;
+    private final int segmentSize;
+
+    /**
+     * 旧的段，按段号排序
+     */
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+
+    private Segment current;
+
+    /**
+     * 打开时续写的段及其原有记录的结束位置，重放时只读到该位置
+     */
+    private final long reopenedSequence;
+    private final int reopenedEnd;
+
+    /**
+     * 已切换掉、等待解除映射的段，在没有线程刷盘时解除
+     */
+    private final List<MappedByteBuffer> retired = new ArrayList<>();
+
+    private long writtenLsn;
+    private volatile long durableLsn;
+    private volatile long checkpointLsn;
+    private boolean closed;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    public WriteBehindJournal(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory   日志目录，不存在时创建
+     * @param segmentSize 单段大小
+     */
+    public WriteBehindJournal(File directory, int segmentSize) {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be greater than " + HEADER_SIZE);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new BpMybatisException("create journal directory error : [" + directory + "]");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+                if (matcher.matches()) {
+                    segments.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+        this.checkpointLsn = readCheckpoint();
+        Segment reopened = segments.isEmpty() ? null : reopenSegment(segments.lastKey());
+        if (reopened != null) {
+            this.current = reopened;
+            this.reopenedSequence = reopened.sequence;
+            this.reopenedEnd = reopened.buffer.position();
+        } else {
+            this.current = openSegment(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+            this.reopenedSequence = -1;
+            this.reopenedEnd = 0;
+        }
+        this.writtenLsn = lsn(current.sequence, current.buffer.position());
+        this.durableLsn = writtenLsn;
+    }
+
+    /**
+     * 追加一条记录，返回后记录只在内存映射中，需要 {@link #sync(long)} 才能保证落盘
+     *
+     * @param record 记录
+     * @return 记录结束位置的日志序号
+     */
+    long append(JournalRecord record) {
+        byte[] payload = record.encode();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int size = HEADER_SIZE + payload.length;
+        if (size > segmentSize) {
+            throw new BpMybatisException("journal record size [" + size + "] exceeds segment size [" + segmentSize + "]");
+        }
+
+        synchronized (this) {
+            if (closed) {
+                throw new BpMybatisException("write behind journal is closed.");
+            }
+            if (current.buffer.remaining() < size) {
+                roll();
+            }
+            current.buffer.putInt(payload.length);
+            current.buffer.putInt((int) crc.getValue());
+            current.buffer.put(payload);
+            writtenLsn = lsn(current.sequence, current.buffer.position());
+            return writtenLsn;
+        }
+    }
+
+    /**
+     * 等待指定位置之前的记录落盘
+     * 已经有线程在刷盘时排队等待，轮到时如果前一次刷盘已经覆盖了该位置则直接返回
+     *
+     * @param lsn {@link #append(JournalRecord)} 返回的日志序号
+     */
+    void sync(long lsn) {
+        if (durableLsn >= lsn) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (durableLsn >= lsn) {
+                return;
+            }
+            MappedByteBuffer buffer;
+            long target;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                buffer = current.buffer;
+                target = writtenLsn;
+            }
+            // 之前的段在切换时已经刷盘，这里只需要刷当前段；持有 syncLock 期间该段不会被解除映射
+            buffer.force();
+            durableLsn = target;
+            synchronized (this) {
+                unmapRetired();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * @return 最后一条追加的记录的日志序号
+     */
+    synchronized long getWrittenLsn() {
+        return writtenLsn;
+    }
+
+    /**
+     * 重放检查点之后、旧的段中的所有记录
+     *
+     * @param consumer 记录的处理
+     * @return 重放的记录数
+     */
+    synchronized int replay(Consumer<JournalRecord> consumer) {
+        int[] records = new int[1];
+        for (Map.Entry<Long, File> entry : segments.entrySet()) {
+            try (FileChannel channel = FileChannel.open(entry.getValue().toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                try {
+                    if (entry.getKey() == reopenedSequence) {
+                        // 续写的段只重放打开前已有的记录
+                        buffer.limit(reopenedEnd);
+                    }
+                    readRecords(buffer, entry.getValue(), (position, payload) -> {
+                        if (lsn(entry.getKey(), position) > checkpointLsn) {
+                            consumer.accept(JournalRecord.decode(payload));
+                            records[0]++;
+                        }
+                    });
+                } finally {
+                    unmap(buffer);
+                }
+            } catch (IOException e) {
+                throw new BpMybatisException("replay journal segment error : [" + entry.getValue() + "]", e);
+            }
+        }
+        return records[0];
+    }
+
+    /**
+     * 依次读取一段中的完整记录，遇到长度为0或校验失败的记录时结束，结束后 buffer 的位置在最后一条完整记录之后
+     *
+     * @param buffer   段的内容
+     * @param file     段文件，用于日志
+     * @param consumer 记录结束位置和内容
+     * @throws IOException 记录解析失败
+     */
+    private void readRecords(ByteBuffer buffer, File file, RecordConsumer consumer) throws IOException {
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                return;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                logger.warn("journal segment [" + file.getName() + "] has a torn record at position [" + start + "], rest of the segment is ignored");
+                buffer.position(start);
+                return;
+            }
+            consumer.accept(buffer.position(), payload);
+        }
+    }
+
+    /**
+     * 记录检查点，该位置之前的记录已经写入数据库，不再需要重放
+     * 检查点之前的整段日志会被删除
+     *
+     * @param lsn 日志序号
+     */
+    synchronized void checkpoint(long lsn) {
+        if (lsn <= checkpointLsn) {
+            return;
+        }
+        writeCheckpoint(lsn);
+        checkpointLsn = lsn;
+
+        long sequence = lsn >>> 32;
+        while (!segments.isEmpty() && segments.firstKey() < sequence) {
+            File file = segments.pollFirstEntry().getValue();
+            if (!file.delete()) {
+                logger.warn("delete journal segment error : [" + file + "]");
+            }
+        }
+    }
+
+    /**
+     * 当前段写满时刷盘并切换到新的一段
+     */
+    private void roll() {
+        current.buffer.force();
+        closeQuietly(current);
+        segments.put(current.sequence, current.file);
+        durableLsn = Math.max(durableLsn, writtenLsn);
+        retired.add(current.buffer);
+        current = openSegment(current.sequence + 1);
+        // 有线程正在刷盘时它可能还在使用旧段，由它刷完后解除
+        if (syncLock.tryLock()) {
+            try {
+                unmapRetired();
+            } finally {
+                syncLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 解除已切换掉的段的映射，调用时需要持有 syncLock 和当前对象的锁
+     */
+    private void unmapRetired() {
+        retired.forEach(WriteBehindJournal::unmap);
+        retired.clear();
+    }
+
+    /**
+     * 续写最后一段，定位到最后一条完整记录之后；大小与当前配置不同或剩余空间不足一条记录时返回空
+     */
+    private Segment reopenSegment(long sequence) {
+        File file = segments.get(sequence);
+        if (file.length() != segmentSize) {
+            return null;
+        }
+        Segment segment;
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment = new Segment(sequence, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+            readRecords(segment.buffer, file, (position, payload) -> {
+            });
+        } catch (IOException e) {
+            throw new BpMybatisException("map journal segment error : [" + file + "]", e);
+        }
+        if (segment.buffer.remaining() <= HEADER_SIZE) {
+            closeQuietly(segment);
+            unmap(segment.buffer);
+            return null;
+        }
+        logger.debug("reopen journal segment [" + file.getName() + "] at position [" + segment.buffer.position() + "]");
+        return segment;
+    }
+
+    private Segment openSegment(long sequence) {
+        File file = new File(directory, String.format("segment-%010d.log", sequence));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(segmentSize);
+        } catch (IOException e) {
+            throw new BpMybatisException("create journal segment error : [" + file + "]", e);
+        }
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(sequence, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        } catch (IOException e) {
+            throw new BpMybatisException("map journal segment error : [" + file + "]", e);
+        }
+    }
+
+    private long readCheckpoint() {
+        File file = new File(directory, CHECKPOINT_FILE);
+        if (!file.exists()) {
+            return 0;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.readLong();
+        } catch (IOException e) {
+            throw new BpMybatisException("read journal checkpoint error : [" + file + "]", e);
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，避免崩溃时留下写了一半的检查点
+     */
+    private void writeCheckpoint(long lsn) {
+        File temp = new File(directory, CHECKPOINT_FILE + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(0);
+            raf.writeLong(lsn);
+            raf.getFD().sync();
+        } catch (IOException e) {
+            throw new BpMybatisException("write journal checkpoint error : [" + temp + "]", e);
+        }
+        try {
+            Files.move(temp.toPath(), new File(directory, CHECKPOINT_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new BpMybatisException("replace journal checkpoint error : [" + directory + "]", e);
+        }
+    }
+
+    /**
+     * 日志序号：高32位为段号，低32位为段内偏移
+     */
+    private static long lsn(long sequence, int position) {
+        return sequence << 32 | position;
+    }
+
+    private void closeQuietly(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            logger.warn("close journal segment error : [" + segment.file + "]", e);
+        }
+    }
+
+    /**
+     * 刷盘并关闭当前段
+     */
+    @Override
+    public void close() {
+        syncLock.lock();
+        try {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                current.buffer.force();
+                durableLsn = writtenLsn;
+                closeQuietly(current);
+                retired.add(current.buffer);
+                unmapRetired();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private static void unmap(ByteBuffer buffer) {
+        if (UNMAPPER != null) {
+            UNMAPPER.accept(buffer);
+        }
+    }
+
+    private static Consumer<ByteBuffer> loadUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (ReflectiveOperationException e) {
+                    LoggerFactory.getLogger(WriteBehindJournal.class).debug("unmap journal segment error", e);
+                }
+            };
+        } catch (NoSuchMethodException e) {
+            return loadJava8Unmapper();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LoggerFactory.getLogger(WriteBehindJournal.class).debug("unmap not available, journal segments are released by GC.", e);
+            return null;
+        }
+    }
+
+    private static Consumer<ByteBuffer> loadJava8Unmapper() {
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                try {
+                    Object bufferCleaner = cleaner.invoke(buffer);
+                    if (bufferCleaner != null) {
+                        clean.invoke(bufferCleaner);
+                    }
+                } catch (ReflectiveOperationException e) {
+                    LoggerFactory.getLogger(WriteBehindJournal.class).debug("unmap journal segment error", e);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LoggerFactory.getLogger(WriteBehindJournal.class).debug("unmap not available, journal segments are released by GC.", e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取到的一条记录
+     */
+    @FunctionalInterface
+    private interface RecordConsumer {
+        void accept(int position, byte[] payload) throws IOException;
+    }
+
+    /**
+     * 日志中的一段
+     */
+    private static final class Segment {
+        private final long sequence;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long sequence, File file, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -4,10 +4,13 @@ import com.google.common.base.CaseFormat;
 import com.software5000.base.BaseDao;
 import com.software5000.base.NotDatabaseField;
 import com.software5000.base.ValueUpdatePolicy;
+import com.software5000.base.Version;
 import net.sf.jsqlparser.expression.*;
+import net.sf.jsqlparser.expression.operators.arithmetic.Addition;
 import net.sf.jsqlparser.expression.operators.relational.*;
 import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.update.Update;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -19,6 +22,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class JsqlUtils {
@@ -28,6 +34,11 @@ public class JsqlUtils {
      */
     private static final String DEFAULT_ASC = "asc";
 
+    /**
+     * 实体类到乐观锁版本号字段名称的缓存
+     */
+    private static final Map<Class<?>, Optional<String>> VERSION_FIELDS = new ConcurrentHashMap<>();
+
     /**
      * 从给定的类中获取对应的数据库字段名称
      *
@@ -184,16 +195,7 @@ public class JsqlUtils {
      * @return 单个字段值
      */
     public static Expression getColumnValueFromEntity(Object entity, String fieldName) {
-        // 如果是蛇形需要转成驼峰
-        if (fieldName.indexOf(ClassUtil.UNDERLINE_CHAR) != -1) {
-            fieldName = JsqlUtils.transSnakeToCamel(fieldName);
-        }
-
-        // 如果是纯大写需要转为纯小写
-        String regex = "[A-Z]+";
-        if (fieldName.matches(regex)) {
-            fieldName = fieldName.toLowerCase();
-        }
+        fieldName = JsqlUtils.transColumnToFieldName(fieldName);
 
         // 如果是全局忽略的字段则直接跳过
         if (BaseDao.IGNORE_FILEDNAMES.indexOf(fieldName) > -1) {
@@ -218,6 +220,109 @@ public class JsqlUtils {
         return JsqlUtils.convertValueType(returnValue);
     }
 
+    /**
+     * 数据库列名转换为类属性名称
+     *
+     * @param columnName 数据库列名
+     * @return 类属性名称
+     */
+    public static String transColumnToFieldName(String columnName) {
+        String fieldName = columnName;
+        // 如果是蛇形需要转成驼峰
+        if (fieldName.indexOf(ClassUtil.UNDERLINE_CHAR) != -1) {
+            fieldName = JsqlUtils.transSnakeToCamel(fieldName);
+        }
+
+        // 如果是纯大写需要转为纯小写
+        String regex = "[A-Z]+";
+        if (fieldName.matches(regex)) {
+            fieldName = fieldName.toLowerCase();
+        }
+        return fieldName;
+    }
+
+    /**
+     * 获取实体类中 {@link Version} 注解的字段名称
+     *
+     * @param objClass 实体类
+     * @return 版本号字段名称，没有时为空
+     */
+    public static String getVersionFieldName(Class<?> objClass) {
+        return VERSION_FIELDS.computeIfAbsent(objClass, c -> getAllFieldsFromClass(c, null).stream()
+                .filter(f -> f.getAnnotation(Version.class) != null)
+                .map(Field::getName)
+                .findFirst()).orElse(null);
+    }
+
+    /**
+     * 计算下一个版本号，保持原有的类型
+     *
+     * @param version 当前版本号，为空时返回0
+     * @return 下一个版本号
+     */
+    public static Object nextVersion(Object version) {
+        if (version == null) {
+            return 0;
+        } else if (version instanceof Long) {
+            return (Long) version + 1;
+        } else if (version instanceof Integer) {
+            return (Integer) version + 1;
+        } else if (version instanceof Short) {
+            return (short) ((Short) version + 1);
+        }
+        throw new BpMybatisException("version type : [" + version.getClass().getName() + "] not support, use Integer/Long/Short.");
+    }
+
+    /**
+     * 更新语句中设置 <code>VERSION = VERSION + 1</code>，替换已有的版本号列
+     *
+     * @param update       更新语句
+     * @param versionField 版本号字段名称
+     */
+    public static void setVersionIncrement(Update update, String versionField) {
+        String versionColumn = transDbSchemesType(versionField);
+        for (int i = update.getColumns().size() - 1; i >= 0; i--) {
+            if (versionColumn.equals(update.getColumns().get(i).getColumnName())) {
+                update.getColumns().remove(i);
+                update.getExpressions().remove(i);
+            }
+        }
+        update.getColumns().add(new Column(versionColumn));
+        update.getExpressions().add(versionIncrement(versionField));
+    }
+
+    /**
+     * @param versionField 版本号字段名称
+     * @return <code>VERSION + 1</code>
+     */
+    public static Expression versionIncrement(String versionField) {
+        Addition addition = new Addition();
+        addition.setLeftExpression(new Column(transDbSchemesType(versionField)));
+        addition.setRightExpression(new LongValue(1));
+        return addition;
+    }
+
+    /**
+     * 设置实体的版本号
+     *
+     * @param entity       实体
+     * @param versionField 版本号字段名称
+     * @param version      版本号
+     */
+    public static void setVersion(Object entity, String versionField, Object version) {
+        try {
+            Class<?> type = getAllFieldsFromClass(entity.getClass(), null).stream()
+                    .filter(f -> f.getName().equals(versionField)).findFirst().get().getType();
+            Number number = (Number) version;
+            ClassUtil.setValueByField(entity, versionField, type == Long.class || type == long.class ? (Object) number.longValue()
+                    : type == Short.class || type == short.class ? (Object) number.shortValue() : (Object) number.intValue());
+        } catch (BpMybatisException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BpMybatisException("set version error, entity : [" + entity.getClass().getName() + "] field : [" + versionField + "]", e);
+        }
+    }
+
     /**
      * 根据字段值的实际类型转换为JSqlParser中的标准类型
      *
@@ -248,8 +353,8 @@ public class JsqlUtils {
             // A Date in the form {d 'yyyy-mm-dd'}
             return new DateValue(new SimpleDateFormat("yyyy-MM-dd").format((java.sql.Date) value));
         } else {
-            // 字符串要做防注入处理
-            return new StringValue(String.valueOf(value).trim().replace("'", "\\'"));
+            // 字符串要做防注入处理，转义规则由方言决定
+            return new StringValue(BaseDao.DIALECT.escapeLiteral(String.valueOf(value).trim()));
         }
     }
 
@@ -275,6 +380,24 @@ public class JsqlUtils {
 
     }
 
+    /**
+     * 从查询结果的行中按字段名取值
+     * 结果集中的列名大小写取决于数据库，这里同时兼容转换后的列名和原始字段名，并忽略大小写
+     *
+     * @param row       查询结果的一行
+     * @param fieldName 类属性名称
+     * @return 对应列的值
+     */
+    public static Object getValueFromRow(Map<String, Object> row, String fieldName) {
+        String columnName = JsqlUtils.transDbSchemesType(fieldName);
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(columnName) || entry.getKey().equalsIgnoreCase(fieldName)) {
+                return entry.getValue();
+            }
+        }
+        throw new BpMybatisException("the column : [" + columnName + "] not exist in result " + row.keySet());
+    }
+
     public static List<OrderByElement> getOrderByElementFromString(String orderBy) {
         if (!ValidUtil.valid(orderBy)) {
             return null;
@@ -384,6 +507,20 @@ public class JsqlUtils {
         return exp;
     }
 
+    /**
+     * 返回一个函数调用表达式
+     *
+     * @param name       函数名
+     * @param parameters 参数
+     * @return 函数调用表达式 如 COALESCE(a, b)
+     */
+    public static Function function(String name, Expression... parameters) {
+        Function function = new Function();
+        function.setName(name);
+        function.setParameters(new ExpressionList(Arrays.asList(parameters)));
+        return function;
+    }
+
     // endregion
 
     /**
@@ -426,5 +563,34 @@ public class JsqlUtils {
         }
     }
 
+    /**
+     * 跳过单引号字符串，<code>''</code> 总是转义，<code>\'</code> 只在当前方言中反斜杠为转义符时转义
+     *
+     * @param sql   sql语句
+     * @param start 左引号的位置
+     * @return 右引号之后的位置，字符串未结束时返回sql的长度
+     */
+    public static int skipQuoted(String sql, int start) {
+        boolean backslashEscapes = BaseDao.DIALECT.backslashEscapesInLiterals();
+        int i = start + 1;
+        int length = sql.length();
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\\' && backslashEscapes) {
+                i += 2;
+                continue;
+            }
+            if (c == '\'') {
+                if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return length;
+    }
+
 }
 
@@ -0,0 +1,35 @@
+package com.software5000.util;
+
+/**
+ * 乐观锁冲突：带版本号的更新没有更新到数据，数据已被其他事务修改或删除
+ * 调用方通常需要重新查询后重试
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class OptimisticLockException extends BpMybatisException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Class<?> entityClass;
+    private final Object version;
+
+    public OptimisticLockException(Class<?> entityClass, String condition, Object version) {
+        super("optimistic lock conflict, entity : [" + entityClass.getName() + "] condition : [" + condition + "] version : [" + version + "]");
+        this.entityClass = entityClass;
+        this.version = version;
+    }
+
+    /**
+     * @return 冲突的实体类
+     */
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return 更新时期望的版本号，多行合并更新时为空
+     */
+    public Object getVersion() {
+        return version;
+    }
+}
@@ -1,7 +1,15 @@
 package com.software5000.util;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * twitter的snowflake算法 -- java实现
+ * <p>
+ * 无锁实现：把 (时间戳, 序列号) 打包成一个long，通过CAS整体更新，不再使用同步锁。
+ * 可选的分段模式会把序列号的高位拆给多个子生成器，线程按id散列到不同的子生成器上，
+ * 进一步减少高并发下的CAS冲突，代价是同一毫秒内的id不再严格递增（跨毫秒仍然有序）。
  *
  * @author cc
  */
@@ -33,20 +41,71 @@ public class SnowFlake {
     private final static long DATACENTER_LEFT = SEQUENCE_BIT + MACHINE_BIT;
     private final static long TIMESTMP_LEFT = DATACENTER_LEFT + DATACENTER_BIT;
 
+    /**
+     * 分段模式最多拆分的位数，至少给每个子生成器留下 2^6 = 64 个序列号
+     */
+    private final static int MAX_STRIPE_BIT = 6;
+
+    /**
+     * 每个子生成器的状态在数组中间隔的位置，避免多个状态落在同一缓存行上产生伪共享
+     */
+    private final static int PADDING = 16;
+
+    /**
+     * 序列号用完之后，先让出CPU的次数，超过后改为挂起等待下一毫秒
+     */
+    private final static int YIELD_TIMES = 8;
+
     private long datacenterId;  //数据中心
     private long machineId;     //机器标识
-    private long sequence = 0L; //序列号
-    private long lastStmp = -1L;//上一次时间戳
+
+    /**
+     * 子生成器的状态：高位为相对起始时间的时间戳，低位为序列号
+     */
+    private final AtomicLongArray states;
+    private final int stripeMask;
+    private final long stripeSequenceBit;
+    private final long maxStripeSequence;
+
+    /**
+     * 数据中心和机器标识部分，生成时直接合并
+     */
+    private final long workerBits;
 
     public SnowFlake(long datacenterId, long machineId) {
+        this(datacenterId, machineId, 0);
+    }
+
+    /**
+     * 分段模式的构造函数
+     *
+     * @param datacenterId 数据中心
+     * @param machineId    机器标识
+     * @param stripeBit    拆分给子生成器的序列号位数，0为不拆分，最大为6（64个子生成器）
+     */
+    public SnowFlake(long datacenterId, long machineId, int stripeBit) {
         if (datacenterId > MAX_DATACENTER_NUM || datacenterId < 0) {
             throw new IllegalArgumentException("datacenterId can't be greater than MAX_DATACENTER_NUM or less than 0");
         }
         if (machineId > MAX_MACHINE_NUM || machineId < 0) {
             throw new IllegalArgumentException("machineId can't be greater than MAX_MACHINE_NUM or less than 0");
         }
+        if (stripeBit > MAX_STRIPE_BIT || stripeBit < 0) {
+            throw new IllegalArgumentException("stripeBit can't be greater than " + MAX_STRIPE_BIT + " or less than 0");
+        }
         this.datacenterId = datacenterId;
         this.machineId = machineId;
+        this.workerBits = datacenterId << DATACENTER_LEFT | machineId << MACHINE_LEFT;
+
+        int stripes = 1 << stripeBit;
+        this.stripeMask = stripes - 1;
+        this.stripeSequenceBit = SEQUENCE_BIT - stripeBit;
+        this.maxStripeSequence = -1L ^ (-1L << stripeSequenceBit);
+        this.states = new AtomicLongArray(stripes * PADDING);
+        // 初始状态为“上一毫秒的序列号已用完”，保证第一次生成时总是进入新的毫秒
+        for (int i = 0; i < stripes; i++) {
+            states.set(i * PADDING, -1L);
+        }
     }
 
     /**
@@ -54,44 +113,188 @@ public class SnowFlake {
      *
      * @return 返回id
      */
-    public synchronized long nextId() {
-        long currStmp = getNewstmp();
-        if (currStmp < lastStmp) {
-            throw new RuntimeException("Clock moved backwards.  Refusing to generate id");
+    public long nextId() {
+        int stripe = currentStripe();
+        int index = stripe * PADDING;
+        int waits = 0;
+        for (; ; ) {
+            long current = states.get(index);
+            long lastStmp = current >> stripeSequenceBit;
+            long currStmp = getNewstmp() - START_STMP;
+            if (currStmp < lastStmp) {
+                throw new RuntimeException("Clock moved backwards.  Refusing to generate id");
+            }
+
+            long next;
+            if (currStmp == lastStmp) {
+                //同一毫秒的序列数已经达到最大，退让等待下一毫秒
+                if ((current & maxStripeSequence) == maxStripeSequence) {
+                    backoff(waits++, lastStmp);
+                    continue;
+                }
+                //相同毫秒内，序列号自增
+                next = current + 1;
+            } else {
+                //不同毫秒内，序列号置为0
+                next = currStmp << stripeSequenceBit;
+            }
+
+            if (states.compareAndSet(index, current, next)) {
+                return compose(next >> stripeSequenceBit, (long) stripe << stripeSequenceBit | (next & maxStripeSequence));
+            }
         }
+    }
+
+    /**
+     * 批量产生ID
+     *
+     * @param n 需要的数量
+     * @return id数组，按生成顺序排列
+     */
+    public long[] nextIds(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n can't be less than 0");
+        }
+        long[] ids = new long[n];
+        nextIds(ids);
+        return ids;
+    }
+
+    /**
+     * 批量产生ID并填充到给定数组中
+     * 每次CAS直接预留当前毫秒内剩余的一段连续序列号，当前毫秒不够时顺延到下一毫秒继续预留
+     *
+     * @param dest 待填充的数组
+     */
+    public void nextIds(long[] dest) {
+        int stripe = currentStripe();
+        int index = stripe * PADDING;
+        long stripePrefix = (long) stripe << stripeSequenceBit;
+        int filled = 0;
+        int waits = 0;
+        while (filled < dest.length) {
+            long current = states.get(index);
+            long lastStmp = current >> stripeSequenceBit;
+            long currStmp = getNewstmp() - START_STMP;
+            if (currStmp < lastStmp) {
+                throw new RuntimeException("Clock moved backwards.  Refusing to generate id");
+            }
+
+            int remaining = dest.length - filled;
+            long firstSequence;
+            long reserved;
+            if (currStmp == lastStmp) {
+                long available = maxStripeSequence - (current & maxStripeSequence);
+                if (available == 0) {
+                    backoff(waits++, lastStmp);
+                    continue;
+                }
+                firstSequence = (current & maxStripeSequence) + 1;
+                reserved = Math.min(available, remaining);
+            } else {
+                firstSequence = 0;
+                reserved = Math.min(maxStripeSequence + 1, remaining);
+            }
 
-        if (currStmp == lastStmp) {
-            //相同毫秒内，序列号自增
-            sequence = (sequence + 1) & MAX_SEQUENCE;
-            //同一毫秒的序列数已经达到最大
-            if (sequence == 0L) {
-                currStmp = getNextMill();
+            long next = currStmp << stripeSequenceBit | (firstSequence + reserved - 1);
+            if (states.compareAndSet(index, current, next)) {
+                for (long sequence = firstSequence; sequence < firstSequence + reserved; sequence++) {
+                    dest[filled++] = compose(currStmp, stripePrefix | sequence);
+                }
+                waits = 0;
             }
-        } else {
-            //不同毫秒内，序列号置为0
-            sequence = 0L;
         }
+    }
+
+    /**
+     * 指定时间（毫秒）内可能生成的最小id，用于把时间范围转换为id范围
+     *
+     * @param timeMillis 时间戳
+     * @return 该毫秒内的最小id
+     */
+    public static long minIdForTime(long timeMillis) {
+        return Math.max(0, timeMillis - START_STMP) << TIMESTMP_LEFT;
+    }
+
+    /**
+     * 指定时间（毫秒）内可能生成的最大id，用于把时间范围转换为id范围
+     *
+     * @param timeMillis 时间戳
+     * @return 该毫秒内的最大id
+     */
+    public static long maxIdForTime(long timeMillis) {
+        if (timeMillis < START_STMP) {
+            return -1;
+        }
+        return minIdForTime(timeMillis) | ~(-1L << TIMESTMP_LEFT);
+    }
+
+    /**
+     * 从id中解析出生成时间
+     *
+     * @param id snowflake生成的id
+     * @return 生成时的时间戳
+     */
+    public static long getTimeMillis(long id) {
+        return (id >>> TIMESTMP_LEFT) + START_STMP;
+    }
 
-        lastStmp = currStmp;
+    /**
+     * 组装最终的id
+     *
+     * @param relativeStmp 相对起始时间的时间戳
+     * @param sequence     序列号部分
+     * @return id
+     */
+    private long compose(long relativeStmp, long sequence) {
+        return relativeStmp << TIMESTMP_LEFT //时间戳部分
+                | workerBits                  //数据中心、机器标识部分
+                | sequence;                   //序列号部分
+    }
 
-        return (currStmp - START_STMP) << TIMESTMP_LEFT //时间戳部分
-                | datacenterId << DATACENTER_LEFT       //数据中心部分
-                | machineId << MACHINE_LEFT             //机器标识部分
-                | sequence;                             //序列号部分
+    /**
+     * 当前线程对应的子生成器
+     *
+     * @return 子生成器序号
+     */
+    private int currentStripe() {
+        if (stripeMask == 0) {
+            return 0;
+        }
+        long threadId = Thread.currentThread().getId();
+        return (int) (threadId ^ (threadId >>> 16)) & stripeMask;
     }
 
-    private long getNextMill() {
-        long mill = getNewstmp();
-        while (mill <= lastStmp) {
-            mill = getNewstmp();
+    /**
+     * 序列号用完时的等待：先让出CPU，仍未进入下一毫秒时挂起到下一毫秒，不再忙等占用CPU
+     * 剩余时间按 currentTimeMillis 计算，nanoTime 的起点与毫秒时间戳无关
+     *
+     * @param waits    已等待的次数
+     * @param lastStmp 序列号已用完的毫秒，相对起始时间
+     */
+    private void backoff(int waits, long lastStmp) {
+        if (waits < YIELD_TIMES) {
+            Thread.yield();
+            return;
+        }
+        long remainingMillis = lastStmp + 1 - (getNewstmp() - START_STMP);
+        if (remainingMillis > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(remainingMillis));
         }
-        return mill;
     }
 
     private long getNewstmp() {
         return System.currentTimeMillis();
     }
 
+    public long getDatacenterId() {
+        return datacenterId;
+    }
+
+    public long getMachineId() {
+        return machineId;
+    }
+
     public static void main(String[] args) {
         SnowFlake snowFlake = new SnowFlake(2, 3);
 
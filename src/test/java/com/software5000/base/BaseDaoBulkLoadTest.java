@@ -0,0 +1,73 @@
+package com.software5000.base;
+
+import com.software5000.util.BpMybatisException;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BaseDaoBulkLoadTest {
+
+    private SqlSessionFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = H2TestSupport.factory("bulk_load_" + System.nanoTime(), H2TestSupport.TEST_USER_DDL);
+    }
+
+    @Test
+    public void bulkLoadThroughCsvRead() {
+        List<TestUser> users = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            users.add(new TestUser(null, i == 0 ? "a,\"b\"\nc" : i == 1 ? null : "user" + i, i == 2 ? null : i));
+        }
+
+        try (SqlSession sqlSession = factory.openSession(false)) {
+            long rows = new H2TestSupport.TestDao(sqlSession).bulkLoad(TestUser.class, users.iterator());
+            assertEquals(2500, rows);
+            sqlSession.commit(true);
+        }
+
+        assertEquals(2500L, count());
+        TestUser first = select(new TestUser(null, null, 0));
+        assertEquals("a,\"b\"\nc", first.getName());
+        assertNotNull(first.getCreateTime());
+        assertNull(select(new TestUser(null, null, 1)).getName());
+        assertNull(select(new TestUser(null, "user2", null)).getScore());
+    }
+
+    @Test
+    public void rejectMixedIds() {
+        List<TestUser> users = Arrays.asList(new TestUser(100L, "a", 1), new TestUser(null, "b", 2));
+        try (SqlSession sqlSession = factory.openSession(true)) {
+            new H2TestSupport.TestDao(sqlSession).bulkLoad(TestUser.class, users.iterator());
+            fail("mixed ids must be rejected");
+        } catch (BpMybatisException e) {
+            assertTrue(e.getMessage().contains("must all have id"));
+        }
+        assertEquals(0L, count());
+    }
+
+    private long count() {
+        try (SqlSession sqlSession = factory.openSession(true)) {
+            return sqlSession.<Long>selectOne("com.software5000.base.BaseDao.selectLongValue",
+                    Collections.singletonMap("baseSql", "SELECT COUNT(*) FROM TEST_USER"));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private TestUser select(TestUser example) {
+        try (SqlSession sqlSession = factory.openSession(true)) {
+            List<TestUser> users = new H2TestSupport.TestDao(sqlSession).selectEntities(example);
+            assertEquals(1, users.size());
+            return users.get(0);
+        }
+    }
+}
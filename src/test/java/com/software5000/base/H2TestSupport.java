@@ -0,0 +1,81 @@
+package com.software5000.base;
+
+import com.software5000.base.dialect.H2Dialect;
+import com.software5000.base.plugins.CommonInterceptor;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.datasource.unpooled.UnpooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.Statement;
+
+/**
+ * 测试用的 H2 内存库
+ * 映射文件不在 classpath 中，直接从源码目录加载
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public final class H2TestSupport {
+
+    /**
+     * {@link TestUser} 的表
+     */
+    public static final String TEST_USER_DDL = "CREATE TABLE TEST_USER (ID BIGINT AUTO_INCREMENT PRIMARY KEY, NAME VARCHAR(50), SCORE INT, "
+            + "CREATE_TIME TIMESTAMP, UPDATE_TIME TIMESTAMP)";
+
+    private static final String MAPPER = "src/main/java/com/software5000/biz/entity/mapping/BaseDaoMapper.xml";
+
+    private H2TestSupport() {
+    }
+
+    /**
+     * 创建内存库并执行建表语句
+     *
+     * @param name 库名，不同测试使用不同的库
+     * @param ddl  建表语句
+     * @return 加载了通用拦截器和 BaseDao 映射的 SqlSessionFactory
+     */
+    public static SqlSessionFactory factory(String name, String... ddl) throws Exception {
+        UnpooledDataSource dataSource = new UnpooledDataSource("org.h2.Driver", url(name), "sa", "");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            for (String sql : ddl) {
+                statement.execute(sql);
+            }
+        }
+        Configuration configuration = new Configuration(new Environment(name, new JdbcTransactionFactory(), dataSource));
+        configuration.addInterceptor(new CommonInterceptor());
+        try (InputStream in = new FileInputStream(MAPPER)) {
+            new XMLMapperBuilder(in, configuration, MAPPER, configuration.getSqlFragments()).parse();
+        }
+        return new SqlSessionFactoryBuilder().build(configuration);
+    }
+
+    public static String url(String name) {
+        return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * 使用一个固定会话的 BaseDao
+     */
+    public static class TestDao extends BaseDao {
+
+        private final SqlSession sqlSession;
+
+        public TestDao(SqlSession sqlSession) {
+            this.sqlSession = sqlSession;
+            initConfig(true, false, "serialVersionUID", new H2Dialect());
+        }
+
+        @Override
+        public SqlSession getSqlSession() {
+            return sqlSession;
+        }
+    }
+}
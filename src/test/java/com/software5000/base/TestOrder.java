@@ -0,0 +1,56 @@
+package com.software5000.base;
+
+import java.sql.Timestamp;
+
+/**
+ * 测试实体，对应表 TEST_ORDER，在测试中按需要加上引用 TEST_USER 的外键
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class TestOrder {
+
+    private Long id;
+    private Long userId;
+    private Timestamp createTime;
+    private Timestamp updateTime;
+
+    public TestOrder() {
+    }
+
+    public TestOrder(Long id, Long userId) {
+        this.id = id;
+        this.userId = userId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Timestamp getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Timestamp createTime) {
+        this.createTime = createTime;
+    }
+
+    public Timestamp getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(Timestamp updateTime) {
+        this.updateTime = updateTime;
+    }
+}
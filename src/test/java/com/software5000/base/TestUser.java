@@ -0,0 +1,71 @@
+package com.software5000.base;
+
+import java.sql.Timestamp;
+
+/**
+ * 测试实体，对应表 TEST_USER（{@link H2TestSupport#TEST_USER_DDL}），主键由数据库生成或手动指定
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class TestUser {
+
+    private Long id;
+    private String name;
+    private Integer score;
+    private Timestamp createTime;
+    private Timestamp updateTime;
+
+    public TestUser() {
+    }
+
+    public TestUser(Long id, String name, Integer score) {
+        this.id = id;
+        this.name = name;
+        this.score = score;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Integer getScore() {
+        return score;
+    }
+
+    public void setScore(Integer score) {
+        this.score = score;
+    }
+
+    public Timestamp getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Timestamp createTime) {
+        this.createTime = createTime;
+    }
+
+    public Timestamp getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(Timestamp updateTime) {
+        this.updateTime = updateTime;
+    }
+
+    @Override
+    public String toString() {
+        return "TestUser{" + id + ", " + name + ", " + score + "}";
+    }
+}
@@ -0,0 +1,173 @@
+package com.software5000.base;
+
+import com.software5000.base.writebehind.TestCounter;
+import com.software5000.util.OptimisticLockException;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UnitOfWorkTest {
+
+    private static final String TEST_ORDER_DDL = "CREATE TABLE TEST_ORDER (ID BIGINT PRIMARY KEY, USER_ID BIGINT, "
+            + "CREATE_TIME TIMESTAMP, UPDATE_TIME TIMESTAMP)";
+    private static final String TEST_ORDER_FK = "ALTER TABLE TEST_ORDER ADD FOREIGN KEY (USER_ID) REFERENCES TEST_USER (ID)";
+    private static final String TEST_COUNTER_DDL = "CREATE TABLE TEST_COUNTER (ID BIGINT PRIMARY KEY, HITS BIGINT, VERSION INT, "
+            + "CREATE_TIME TIMESTAMP, UPDATE_TIME TIMESTAMP)";
+
+    private SqlSession sqlSession;
+    private CountingDao dao;
+
+    @Before
+    public void setUp() throws Exception {
+        sqlSession = database("unit_of_work_" + System.nanoTime(), true).openSession(false);
+        dao = new CountingDao(sqlSession);
+        dao.insertEntities(Arrays.asList(new TestUser(1L, "a", 0), new TestUser(2L, "b", 0), new TestUser(3L, "c", 0)));
+        sqlSession.commit(true);
+        dao.updates = 0;
+    }
+
+    @After
+    public void tearDown() {
+        sqlSession.close();
+    }
+
+    @Test
+    public void repeatedUpdatesAreMergedIntoOneCaseUpdate() {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(dao)) {
+            unitOfWork.registerUpdate(new TestUser(1L, "x", null), "id");
+            unitOfWork.registerUpdate(new TestUser(1L, null, 7), "id");
+            unitOfWork.registerUpdate(new TestUser(1L, "y", null), "id");
+            unitOfWork.registerUpdate(new TestUser(2L, null, 8), "id");
+            unitOfWork.registerUpdate(new TestUser(3L, "z", null), "id");
+            unitOfWork.commit();
+        }
+        assertEquals(1, dao.updates);
+        assertUser(1L, "y", 7);
+        assertUser(2L, "b", 8);
+        assertUser(3L, "z", 0);
+    }
+
+    @Test
+    public void insertThenDeleteWritesNothing() {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(dao)) {
+            TestUser user = unitOfWork.registerInsert(new TestUser(5L, "e", 0));
+            unitOfWork.registerUpdate(user, "id");
+            unitOfWork.registerDelete(user, "id");
+            assertEquals(0, unitOfWork.flush());
+            unitOfWork.commit();
+        }
+        assertTrue(dao.selectEntities(new TestUser(5L, null, null)).isEmpty());
+    }
+
+    @Test
+    public void flushFollowsForeignKeys() {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(dao)) {
+            // 子表先登记，插入时父表在前
+            unitOfWork.registerInsert(new TestOrder(10L, 4L));
+            unitOfWork.registerInsert(new TestUser(4L, "d", 0));
+            unitOfWork.commit();
+        }
+        assertEquals(1, dao.selectEntities(new TestOrder(10L, null)).size());
+
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(dao)) {
+            // 父表先登记，删除时子表在前
+            unitOfWork.registerDelete(new TestUser(4L, null, null), "id");
+            unitOfWork.registerDelete(new TestOrder(10L, null), "id");
+            unitOfWork.commit();
+        }
+        assertTrue(dao.selectEntities(new TestOrder(10L, null)).isEmpty());
+        assertTrue(dao.selectEntities(new TestUser(4L, null, null)).isEmpty());
+    }
+
+    @Test
+    public void foreignKeysAreReadPerDatabase() throws Exception {
+        // 先在没有外键的库中使用同名的表
+        try (SqlSession other = database("unit_of_work_no_fk_" + System.nanoTime(), false).openSession(false)) {
+            insertOrderBeforeUser(new CountingDao(other));
+        }
+        insertOrderBeforeUser(dao);
+        assertEquals(1, dao.selectEntities(new TestOrder(10L, null)).size());
+    }
+
+    @Test
+    public void versionConflictIsThrown() {
+        dao.insertEntities(Arrays.asList(new TestCounter(1L, 0L), new TestCounter(2L, 0L)));
+        sqlSession.commit(true);
+
+        TestCounter first = new TestCounter(1L, 5L);
+        first.setVersion(0);
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(dao)) {
+            unitOfWork.registerUpdate(first, "id");
+            unitOfWork.commit();
+        }
+        assertEquals(Integer.valueOf(1), first.getVersion());
+
+        // 另一个事务已经修改了第二行
+        execute("UPDATE TEST_COUNTER SET VERSION = 1 WHERE ID = 2");
+        TestCounter stale = new TestCounter(2L, 6L);
+        stale.setVersion(0);
+        first.setHits(7L);
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(dao)) {
+            unitOfWork.registerUpdate(first, "id");
+            unitOfWork.registerUpdate(stale, "id");
+            unitOfWork.commit();
+            fail("stale version must be rejected");
+        } catch (OptimisticLockException expected) {
+            sqlSession.rollback(true);
+        }
+        TestCounter current = (TestCounter) dao.selectEntities(new TestCounter(1L, null)).get(0);
+        assertEquals(Long.valueOf(5), current.getHits());
+    }
+
+    private static void insertOrderBeforeUser(BaseDao baseDao) {
+        try (UnitOfWork unitOfWork = UnitOfWork.begin(baseDao)) {
+            unitOfWork.registerInsert(new TestOrder(10L, 4L));
+            unitOfWork.registerInsert(new TestUser(4L, "d", 0));
+            unitOfWork.commit();
+        }
+    }
+
+    private static SqlSessionFactory database(String name, boolean foreignKey) throws Exception {
+        return foreignKey
+                ? H2TestSupport.factory(name, H2TestSupport.TEST_USER_DDL, TEST_ORDER_DDL, TEST_ORDER_FK, TEST_COUNTER_DDL)
+                : H2TestSupport.factory(name, H2TestSupport.TEST_USER_DDL, TEST_ORDER_DDL, TEST_COUNTER_DDL);
+    }
+
+    private void assertUser(Long id, String name, Integer score) {
+        List<?> users = dao.selectEntities(new TestUser(id, null, null));
+        assertEquals(1, users.size());
+        assertEquals(name, ((TestUser) users.get(0)).getName());
+        assertEquals(score, ((TestUser) users.get(0)).getScore());
+    }
+
+    private void execute(String sql) {
+        sqlSession.update("com.software5000.base.BaseDao.updateEntities", Collections.singletonMap("baseSql", sql));
+        sqlSession.commit(true);
+    }
+
+    /**
+     * 记录更新语句执行次数的 dao
+     */
+    private static class CountingDao extends H2TestSupport.TestDao {
+
+        private int updates;
+
+        private CountingDao(SqlSession sqlSession) {
+            super(sqlSession);
+        }
+
+        @Override
+        public int update(String sqlName, Object obj) {
+            updates++;
+            return super.update(sqlName, obj);
+        }
+    }
+}
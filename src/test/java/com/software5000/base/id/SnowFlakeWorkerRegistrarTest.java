@@ -0,0 +1,77 @@
+package com.software5000.base.id;
+
+import com.software5000.base.BaseDao;
+import com.software5000.base.H2TestSupport;
+import com.software5000.util.BpMybatisException;
+import com.software5000.util.SnowFlake;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SnowFlakeWorkerRegistrarTest {
+
+    private BaseDao baseDao;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDao = new H2TestSupport.TestDao(H2TestSupport.factory("snowflake_worker_" + System.nanoTime(),
+                "CREATE TABLE SNOW_FLAKE_WORKER (DATACENTER_ID INT NOT NULL, MACHINE_ID INT NOT NULL, OWNER VARCHAR(128) NOT NULL, "
+                        + "LEASE_EXPIRE BIGINT NOT NULL, CREATE_TIME TIMESTAMP, UPDATE_TIME TIMESTAMP, PRIMARY KEY (DATACENTER_ID, MACHINE_ID))")
+                .openSession(true));
+    }
+
+    @Test
+    public void registerClaimsDistinctSlots() {
+        try (SnowFlakeWorkerRegistrar first = new SnowFlakeWorkerRegistrar(baseDao, 60_000, 1);
+             SnowFlakeWorkerRegistrar second = new SnowFlakeWorkerRegistrar(baseDao, 60_000, 1)) {
+            SnowFlake a = first.register();
+            SnowFlake b = second.register();
+            assertEquals(1, a.getDatacenterId());
+            assertNotEquals(a.getMachineId(), b.getMachineId());
+            assertNotEquals(a.nextId(), b.nextId());
+        }
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOverOnlyAfterClockSkew() {
+        long now = System.currentTimeMillis();
+        for (int machine = 0; machine <= 31; machine++) {
+            long expire = machine == 5 ? now - 2_000 : now + 60_000;
+            execute("INSERT INTO SNOW_FLAKE_WORKER (DATACENTER_ID, MACHINE_ID, OWNER, LEASE_EXPIRE) VALUES (1, " + machine + ", 'other', " + expire + ")");
+        }
+
+        try (SnowFlakeWorkerRegistrar registrar = new SnowFlakeWorkerRegistrar(baseDao, 60_000, 1, 10_000)) {
+            registrar.register();
+            fail("lease expired within the clock skew must not be taken over");
+        } catch (BpMybatisException e) {
+            assertTrue(e.getMessage().contains("no free snowflake worker slot"));
+        }
+
+        try (SnowFlakeWorkerRegistrar registrar = new SnowFlakeWorkerRegistrar(baseDao, 60_000, 1, 1_000)) {
+            SnowFlake snowFlake = registrar.register();
+            assertEquals(5, snowFlake.getMachineId());
+            assertTrue(registrar.isLeaseValid());
+        }
+    }
+
+    @Test
+    public void releasedSnowFlakeRefusesToGenerate() {
+        SnowFlakeWorkerRegistrar registrar = new SnowFlakeWorkerRegistrar(baseDao, 60_000, 1);
+        SnowFlake snowFlake = registrar.register();
+        snowFlake.nextId();
+        registrar.close();
+        try {
+            snowFlake.nextId();
+            fail("released lease must not generate id");
+        } catch (BpMybatisException e) {
+            assertFalse(registrar.isLeaseValid());
+        }
+    }
+
+    private void execute(String sql) {
+        baseDao.getSqlSession().update("com.software5000.base.BaseDao.updateEntities", Collections.singletonMap("baseSql", sql));
+    }
+}
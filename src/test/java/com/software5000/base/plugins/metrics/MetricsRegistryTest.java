@@ -0,0 +1,72 @@
+package com.software5000.base.plugins.metrics;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void closeOnlyUnregistersOwnBeans() throws Exception {
+        MetricsRegistry first = new MetricsRegistry();
+        MetricsRegistry second = new MetricsRegistry();
+        try {
+            StatementMetrics firstMetrics = first.statement("test.shared");
+            first.table("first_table");
+            StatementMetrics secondMetrics = second.statement("test.shared");
+            second.table("second_table");
+
+            // 同名MBean不会被后创建的注册中心覆盖
+            firstMetrics.record(10, 1, 0, false);
+            assertNotSame(firstMetrics, secondMetrics);
+            assertEquals(1L, server.getAttribute(statementName("test.shared"), "Count"));
+
+            first.close();
+            assertFalse(server.isRegistered(statementName("test.shared")));
+            assertFalse(server.isRegistered(tableName("first_table")));
+            assertTrue(server.isRegistered(tableName("second_table")));
+        } finally {
+            first.close();
+            second.close();
+        }
+        assertFalse(server.isRegistered(tableName("second_table")));
+    }
+
+    @Test
+    public void reportSnapshotsAndResets() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.setJmxEnabled(false);
+        registry.setResetAfterReport(true);
+        int[] reported = {0};
+        registry.addReporter((statements, tables) -> {
+            assertEquals(1, statements.size());
+            MetricsSnapshot statement = statements.iterator().next();
+            assertEquals("test.select", statement.getName());
+            assertEquals(2, statement.getCount());
+            assertEquals("TEST_USER", tables.iterator().next().getName());
+            reported[0]++;
+        });
+        registry.statement("test.select").record(100, 0, 3, false);
+        registry.statement("test.select").record(200, 0, 4, false);
+        registry.table("TEST_USER").record(300, 0, 7, false);
+        registry.report();
+
+        assertEquals(1, reported[0]);
+        assertEquals(0, registry.statement("test.select").getCount());
+        registry.close();
+    }
+
+    private static ObjectName statementName(String name) throws Exception {
+        return new ObjectName(MetricsRegistry.DEFAULT_JMX_DOMAIN + ":type=StatementMetrics,name=" + ObjectName.quote(name));
+    }
+
+    private static ObjectName tableName(String name) throws Exception {
+        return new ObjectName(MetricsRegistry.DEFAULT_JMX_DOMAIN + ":type=TableMetrics,name=" + ObjectName.quote(name));
+    }
+}
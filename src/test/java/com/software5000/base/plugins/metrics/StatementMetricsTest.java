@@ -0,0 +1,54 @@
+package com.software5000.base.plugins.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StatementMetricsTest {
+
+    @Test
+    public void recordCountsRowsAndErrors() {
+        StatementMetrics metrics = new StatementMetrics("test.update");
+        metrics.record(100, 2, 0, false);
+        metrics.record(300, 0, 5, false);
+        metrics.record(50, 0, 0, true);
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals("test.update", snapshot.getName());
+        assertEquals(3, snapshot.getCount());
+        assertEquals(1, snapshot.getErrorCount());
+        assertEquals(2, snapshot.getRowsAffected());
+        assertEquals(5, snapshot.getRowsFetched());
+        assertEquals(150.0, snapshot.getMeanMicros(), 0.001);
+        assertEquals(300, snapshot.getMaxMicros());
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount());
+        assertEquals(0, metrics.getErrorCount());
+        assertEquals(0, metrics.getRowsAffected());
+        assertEquals(0, metrics.getMaxMicros());
+    }
+
+    @Test
+    public void percentilesStayWithinBucketError() {
+        StatementMetrics metrics = new StatementMetrics("test.select");
+        for (int micros = 1; micros <= 10_000; micros++) {
+            metrics.record(micros, 0, 1, false);
+        }
+        assertPercentile(5_000, metrics.getP50Micros());
+        assertPercentile(9_500, metrics.getP95Micros());
+        assertPercentile(9_900, metrics.getP99Micros());
+        assertPercentile(9_990, metrics.getP999Micros());
+        assertEquals(10_000, metrics.getMaxMicros());
+
+        // 小于子桶数的值精确记录
+        StatementMetrics small = new StatementMetrics("test.small");
+        small.record(7, 0, 0, false);
+        assertEquals(7, small.getP99Micros());
+    }
+
+    private static void assertPercentile(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.07);
+    }
+}
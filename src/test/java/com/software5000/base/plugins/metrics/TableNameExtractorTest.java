@@ -0,0 +1,46 @@
+package com.software5000.base.plugins.metrics;
+
+import com.software5000.base.BaseDao;
+import com.software5000.base.dialect.Dialect;
+import com.software5000.base.dialect.MySqlDialect;
+import com.software5000.base.dialect.PostgreSqlDialect;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TableNameExtractorTest {
+
+    @Test
+    public void extractMainTable() {
+        assertEquals("TEST_USER", TableNameExtractor.extract("SELECT ID, NAME FROM TEST_USER WHERE ID = ?"));
+        assertEquals("TEST_USER", TableNameExtractor.extract("insert into `TEST_USER` (ID) values (?)"));
+        assertEquals("TEST_USER", TableNameExtractor.extract("UPDATE \"TEST_USER\" SET NAME = ? WHERE ID = ?"));
+        assertEquals("TEST_USER", TableNameExtractor.extract("DELETE FROM TEST_USER WHERE ID IN (?, ?)"));
+        assertEquals("TEST_USER", TableNameExtractor.extract("MERGE INTO TEST_USER KEY (ID) VALUES (?, ?)"));
+        assertNull(TableNameExtractor.extract("CALL NEXT VALUE FOR SEQ"));
+        assertNull(TableNameExtractor.extract("   "));
+        assertNull(TableNameExtractor.extract(null));
+    }
+
+    @Test
+    public void skipLiteralsCommentsAndSubqueries() {
+        assertEquals("TEST_USER", TableNameExtractor.extract("/* from X */ SELECT 'from Y' AS A FROM TEST_USER"));
+        assertEquals("TEST_USER", TableNameExtractor.extract("-- from X\nSELECT * FROM TEST_USER"));
+        assertEquals("TEST_USER", TableNameExtractor.extract("SELECT (SELECT MAX(ID) FROM TEST_ORDER) FROM TEST_USER"));
+        assertEquals("TEST_ORDER", TableNameExtractor.extract("SELECT COUNT(*) FROM (SELECT * FROM TEST_ORDER) T"));
+        assertEquals("TEST_USER", TableNameExtractor.extract("SELECT 'it''s from X' FROM TEST_USER"));
+    }
+
+    @Test
+    public void backslashEscapesFollowDialect() {
+        Dialect dialect = BaseDao.DIALECT;
+        try {
+            BaseDao.DIALECT = new PostgreSqlDialect();
+            assertEquals("TEST_USER", TableNameExtractor.extract("SELECT 'C:\\' FROM TEST_USER WHERE NAME = 'from X'"));
+            BaseDao.DIALECT = new MySqlDialect();
+            assertEquals("TEST_USER", TableNameExtractor.extract("SELECT 'from \\' X' FROM TEST_USER"));
+        } finally {
+            BaseDao.DIALECT = dialect;
+        }
+    }
+}
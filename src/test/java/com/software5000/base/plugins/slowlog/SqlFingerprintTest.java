@@ -0,0 +1,61 @@
+package com.software5000.base.plugins.slowlog;
+
+import com.software5000.base.BaseDao;
+import com.software5000.base.dialect.Dialect;
+import com.software5000.base.dialect.MySqlDialect;
+import com.software5000.base.dialect.PostgreSqlDialect;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SqlFingerprintTest {
+
+    private Dialect dialect;
+
+    @Before
+    public void setUp() {
+        dialect = BaseDao.DIALECT;
+    }
+
+    @After
+    public void tearDown() {
+        BaseDao.DIALECT = dialect;
+    }
+
+    @Test
+    public void literalsAreReplaced() {
+        BaseDao.DIALECT = new MySqlDialect();
+        assertEquals("select id, name from test_user where name = ? and score >= ? and flag = ? and id in (?+)",
+                SqlFingerprint.of("SELECT ID, NAME FROM TEST_USER\n WHERE NAME = 'it''s' AND SCORE >= -1.5e3 AND FLAG = TRUE AND ID IN (1, 2, 3)"));
+        assertEquals("select * from test_user where name is null and score is not null and update_time > ?",
+                SqlFingerprint.of("select * /* hint */ from test_user where name is null -- comment\n and score is not null and update_time > {ts '2019-01-01 00:00:00'}"));
+        assertEquals("update test_user set score = score - ? where id = ?",
+                SqlFingerprint.of("update test_user set score = score - 1 where id = 0x1F"));
+    }
+
+    @Test
+    public void valueRowsAreCollapsed() {
+        BaseDao.DIALECT = new MySqlDialect();
+        String fingerprint = SqlFingerprint.of("INSERT INTO TEST_USER (ID, NAME) VALUES (1, 'a'), (2, NULL), (3, 'c')");
+        assertEquals("insert into test_user (id, name) values (?+)", fingerprint);
+        assertEquals(fingerprint, SqlFingerprint.of("INSERT INTO TEST_USER (ID, NAME) VALUES (4, 'd')"));
+        assertEquals(SqlFingerprint.id(fingerprint), SqlFingerprint.id(SqlFingerprint.of("insert into test_user (id, name) values (5, 'e'), (6, 'f')")));
+        assertNotEquals(SqlFingerprint.id(fingerprint), SqlFingerprint.id("insert into test_order (id, name) values (?+)"));
+    }
+
+    @Test
+    public void backslashEscapesFollowDialect() {
+        // PostgreSQL 与 H2 中反斜杠不是转义符，'C:\' 是一个完整的字面量
+        BaseDao.DIALECT = new PostgreSqlDialect();
+        assertEquals("select * from test_user where name = ? and score = ?",
+                SqlFingerprint.of("SELECT * FROM TEST_USER WHERE NAME = 'C:\\' AND SCORE = 1"));
+
+        BaseDao.DIALECT = new MySqlDialect();
+        assertEquals("select * from test_user where name = ? and score = ?",
+                SqlFingerprint.of("SELECT * FROM TEST_USER WHERE NAME = 'C:\\\\' AND SCORE = 1"));
+        assertEquals("select * from test_user where name = ? and score = ?",
+                SqlFingerprint.of("SELECT * FROM TEST_USER WHERE NAME = 'it\\'s' AND SCORE = 1"));
+    }
+}
@@ -0,0 +1,183 @@
+package com.software5000.base.routing;
+
+import com.github.pagehelper.PageHelper;
+import com.github.pagehelper.PageInterceptor;
+import com.software5000.base.H2TestSupport;
+import com.software5000.base.TestUser;
+import com.software5000.base.id.SequenceIdGenerator;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RoutingSqlSessionTest {
+
+    private static final String SELECT = "com.software5000.base.BaseDao.selectEntities";
+    private static final String UPDATE = "com.software5000.base.BaseDao.updateEntities";
+    private static final long STICKY_MILLIS = 300;
+
+    private SqlSession primarySession;
+    private SqlSessionFactory replica1;
+    private SqlSessionFactory replica2;
+
+    @Before
+    public void setUp() throws Exception {
+        String prefix = "routing_" + System.nanoTime() + "_";
+        primarySession = database(prefix + "primary", "primary").openSession(true);
+        replica1 = database(prefix + "r1", "r1");
+        replica2 = database(prefix + "r2", "r2");
+    }
+
+    @After
+    public void tearDown() {
+        primarySession.close();
+    }
+
+    @Test
+    public void readsAreSpreadOverReplicas() {
+        RoutingSqlSession session = routing(primarySession);
+        Set<String> sources = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            sources.add(source(session, "SELECT NAME FROM TEST_USER"));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("r1", "r2")), sources);
+    }
+
+    @Test
+    public void readsStickToPrimaryAfterWrite() throws InterruptedException {
+        RoutingSqlSession session = routing(primarySession);
+        write(session);
+        assertEquals("uncommitted write reads from primary", "primary", source(session, "SELECT NAME FROM TEST_USER"));
+
+        session.commit();
+        assertEquals("read your writes within the sticky window", "primary", source(session, "SELECT NAME FROM TEST_USER"));
+
+        Thread.sleep(STICKY_MILLIS + 50);
+        assertNotEquals("primary", source(session, "SELECT NAME FROM TEST_USER"));
+    }
+
+    @Test
+    public void failedCommitStillEndsTransaction() throws InterruptedException {
+        SqlSession failingCommit = (SqlSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{SqlSession.class},
+                (proxy, method, args) -> {
+                    if ("commit".equals(method.getName())) {
+                        throw new UnsupportedOperationException("manual commit is not allowed");
+                    }
+                    try {
+                        return method.invoke(primarySession, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        RoutingSqlSession session = routing(failingCommit);
+        write(session);
+        try {
+            session.commit();
+            fail("commit should fail");
+        } catch (UnsupportedOperationException expected) {
+            // 与 SqlSessionTemplate 相同
+        }
+
+        Thread.sleep(STICKY_MILLIS + 50);
+        assertNotEquals("primary", source(session, "SELECT NAME FROM TEST_USER"));
+    }
+
+    @Test
+    public void lockingReadsUsePrimary() {
+        RoutingSqlSession session = routing(primarySession);
+        assertEquals("primary", source(session, "SELECT NAME FROM TEST_USER FOR UPDATE"));
+        assertEquals("primary", session.usePrimary(() -> source(session, "SELECT NAME FROM TEST_USER")));
+    }
+
+    @Test
+    public void sequenceReadsUsePrimary() {
+        write(primarySession, "CREATE SEQUENCE TEST_USER_SEQ START WITH 100");
+        for (SqlSessionFactory replica : Arrays.asList(replica1, replica2)) {
+            try (SqlSession session = replica.openSession(true)) {
+                write(session, "CREATE SEQUENCE TEST_USER_SEQ START WITH 900");
+            }
+        }
+        H2TestSupport.TestDao dao = new H2TestSupport.TestDao(routing(primarySession));
+        SequenceIdGenerator generator = new SequenceIdGenerator();
+
+        assertEquals(100L, generator.nextId(dao, TestUser.class));
+        assertArrayEquals(new Object[]{101L, 102L, 103L}, generator.nextIds(dao, TestUser.class, 3));
+        // 从库未被标记为不可用
+        Set<String> sources = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            sources.add(source(dao.getSqlSession(), "SELECT NAME FROM TEST_USER"));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("r1", "r2")), sources);
+    }
+
+    @Test
+    public void failedReplicaFallsBackToPrimary() {
+        try (SqlSession r1 = replica1.openSession(true)) {
+            r1.update(UPDATE, Collections.singletonMap("baseSql", "DROP TABLE TEST_USER"));
+        }
+        RoutingSqlSession session = routing(primarySession);
+
+        // 轮询先选到 r1，失败后本次改用主库，之后 r1 被标记为不可用
+        assertEquals("primary", source(session, "SELECT NAME FROM TEST_USER"));
+        for (int i = 0; i < 4; i++) {
+            assertEquals("r2", source(session, "SELECT NAME FROM TEST_USER"));
+        }
+    }
+
+    @Test
+    public void pagedReadsAreNotHedged() {
+        for (SqlSessionFactory replica : Arrays.asList(replica1, replica2)) {
+            replica.getConfiguration().addInterceptor(new PageInterceptor());
+            try (SqlSession session = replica.openSession(true)) {
+                write(session, "INSERT INTO TEST_USER (NAME, SCORE) SELECT 'more', X FROM SYSTEM_RANGE(1, 10)");
+            }
+        }
+        RoutingSqlSession session = routing(primarySession);
+        // 以最低的分位数开启对冲，样本足够后每次查询都会对冲
+        session.enableHedging(0.01, 1);
+        for (int i = 0; i < 200; i++) {
+            source(session, "SELECT NAME FROM TEST_USER");
+        }
+
+        for (int i = 0; i < 20; i++) {
+            PageHelper.startPage(1, 2);
+            List<Map<String, Object>> rows = session.selectList(SELECT, Collections.singletonMap("baseSql", "SELECT NAME FROM TEST_USER"));
+            assertEquals(2, rows.size());
+            assertNull("page parameter must be consumed on the calling thread", PageHelper.getLocalPage());
+        }
+    }
+
+    private RoutingSqlSession routing(SqlSession primary) {
+        return new RoutingSqlSession(primary, Arrays.asList(replica1, replica2), ReplicaPolicy.ROUND_ROBIN, STICKY_MILLIS);
+    }
+
+    private static SqlSessionFactory database(String name, String source) throws Exception {
+        return H2TestSupport.factory(name, H2TestSupport.TEST_USER_DDL,
+                "INSERT INTO TEST_USER (NAME, SCORE) VALUES ('" + source + "', 0)");
+    }
+
+    private static String source(SqlSession session, String sql) {
+        List<Map<String, Object>> rows = session.selectList(SELECT, Collections.singletonMap("baseSql", sql));
+        return (String) rows.get(0).get("NAME");
+    }
+
+    private static void write(SqlSession session) {
+        write(session, "UPDATE TEST_USER SET SCORE = SCORE + 1");
+    }
+
+    private static void write(SqlSession session, String sql) {
+        session.update(UPDATE, Collections.singletonMap("baseSql", sql));
+    }
+}
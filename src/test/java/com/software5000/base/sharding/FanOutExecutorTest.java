@@ -0,0 +1,140 @@
+package com.software5000.base.sharding;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.software5000.util.BpMybatisException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FanOutExecutorTest {
+
+    /**
+     * 每个目标的行数超过读取缓冲，读取线程会等待归并
+     */
+    private static final int ROWS = 1000;
+
+    @Test
+    public void mergeKeepsOrderAndLimit() {
+        FanOutExecutor executor = new FanOutExecutor(2);
+        List<FanOutExecutor.Source<Integer>> sources = Arrays.asList(range(0, 3), range(1, 3), range(2, 3));
+        List<Integer> merged = executor.merge(sources, Comparator.naturalOrder(), 10);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), merged);
+        assertEquals(3 * ROWS, executor.merge(sources, null, 0).size());
+    }
+
+    @Test(timeout = 60_000)
+    public void concurrentMergesDoNotDeadlock() throws Exception {
+        FanOutExecutor executor = new FanOutExecutor(2);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Integer>>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(callers.submit(() -> executor.merge(Arrays.asList(range(0, 2), range(1, 2)), Comparator.naturalOrder(), 0)));
+            }
+            for (Future<List<Integer>> future : futures) {
+                List<Integer> merged = future.get();
+                assertEquals(2 * ROWS, merged.size());
+                for (int i = 0; i < merged.size(); i++) {
+                    assertEquals(Integer.valueOf(i), merged.get(i));
+                }
+            }
+        } finally {
+            callers.shutdownNow();
+            callers.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void gatherReturnsResultsInOrder() {
+        FanOutExecutor executor = new FanOutExecutor(2);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int value = i;
+            tasks.add(() -> value * value);
+        }
+        assertEquals(Arrays.asList(0, 1, 4, 9, 16), executor.gather(tasks));
+
+        tasks.set(3, () -> {
+            throw new IllegalStateException("broken shard");
+        });
+        try {
+            executor.gather(tasks);
+            fail("failed target must be reported");
+        } catch (BpMybatisException e) {
+            assertTrue(e.getMessage().contains("[3]"));
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void permitsAreHeldUntilCancelledTargetsExit() throws Exception {
+        // 线程数不受限制，与虚拟线程相同，只由许可限制并发
+        FanOutExecutor executor = new FanOutExecutor(2, Executors.newCachedThreadPool());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        // 输出两行后不响应中断，类似阻塞在驱动中的查询
+        FanOutExecutor.Source<Integer> blocked = sink -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sink.test(0);
+            sink.test(2);
+            Uninterruptibles.awaitUninterruptibly(release);
+            running.decrementAndGet();
+        };
+        FanOutExecutor.Source<Integer> quick = sink -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            sink.test(1);
+            running.decrementAndGet();
+        };
+        assertEquals(Arrays.asList(0), executor.merge(Arrays.asList(blocked, blocked), Comparator.naturalOrder(), 1));
+
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Integer>> next = caller.submit(() -> executor.merge(Arrays.asList(quick, quick), Comparator.naturalOrder(), 0));
+            Thread.sleep(200);
+            assertFalse("next merge waits for the cancelled targets", next.isDone());
+            release.countDown();
+            assertEquals(Arrays.asList(1, 1), next.get());
+        } finally {
+            caller.shutdownNow();
+        }
+        assertEquals(2, maxRunning.get());
+        executor.close();
+    }
+
+    @Test
+    public void closedExecutorRejectsCalls() {
+        FanOutExecutor executor = new FanOutExecutor(2);
+        executor.close();
+        try {
+            executor.gather(Arrays.asList(() -> 1, () -> 2));
+            fail("closed executor must reject calls");
+        } catch (BpMybatisException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+    }
+
+    /**
+     * 输出 start, start + step, ... 共 ROWS 行
+     */
+    private static FanOutExecutor.Source<Integer> range(int start, int step) {
+        return sink -> {
+            for (int i = 0; i < ROWS; i++) {
+                if (!sink.test(start + i * step)) {
+                    return;
+                }
+            }
+        };
+    }
+}
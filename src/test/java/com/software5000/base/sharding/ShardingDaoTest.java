@@ -0,0 +1,122 @@
+package com.software5000.base.sharding;
+
+import com.software5000.base.Aggregation;
+import com.software5000.base.H2TestSupport;
+import com.software5000.base.TestUser;
+import com.software5000.base.dialect.H2Dialect;
+import com.software5000.base.dialect.PostgreSqlDialect;
+import com.software5000.base.jsql.ConditionWrapper;
+import com.software5000.util.BpMybatisException;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ShardingDaoTest {
+
+    private static final int TABLE_COUNT = 4;
+    private static final int USER_COUNT = 40;
+
+    private ShardingDao shardingDao;
+
+    @Before
+    public void setUp() throws Exception {
+        shardingDao = shardingDao();
+    }
+
+    /**
+     * 两个数据源各两张物理表，并行查询同一数据源的两张表，使用每次调用打开新会话的 SqlSessionManager
+     */
+    private static ShardingDao shardingDao() throws Exception {
+        String prefix = "sharding_" + System.nanoTime() + "_";
+        Map<String, SqlSession> dataSources = new HashMap<>();
+        for (int ds = 0; ds < 2; ds++) {
+            List<String> ddl = new ArrayList<>();
+            for (int table = ds * TABLE_COUNT / 2; table < (ds + 1) * TABLE_COUNT / 2; table++) {
+                ddl.add(H2TestSupport.TEST_USER_DDL.replace("TEST_USER", String.format("TEST_USER_%02d", table)));
+            }
+            dataSources.put("ds" + ds, SqlSessionManager.newInstance(H2TestSupport.factory(prefix + ds, ddl.toArray(new String[0]))));
+        }
+        ModShardingStrategy strategy = new ModShardingStrategy(Arrays.asList("ds0", "ds1"), TABLE_COUNT).shard(TestUser.class, "score");
+        ShardingDao shardingDao = new ShardingDao(dataSources, "ds0", strategy);
+        shardingDao.initConfig(true, false, "serialVersionUID", new H2Dialect());
+
+        List<TestUser> users = new ArrayList<>();
+        for (int i = 0; i < USER_COUNT; i++) {
+            users.add(new TestUser((long) i + 1, i % 7 == 0 ? null : "user" + i, i));
+        }
+        shardingDao.insertEntities(users);
+        return shardingDao;
+    }
+
+    @Test
+    public void shardKeyRoutesToOneShard() {
+        List<?> users = shardingDao.selectEntities(new TestUser(null, null, 6));
+        assertEquals(1, users.size());
+        assertEquals("user6", ((TestUser) users.get(0)).getName());
+    }
+
+    @Test
+    public void mergeShardsWithOrderAndLimit() {
+        List<?> users = shardingDao.selectEntities(new TestUser(), null, null, "score desc", 7);
+        assertEquals(7, users.size());
+        for (int i = 0; i < users.size(); i++) {
+            assertEquals(Integer.valueOf(USER_COUNT - 1 - i), ((TestUser) users.get(i)).getScore());
+        }
+        assertEquals((long) USER_COUNT, shardingDao.aggregateEntities(new TestUser(), null, Aggregation.COUNT, null));
+    }
+
+    @Test
+    public void mergeOrdersNullsLikeTheDatabase() {
+        List<String> nullsLow = Arrays.asList(null, null, null, null, null, null, "user1", "user10");
+        assertEquals(nullsLow, names(shardingDao.selectEntities(new TestUser(), null, null, "name", 8)));
+        assertEquals(Arrays.asList("user9", "user8", "user6"), names(shardingDao.selectEntities(new TestUser(), null, null, "name desc", 3)));
+
+        // 空值最大的数据库，H2 无法模拟，只检查归并的比较器
+        shardingDao.initConfig(true, false, "serialVersionUID", new PostgreSqlDialect());
+        List<TestUser> users = Arrays.asList(new TestUser(null, "b", 1), new TestUser(null, null, 2), new TestUser(null, "a", 3));
+        List<TestUser> sorted = new ArrayList<>(users);
+        sorted.sort(ShardingDao.orderByComparator("name"));
+        assertEquals(Arrays.asList("a", "b", null), names(sorted));
+        sorted.sort(ShardingDao.orderByComparator("name desc"));
+        assertEquals(Arrays.asList(null, "b", "a"), names(sorted));
+    }
+
+    @Test
+    public void conditionOnShardKeyQueriesAllShards() {
+        TestUser entity = new TestUser(null, null, 5);
+        List<?> users = shardingDao.selectEntities(entity, new ConditionWrapper<>(entity).ge("score"), null, "score", 0);
+        assertEquals(USER_COUNT - 5, users.size());
+        for (int i = 0; i < users.size(); i++) {
+            assertEquals(Integer.valueOf(i + 5), ((TestUser) users.get(i)).getScore());
+        }
+
+        entity = new TestUser(null, null, 30);
+        assertEquals(30L, shardingDao.aggregateEntities(entity, new ConditionWrapper<>(entity).lt("score"), Aggregation.COUNT, null));
+
+        // 流式查询不合并分片，条件引用分片键时需要指定分片
+        TestUser streamEntity = new TestUser(null, null, 30);
+        try {
+            shardingDao.streamEntities(streamEntity, new ConditionWrapper<>(streamEntity).lt("score"), null, null, 0, user -> true);
+            fail("stream without shard key must be called inside onShard");
+        } catch (BpMybatisException e) {
+            assertTrue(e.getMessage().contains("call inside onShard"));
+        }
+    }
+
+    private static List<String> names(List<?> users) {
+        List<String> names = new ArrayList<>(users.size());
+        for (Object user : users) {
+            names.add(((TestUser) user).getName());
+        }
+        return names;
+    }
+}
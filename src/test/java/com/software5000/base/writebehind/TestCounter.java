@@ -0,0 +1,68 @@
+package com.software5000.base.writebehind;
+
+import com.software5000.base.Version;
+
+import java.sql.Timestamp;
+
+/**
+ * 带版本号的测试实体，对应表 TEST_COUNTER
+ *
+ * @author matuobasyouca@gmail.com
+ */
+public class TestCounter {
+
+    private Long id;
+    private Long hits;
+    @Version
+    private Integer version;
+    private Timestamp createTime;
+    private Timestamp updateTime;
+
+    public TestCounter() {
+    }
+
+    public TestCounter(Long id, Long hits) {
+        this.id = id;
+        this.hits = hits;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getHits() {
+        return hits;
+    }
+
+    public void setHits(Long hits) {
+        this.hits = hits;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
+    public Timestamp getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Timestamp createTime) {
+        this.createTime = createTime;
+    }
+
+    public Timestamp getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(Timestamp updateTime) {
+        this.updateTime = updateTime;
+    }
+}
@@ -0,0 +1,173 @@
+package com.software5000.base.writebehind;
+
+import com.software5000.base.H2TestSupport;
+import com.software5000.base.TestUser;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindBufferTest {
+
+    private static final String TEST_COUNTER_DDL = "CREATE TABLE TEST_COUNTER (ID BIGINT PRIMARY KEY, HITS BIGINT, VERSION INT, "
+            + "CREATE_TIME TIMESTAMP, UPDATE_TIME TIMESTAMP)";
+
+    /**
+     * 定时写入的周期足够长，测试中只由 flush 或背压写入
+     */
+    private static final long FLUSH_INTERVAL_MILLIS = 3_600_000;
+
+    private FailingDao dao;
+    private WriteBehindBuffer buffer;
+
+    @Before
+    public void setUp() throws Exception {
+        // 后台线程与测试线程同时使用，每次调用打开新的会话
+        dao = new FailingDao(SqlSessionManager.newInstance(H2TestSupport.factory("write_behind_" + System.nanoTime(),
+                H2TestSupport.TEST_USER_DDL, TEST_COUNTER_DDL)));
+        dao.insertEntities(Arrays.asList(new TestUser(1L, "a", 0), new TestUser(2L, "b", 0), new TestUser(3L, "c", 0)));
+        buffer = new WriteBehindBuffer(dao, 100, FLUSH_INTERVAL_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        buffer.close();
+    }
+
+    @Test
+    public void pendingUpdatesCoalesce() {
+        PendingUpdate update = new PendingUpdate();
+        update.increment("score", 2);
+        update.increment("score", 3);
+        assertEquals(5L, update.increments.get("score"));
+        update.set("score", 10);
+        assertTrue("set overrides earlier increments", update.increments.isEmpty());
+        update.increment("score", 1);
+        assertEquals(11L, update.values.get("score"));
+
+        PendingUpdate failed = new PendingUpdate();
+        failed.increment("score", 2);
+        PendingUpdate later = new PendingUpdate();
+        later.increment("score", 3);
+        later.set("name", "x");
+        failed.merge(later);
+        assertEquals(5L, failed.increments.get("score"));
+        assertEquals("x", failed.values.get("name"));
+    }
+
+    @Test
+    public void flushWritesMergedUpdatesInOneStatement() {
+        for (int i = 0; i < 5; i++) {
+            buffer.increment(TestUser.class, 1L, "score", 1);
+        }
+        buffer.set(TestUser.class, 2L, "name", "first");
+        buffer.set(TestUser.class, 2L, "name", "last");
+        buffer.increment(TestUser.class, 3L, "score", 2);
+        buffer.set(TestUser.class, 3L, "score", 10);
+        assertEquals(3, buffer.getPendingRows());
+
+        assertEquals(3, buffer.flush());
+        assertEquals(1, dao.updates);
+        assertEquals(0, buffer.getPendingRows());
+        assertEquals(Integer.valueOf(5), user(1L).getScore());
+        assertEquals("last", user(2L).getName());
+        assertEquals(Integer.valueOf(0), user(2L).getScore());
+        assertEquals(Integer.valueOf(10), user(3L).getScore());
+    }
+
+    @Test
+    public void flushBumpsVersion() {
+        dao.insertEntity(new TestCounter(1L, 0L));
+        buffer.increment(TestCounter.class, 1L, "hits", 3);
+        buffer.flush();
+
+        TestCounter counter = counter(1L);
+        assertEquals(Long.valueOf(3), counter.getHits());
+        assertEquals(Integer.valueOf(1), counter.getVersion());
+    }
+
+    @Test
+    public void failedFlushIsRetriedWithLaterUpdates() {
+        buffer.increment(TestUser.class, 1L, "score", 2);
+        // 写入期间同一行又有新的增量，写入失败后合并
+        dao.failNext = () -> buffer.increment(TestUser.class, 1L, "score", 3);
+        assertEquals(0, buffer.flush());
+        assertEquals(1, buffer.getPendingRows());
+        assertEquals(Integer.valueOf(0), user(1L).getScore());
+
+        buffer.increment(TestUser.class, 1L, "score", 4);
+        assertEquals(1, buffer.getPendingRows());
+        assertEquals(1, buffer.flush());
+        assertEquals(0, buffer.getPendingRows());
+        assertEquals(Integer.valueOf(9), user(1L).getScore());
+    }
+
+    @Test
+    public void flushWhenPendingRowsReachLimit() {
+        buffer.close();
+        buffer = new WriteBehindBuffer(dao, 3, FLUSH_INTERVAL_MILLIS);
+        buffer.set(TestUser.class, 1L, "score", 1);
+        buffer.set(TestUser.class, 2L, "score", 2);
+        buffer.set(TestUser.class, 1L, "score", 3);
+        assertEquals(2, buffer.getPendingRows());
+        assertEquals(Integer.valueOf(0), user(1L).getScore());
+
+        // 第三行达到上限，由调用线程写入
+        buffer.set(TestUser.class, 3L, "score", 4);
+        assertEquals(0, buffer.getPendingRows());
+        assertEquals(Integer.valueOf(3), user(1L).getScore());
+        assertEquals(Integer.valueOf(4), user(3L).getScore());
+    }
+
+    @Test
+    public void insertsAreWrittenBeforeUpdates() {
+        buffer.insert(new TestUser(10L, "new", 1));
+        buffer.increment(TestUser.class, 10L, "score", 5);
+        assertEquals(2, buffer.getPendingRows());
+        assertEquals(2, buffer.flush());
+        assertEquals(Integer.valueOf(6), user(10L).getScore());
+    }
+
+    private TestUser user(Long id) {
+        List<?> users = dao.selectEntities(new TestUser(id, null, null));
+        assertEquals(1, users.size());
+        return (TestUser) users.get(0);
+    }
+
+    private TestCounter counter(Long id) {
+        TestCounter example = new TestCounter(id, null);
+        List<?> counters = dao.selectEntities(example);
+        assertEquals(1, counters.size());
+        return (TestCounter) counters.get(0);
+    }
+
+    /**
+     * 可以让下一次更新失败的 dao，并记录更新语句的执行次数
+     */
+    private static class FailingDao extends H2TestSupport.TestDao {
+
+        private volatile Runnable failNext;
+        private int updates;
+
+        private FailingDao(SqlSessionManager sqlSession) {
+            super(sqlSession);
+        }
+
+        @Override
+        public int update(String sqlName, Object obj) {
+            Runnable beforeFailure = failNext;
+            if (beforeFailure != null) {
+                failNext = null;
+                beforeFailure.run();
+                throw new IllegalStateException("update failed");
+            }
+            updates++;
+            return super.update(sqlName, obj);
+        }
+    }
+}
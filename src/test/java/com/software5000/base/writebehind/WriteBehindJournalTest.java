@@ -0,0 +1,143 @@
+package com.software5000.base.writebehind;
+
+import com.software5000.base.TestUser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindJournalTest {
+
+    /**
+     * 每段只能放下几条记录，便于测试切换段
+     */
+    private static final int SMALL_SEGMENT_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayAfterReopen() throws Exception {
+        File directory = folder.newFolder();
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 4096)) {
+            append(journal, 1, 10);
+        }
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 4096)) {
+            assertEquals(range(1, 10), replay(journal));
+            // 续写同一段，打开后追加的记录不在本次重放中
+            append(journal, 11, 15);
+            assertEquals(range(1, 10), replay(journal));
+        }
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 4096)) {
+            assertEquals(range(1, 15), replay(journal));
+        }
+        assertEquals(1, segmentFiles(directory).length);
+    }
+
+    @Test
+    public void tornRecordEndsReplay() throws Exception {
+        File directory = folder.newFolder();
+        long complete;
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 4096)) {
+            complete = append(journal, 1, 3);
+            append(journal, 4, 4);
+        }
+        // 破坏第4条记录的内容，模拟写了一半时崩溃
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFiles(directory)[0], "rw")) {
+            long position = (int) complete + 8 + 2;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 4096)) {
+            assertEquals(range(1, 3), replay(journal));
+            // 从最后一条完整记录之后续写，覆盖损坏的记录
+            append(journal, 5, 5);
+        }
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 4096)) {
+            assertEquals(Arrays.asList(1L, 2L, 3L, 5L), replay(journal));
+        }
+    }
+
+    @Test
+    public void checkpointSkipsEarlierRecords() throws Exception {
+        File directory = folder.newFolder();
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 4096)) {
+            long lsn = append(journal, 1, 4);
+            append(journal, 5, 10);
+            journal.checkpoint(lsn);
+            // 检查点不会后退
+            journal.checkpoint(lsn - 1);
+        }
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, 4096)) {
+            assertEquals(range(5, 10), replay(journal));
+        }
+    }
+
+    @Test
+    public void rollAcrossSegments() throws Exception {
+        File directory = folder.newFolder();
+        long lsn;
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, SMALL_SEGMENT_SIZE)) {
+            lsn = append(journal, 1, 15);
+            append(journal, 16, 20);
+        }
+        int segments = segmentFiles(directory).length;
+        assertTrue("records span several segments", segments > 3);
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, SMALL_SEGMENT_SIZE)) {
+            assertEquals(range(1, 20), replay(journal));
+            journal.checkpoint(lsn);
+            assertTrue("segments before the checkpoint are deleted", segmentFiles(directory).length < segments);
+        }
+        try (WriteBehindJournal journal = new WriteBehindJournal(directory, SMALL_SEGMENT_SIZE)) {
+            assertEquals(range(16, 20), replay(journal));
+        }
+    }
+
+    /**
+     * 追加 id 从 from 到 to 的赋值记录并刷盘
+     *
+     * @return 最后一条记录的日志序号
+     */
+    private static long append(WriteBehindJournal journal, long from, long to) {
+        long lsn = 0;
+        for (long id = from; id <= to; id++) {
+            lsn = journal.append(JournalRecord.update(JournalRecord.SET, TestUser.class, id, "score", (int) id));
+        }
+        journal.sync(lsn);
+        return lsn;
+    }
+
+    private static List<Long> replay(WriteBehindJournal journal) {
+        List<Long> ids = new ArrayList<>();
+        journal.replay(record -> {
+            assertEquals(TestUser.class.getName(), record.className);
+            assertEquals(((Long) record.id).intValue(), record.value);
+            ids.add((Long) record.id);
+        });
+        return ids;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = from; id <= to; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static File[] segmentFiles(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-"));
+        Arrays.sort(files);
+        return files;
+    }
+}